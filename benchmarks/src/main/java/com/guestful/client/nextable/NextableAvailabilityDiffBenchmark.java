@@ -0,0 +1,67 @@
+/**
+ * Copyright (C) 2013 Guestful (info@guestful.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.guestful.client.nextable;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.ByteArrayInputStream;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Diff of two consecutive results of the same search, mostly unchanged as in production.
+ *
+ * @author Mathieu Carbou (mathieu.carbou@gmail.com)
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class NextableAvailabilityDiffBenchmark {
+
+    @Param({"50", "500"})
+    int restaurants;
+
+    @Param({"7"})
+    int days;
+
+    private NextableAvailabilitySnapshot before;
+    private NextableAvailabilitySnapshot after;
+
+    @Setup
+    public void setup() {
+        byte[] response = NextableFixtures.availability(restaurants, days);
+        before = NextableAvailabilityReader.readSnapshot(new ByteArrayInputStream(response));
+        after = NextableAvailabilityReader.readSnapshot(new ByteArrayInputStream(response));
+    }
+
+    @Benchmark
+    public NextableAvailabilityDiff diff() {
+        return NextableAvailabilityDiff.between(before, after);
+    }
+
+}
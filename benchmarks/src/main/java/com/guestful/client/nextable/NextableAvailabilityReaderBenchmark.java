@@ -0,0 +1,71 @@
+/**
+ * Copyright (C) 2013 Guestful (info@guestful.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.guestful.client.nextable;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.ByteArrayInputStream;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Parsing of a {@code reservations/availability} response into merged time slots, as done by
+ * {@link NextableClient#searchAvailabilities(NextableAvailabilitySearchCriteria)}, or into a snapshot, as done by
+ * {@link NextableClient#searchAvailabilitySnapshot(NextableAvailabilitySearchCriteria)}.
+ *
+ * @author Mathieu Carbou (mathieu.carbou@gmail.com)
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class NextableAvailabilityReaderBenchmark {
+
+    @Param({"1", "50", "500"})
+    int restaurants;
+
+    @Param({"7", "60"})
+    int days;
+
+    private byte[] response;
+
+    @Setup
+    public void setup() {
+        response = NextableFixtures.availability(restaurants, days);
+    }
+
+    @Benchmark
+    public NextableAvailabilityPage read() {
+        return NextableAvailabilityReader.read(new ByteArrayInputStream(response));
+    }
+
+    @Benchmark
+    public NextableAvailabilitySnapshot readSnapshot() {
+        return NextableAvailabilityReader.readSnapshot(new ByteArrayInputStream(response));
+    }
+
+}
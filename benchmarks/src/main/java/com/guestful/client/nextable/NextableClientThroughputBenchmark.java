@@ -0,0 +1,104 @@
+/**
+ * Copyright (C) 2013 Guestful (info@guestful.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.guestful.client.nextable;
+
+import org.glassfish.jersey.jsonp.JsonProcessingFeature;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import javax.ws.rs.client.Client;
+import javax.ws.rs.client.ClientBuilder;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Requests per second against {@link NextableStubServer} answering after a fixed latency, with one caller per JMH
+ * thread, of a client built by {@link NextableClientBuilder} ({@code builder}) and of the JAX-RS client created by
+ * {@link NextableClient#NextableClient(String)} ({@code default}). The JDK connection pool is sized by system
+ * properties, i.e. compare {@code -jvmArgsAppend -Dhttp.maxConnections=5} with
+ * {@code -jvmArgsAppend -Dhttp.maxConnections=16}.
+ * <p>
+ * The stub server disables Nagle's algorithm, otherwise its headers and body, written separately, wait for the delayed
+ * acknowledgement of the client and each request takes 40 ms more.
+ *
+ * @author Mathieu Carbou (mathieu.carbou@gmail.com)
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsPrepend = "-Dsun.net.httpserver.nodelay=true")
+@Threads(16)
+public class NextableClientThroughputBenchmark {
+
+    @Param({"5"})
+    int latencyMillis;
+
+    @Param({"builder", "default"})
+    String client;
+
+    private NextableStubServer server;
+    private Client restClient;
+    private NextableClient nextable;
+    private NextableAvailabilitySearchCriteria criteria;
+
+    @Setup
+    public void setup() {
+        server = new NextableStubServer().setLatency(NextableStubServer.Latency.fixed(Duration.ofMillis(latencyMillis))).start();
+        // the default client is the one of new NextableClient(token), only pointed at the stub server
+        restClient = "builder".equals(client) ? new NextableClientBuilder().register(JsonProcessingFeature.class).buildClient() : ClientBuilder.newClient();
+        nextable = new NextableClient(restClient, "token", server.getUri());
+        LocalDateTime from = LocalDateTime.parse("2014-08-26T00:00:00");
+        criteria = new NextableAvailabilitySearchCriteria()
+            .setFrom(from)
+            .setTo(from.plusDays(6))
+            .setPartySize(2);
+        for (int i = 0; i < 10; i++) {
+            criteria.addRestaurantId("R" + i);
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        restClient.close();
+        server.close();
+    }
+
+    @Benchmark
+    public NextableRestaurant getRestaurant() {
+        return nextable.getRestaurant("17856R898");
+    }
+
+    @Benchmark
+    public List<NextableRestaurant> searchAvailabilities() {
+        return nextable.searchAvailabilities(criteria);
+    }
+
+}
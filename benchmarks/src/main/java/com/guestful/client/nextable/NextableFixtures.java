@@ -0,0 +1,128 @@
+/**
+ * Copyright (C) 2013 Guestful (info@guestful.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.guestful.client.nextable;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.time.DayOfWeek;
+import java.time.LocalDate;
+import java.time.LocalTime;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * {@code reservations/availability} responses used by the benchmarks.
+ * <p>
+ * A response recorded from Nextable can be dropped in the classpath as
+ * {@code /fixtures/availability-<restaurants>x<days>.json}, otherwise an equivalent one is generated: a lunch and a
+ * dinner service every 15 minutes, closed on Mondays, with party sizes from 1 to 12 progressively booked as the
+ * evening goes on, so that adjacent slots are often but not always mergeable. Generation is seeded and always yields
+ * the same bytes for the same size.
+ *
+ * @author Mathieu Carbou (mathieu.carbou@gmail.com)
+ */
+final class NextableFixtures {
+
+    static final LocalDate FIRST_DAY = LocalDate.of(2014, 8, 25);
+
+    private NextableFixtures() {
+    }
+
+    static byte[] availability(int restaurants, int days) {
+        InputStream recorded = NextableFixtures.class.getResourceAsStream("/fixtures/availability-" + restaurants + "x" + days + ".json");
+        if (recorded != null) {
+            try (InputStream in = recorded) {
+                ByteArrayOutputStream out = new ByteArrayOutputStream();
+                byte[] buffer = new byte[8192];
+                for (int n; (n = in.read(buffer)) != -1; ) {
+                    out.write(buffer, 0, n);
+                }
+                return out.toByteArray();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+        return generate(restaurants, days, new Random(restaurants * 31L + days));
+    }
+
+    static List<NextableRestaurant> restaurants(int restaurants, int days) {
+        return NextableAvailabilityReader.read(new ByteArrayInputStream(availability(restaurants, days))).restaurants;
+    }
+
+    static NextableReservation reservation(int i) {
+        return new NextableReservation()
+            .setId("1784" + i)
+            .setRestaurantId("17856R" + i)
+            .setFirstName("Mathieu")
+            .setLastName("Carbou")
+            .setEmail("mathieu.carbou@gmail.com")
+            .setPhoneCode("1")
+            .setPhoneNumber("5145551234")
+            .setPartySize(1 + i % 8)
+            .setStart(FIRST_DAY.atTime(19, 30).plusDays(i % 30))
+            .setSpecialRequest("Window table if possible, one guest is allergic to peanuts.");
+    }
+
+    private static byte[] generate(int restaurants, int days, Random random) {
+        StringBuilder json = new StringBuilder(restaurants * days * 1024);
+        json.append('[');
+        for (int r = 0; r < restaurants; r++) {
+            if (r > 0) json.append(',');
+            json.append("{\"id\":\"").append(17856 + r).append("R").append(898 + r).append("\"")
+                .append(",\"name\":\"Restaurant ").append(r).append("\"")
+                .append(",\"timeZone\":\"America/Montreal\",\"slotSize\":15")
+                .append(",\"availability\":[");
+            for (int d = 0; d < days; d++) {
+                LocalDate day = FIRST_DAY.plusDays(d);
+                if (d > 0) json.append(',');
+                json.append("{\"date\":\"").append(day).append("T00:00:00\",\"slots\":[");
+                boolean first = true;
+                if (day.getDayOfWeek() != DayOfWeek.MONDAY) {
+                    if (day.getDayOfWeek() != DayOfWeek.SATURDAY && day.getDayOfWeek() != DayOfWeek.SUNDAY) {
+                        first = service(json, LocalTime.of(11, 30), LocalTime.of(14, 0), random, true);
+                    }
+                    service(json, LocalTime.of(17, 0), LocalTime.of(22, 30), random, first);
+                }
+                json.append("]}");
+            }
+            json.append("]}");
+        }
+        json.append(']');
+        return json.toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static boolean service(StringBuilder json, LocalTime from, LocalTime to, Random random, boolean first) {
+        int maxPartySize = 12;
+        for (LocalTime time = from; time.isBefore(to); time = time.plusMinutes(15)) {
+            // tables get booked as the service goes on, large ones first
+            if (maxPartySize > 1 && random.nextInt(4) == 0) maxPartySize -= 1 + random.nextInt(2);
+            if (!first) json.append(',');
+            first = false;
+            json.append("{\"time24\":\"").append(time).append("\",\"partySizes\":[");
+            for (int n = 1; n <= maxPartySize; n++) {
+                if (n > 1) json.append(',');
+                json.append("{\"size\":").append(n).append('}');
+            }
+            json.append("]}");
+        }
+        return first;
+    }
+
+}
@@ -0,0 +1,75 @@
+/**
+ * Copyright (C) 2013 Guestful (info@guestful.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.guestful.client.nextable;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import javax.json.Json;
+import javax.json.JsonObject;
+import javax.json.stream.JsonParser;
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of the provider lookup done by each static {@link Json} call, compared to the factories cached by
+ * {@link NextableJson}.
+ *
+ * @author Mathieu Carbou (mathieu.carbou@gmail.com)
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class NextableJsonBenchmark {
+
+    private static final byte[] SLOT = "{\"time24\":\"19:00\",\"partySizes\":[{\"size\":2}]}".getBytes(StandardCharsets.UTF_8);
+
+    @Benchmark
+    public JsonObject objectBuilder_lookup() {
+        return Json.createObjectBuilder().add("start", "19:00").add("duration", 15).build();
+    }
+
+    @Benchmark
+    public JsonObject objectBuilder_cached() {
+        return NextableJson.createObjectBuilder().add("start", "19:00").add("duration", 15).build();
+    }
+
+    @Benchmark
+    public JsonParser.Event parser_lookup() {
+        try (JsonParser parser = Json.createParser(new ByteArrayInputStream(SLOT))) {
+            return parser.next();
+        }
+    }
+
+    @Benchmark
+    public JsonParser.Event parser_cached() {
+        try (JsonParser parser = NextableJson.createParser(new ByteArrayInputStream(SLOT))) {
+            return parser.next();
+        }
+    }
+
+}
@@ -0,0 +1,92 @@
+/**
+ * Copyright (C) 2013 Guestful (info@guestful.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.guestful.client.nextable;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Lookups and serialization of parsed restaurants.
+ *
+ * @author Mathieu Carbou (mathieu.carbou@gmail.com)
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class NextableRestaurantBenchmark {
+
+    private static final int PROBES = 1024;
+
+    @Param({"1", "50", "500"})
+    int restaurants;
+
+    @Param({"7", "60"})
+    int days;
+
+    private List<NextableRestaurant> parsed;
+    private LocalDateTime[] dateTimes;
+    private int[] partySizes;
+
+    @Setup
+    public void setup() {
+        parsed = NextableFixtures.restaurants(restaurants, days);
+        Random random = new Random(0);
+        dateTimes = new LocalDateTime[PROBES];
+        partySizes = new int[PROBES];
+        for (int i = 0; i < PROBES; i++) {
+            dateTimes[i] = NextableFixtures.FIRST_DAY.atTime(11, 0).plusDays(random.nextInt(days)).plusMinutes(15 * random.nextInt(48));
+            partySizes[i] = 1 + random.nextInt(12);
+        }
+    }
+
+    /**
+     * {@value #PROBES} lookups spread over all the restaurants, days and party sizes.
+     */
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    public void hasAvailability(Blackhole blackhole) {
+        for (int i = 0; i < PROBES; i++) {
+            blackhole.consume(parsed.get(i % parsed.size()).hasAvailability(dateTimes[i], partySizes[i]));
+        }
+    }
+
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    public void toJson(Blackhole blackhole) {
+        for (NextableRestaurant restaurant : parsed) {
+            blackhole.consume(restaurant.toJson());
+        }
+    }
+
+}
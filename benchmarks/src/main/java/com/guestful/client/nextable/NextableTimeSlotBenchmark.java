@@ -0,0 +1,78 @@
+/**
+ * Copyright (C) 2013 Guestful (info@guestful.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.guestful.client.nextable;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.time.Duration;
+import java.time.LocalTime;
+import java.time.ZoneId;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * @author Mathieu Carbou (mathieu.carbou@gmail.com)
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class NextableTimeSlotBenchmark {
+
+    private NextableTimeSlot slot;
+    private NextableReservation reservation;
+
+    @Setup
+    public void setup() {
+        slot = new NextableRestaurant("17856R898", ZoneId.of("America/Montreal"))
+            .setGranularity(Duration.ofMinutes(15))
+            .addAvailability(NextableFixtures.FIRST_DAY)
+            .addTimeSlot(LocalTime.of(19, 0));
+        reservation = NextableFixtures.reservation(1);
+    }
+
+    /**
+     * Fills a slot with the party sizes 1 to 12, as the reader does for each received slot.
+     */
+    @Benchmark
+    public NextableTimeSlot addPartySize() {
+        for (int n = 1; n <= 12; n++) {
+            slot.addPartySize(n);
+        }
+        return slot;
+    }
+
+    @Benchmark
+    public Object timeSlotToJson() {
+        return slot.toJson();
+    }
+
+    @Benchmark
+    public Object reservationToJson() {
+        return reservation.toJson();
+    }
+
+}
@@ -0,0 +1,395 @@
+/**
+ * Copyright (C) 2013 Guestful (info@guestful.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.guestful.client.nextable;
+
+import java.time.Duration;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.LocalTime;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Short lived cache of daily availabilities keyed by restaurant, day and party size. Days hold the slots of the
+ * restaurant granularity starting on them, so that a slot running past midnight is split between its days. A search
+ * is answered from the cached days, keeping the slots starting within its bounds and merging them as Nextable would,
+ * and only the days missing for each restaurant are fetched from Nextable, as whole days. Restaurants left out of a
+ * response, closed or fully booked, are cached as days without slots. Reservations created, edited or cancelled
+ * through the client invalidate the affected restaurant days.
+ * <p>
+ * Searches without {@code from} / {@code to} or asking for a page other than the first one bypass the cache.
+ *
+ * @author Mathieu Carbou (mathieu.carbou@gmail.com)
+ */
+public class NextableAvailabilityCache implements NextableReservationListener {
+
+    private final NextableClient client;
+    private final Map<Key, CachedDay> days = new LinkedHashMap<Key, CachedDay>(256, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Key, CachedDay> eldest) {
+            if (size() > maximumSize) {
+                evictions.incrementAndGet();
+                return true;
+            }
+            return false;
+        }
+    };
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+    private final AtomicLong loadFailures = new AtomicLong();
+    // bumped on each invalidation so that a search started before it does not store what it read
+    private final AtomicLong generation = new AtomicLong();
+
+    private volatile int maximumSize = 10000;
+    private volatile long timeToLive = Duration.ofSeconds(30).toNanos();
+
+    public NextableAvailabilityCache(NextableClient client) {
+        this.client = client;
+        client.addReservationListener(this);
+    }
+
+    public int getMaximumSize() {
+        return maximumSize;
+    }
+
+    public NextableAvailabilityCache setMaximumSize(int maximumSize) {
+        if (maximumSize < 1) throw new IllegalArgumentException("Bad maximum size: " + maximumSize);
+        this.maximumSize = maximumSize;
+        return this;
+    }
+
+    public Duration getTimeToLive() {
+        return Duration.ofNanos(timeToLive);
+    }
+
+    public NextableAvailabilityCache setTimeToLive(Duration timeToLive) {
+        this.timeToLive = timeToLive.toNanos();
+        return this;
+    }
+
+    public List<NextableRestaurant> searchAvailabilities(NextableAvailabilitySearchCriteria criteria) throws NextableException {
+        return NextableFutures.join(searchAvailabilitiesAsync(criteria));
+    }
+
+    public CompletableFuture<List<NextableRestaurant>> searchAvailabilitiesAsync(NextableAvailabilitySearchCriteria criteria) {
+        if (criteria.getFrom() == null || criteria.getTo() == null || criteria.getPage() != 0) {
+            return client.searchAvailabilitiesAsync(criteria);
+        }
+        LocalDate first = criteria.getFrom().toLocalDate();
+        LocalDate last = criteria.getTo().toLocalDate();
+        Map<Key, CachedDay> found = new HashMap<>();
+        // restaurants grouped by run of consecutive missing days, so that each one only fetches what it misses
+        Map<Run, Set<String>> missing = new LinkedHashMap<>();
+        int missingDays = 0;
+        long now = System.nanoTime();
+        synchronized (days) {
+            for (String id : criteria.getRestaurantIds()) {
+                LocalDate runFrom = null;
+                for (LocalDate day = first; !day.isAfter(last); day = day.plusDays(1)) {
+                    Key key = new Key(id, day, criteria.getPartySize());
+                    CachedDay cached = days.get(key);
+                    if (cached != null && now - cached.loadedAt < timeToLive) {
+                        found.put(key, cached);
+                        if (runFrom != null) {
+                            missing.computeIfAbsent(new Run(runFrom, day.minusDays(1)), run -> new LinkedHashSet<>()).add(id);
+                            runFrom = null;
+                        }
+                    } else {
+                        missingDays++;
+                        if (runFrom == null) runFrom = day;
+                    }
+                }
+                if (runFrom != null) {
+                    missing.computeIfAbsent(new Run(runFrom, last), run -> new LinkedHashSet<>()).add(id);
+                }
+            }
+        }
+        hits.addAndGet(found.size());
+        if (missing.isEmpty()) {
+            return CompletableFuture.completedFuture(build(criteria, found));
+        }
+        misses.addAndGet(missingDays);
+        long startGeneration = generation.get();
+        List<CompletableFuture<Map<Key, CachedDay>>> fetches = new ArrayList<>(missing.size());
+        missing.forEach((run, ids) -> {
+            // a single page holding all the missing restaurants, whatever the page size asked by the caller
+            NextableAvailabilitySearchCriteria fetch = criteria.copy(ids)
+                .setFrom(run.from.atStartOfDay())
+                .setTo(run.to.atTime(23, 59, 59))
+                .setPageSize(ids.size());
+            fetches.add(client.searchAvailabilitiesAsync(fetch).thenApply(restaurants -> split(restaurants, ids, run, criteria.getPartySize())));
+        });
+        return CompletableFuture.allOf(fetches.toArray(new CompletableFuture<?>[fetches.size()])).handle((ignored, throwable) -> {
+            if (throwable != null) {
+                loadFailures.incrementAndGet();
+                Throwable cause = NextableFutures.unwrap(throwable);
+                throw cause instanceof RuntimeException ? (RuntimeException) cause : new CompletionException(cause);
+            }
+            Map<Key, CachedDay> fetched = new HashMap<>();
+            fetches.forEach(fetch -> fetched.putAll(fetch.join()));
+            synchronized (days) {
+                if (generation.get() == startGeneration) {
+                    days.putAll(fetched);
+                }
+            }
+            fetched.forEach(found::putIfAbsent);
+            return build(criteria, found);
+        });
+    }
+
+    public void invalidate(String restaurantId, LocalDate day) {
+        synchronized (days) {
+            generation.incrementAndGet();
+            days.keySet().removeIf(key -> key.restaurantId.equals(restaurantId) && key.day.equals(day));
+        }
+    }
+
+    /**
+     * Invalidates the cached days of the restaurant having slots at the given time: the day of the time, and the day
+     * before it if its slots run past midnight up to this time. Without the day of the time in the cache, the day before
+     * is invalidated as soon as its slots reach midnight.
+     */
+    public void invalidate(String restaurantId, LocalDateTime time) {
+        LocalDate day = time.toLocalDate();
+        LocalDate dayBefore = day.minusDays(1);
+        synchronized (days) {
+            generation.incrementAndGet();
+            // party sizes whose day is cached without slots running from midnight up to the time
+            Set<Integer> interrupted = new HashSet<>();
+            for (Map.Entry<Key, CachedDay> entry : days.entrySet()) {
+                Key key = entry.getKey();
+                if (key.restaurantId.equals(restaurantId) && key.day.equals(day) && !entry.getValue().runsFromMidnightTo(time.toLocalTime())) {
+                    interrupted.add(key.partySize);
+                }
+            }
+            days.entrySet().removeIf(entry -> {
+                Key key = entry.getKey();
+                if (!key.restaurantId.equals(restaurantId)) return false;
+                if (key.day.equals(day)) return true;
+                return key.day.equals(dayBefore) && !interrupted.contains(key.partySize) && entry.getValue().reachesMidnight(dayBefore);
+            });
+        }
+    }
+
+    public void invalidate(String restaurantId) {
+        synchronized (days) {
+            generation.incrementAndGet();
+            days.keySet().removeIf(key -> key.restaurantId.equals(restaurantId));
+        }
+    }
+
+    public void invalidateAll() {
+        synchronized (days) {
+            generation.incrementAndGet();
+            days.clear();
+        }
+    }
+
+    public int size() {
+        synchronized (days) {
+            return days.size();
+        }
+    }
+
+    public NextableCacheStats getStats() {
+        return new NextableCacheStats(hits.get(), 0, misses.get(), evictions.get(), loadFailures.get());
+    }
+
+    @Override
+    public void onReservationCreated(NextableReservation reservation) {
+        if (reservation.getStart() != null) {
+            invalidate(reservation.getRestaurantId(), reservation.getStart());
+        } else {
+            invalidate(reservation.getRestaurantId());
+        }
+    }
+
+    @Override
+    public void onReservationEdited(NextableReservation reservation) {
+        // the previous day of the reservation is unknown
+        invalidate(reservation.getRestaurantId());
+    }
+
+    @Override
+    public void onReservationCancelled(String reservationId, String restaurantId) {
+        invalidate(restaurantId);
+    }
+
+    /**
+     * Cuts the slots of the fetched restaurants into slots of their granularity, grouped by the day they start on. Every
+     * requested restaurant and day gets a cached day, without slots if Nextable did not return it.
+     */
+    private static Map<Key, CachedDay> split(List<NextableRestaurant> restaurants, Collection<String> restaurantIds, Run run, int partySize) {
+        long now = System.nanoTime();
+        Map<Key, CachedDay> fetched = new HashMap<>();
+        for (NextableRestaurant restaurant : restaurants) {
+            Duration granularity = restaurant.getGranularity();
+            Map<LocalDate, List<CachedSlot>> granules = new HashMap<>();
+            for (NextableDailyAvailability availability : restaurant.getAvailabilities()) {
+                for (NextableTimeSlot slot : availability.getTimeSlots()) {
+                    LocalDateTime start = LocalDateTime.of(availability.getDay(), slot.getStartTime());
+                    LocalDateTime end = start.plus(slot.getDuration());
+                    for (LocalDateTime t = start; t.isBefore(end); t = t.plus(granularity)) {
+                        granules.computeIfAbsent(t.toLocalDate(), day -> new ArrayList<>()).add(new CachedSlot(t.toLocalTime(), slot.getPartySizeMask()));
+                    }
+                }
+            }
+            for (LocalDate day = run.from; !day.isAfter(run.to); day = day.plusDays(1)) {
+                List<CachedSlot> slots = granules.getOrDefault(day, Collections.emptyList());
+                fetched.put(new Key(restaurant.getId(), day, partySize), new CachedDay(restaurant.getTimeZone(), granularity, slots, now));
+            }
+        }
+        // closed or fully booked restaurants are left out of the responses
+        for (String id : restaurantIds) {
+            for (LocalDate day = run.from; !day.isAfter(run.to); day = day.plusDays(1)) {
+                fetched.putIfAbsent(new Key(id, day, partySize), new CachedDay(null, null, Collections.emptyList(), now));
+            }
+        }
+        return fetched;
+    }
+
+    private static List<NextableRestaurant> build(NextableAvailabilitySearchCriteria criteria, Map<Key, CachedDay> found) {
+        LocalDateTime from = criteria.getFrom();
+        LocalDateTime to = criteria.getTo();
+        List<NextableRestaurant> restaurants = new ArrayList<>();
+        for (String id : criteria.getRestaurantIds()) {
+            NextableSlotMerger merger = null;
+            for (LocalDate day = from.toLocalDate(); !day.isAfter(to.toLocalDate()); day = day.plusDays(1)) {
+                CachedDay cached = found.get(new Key(id, day, criteria.getPartySize()));
+                if (cached == null) continue;
+                for (CachedSlot slot : cached.slots) {
+                    LocalDateTime start = LocalDateTime.of(day, slot.start);
+                    // as Nextable, only keeps the slots starting within the search
+                    if (start.isBefore(from) || start.isAfter(to)) continue;
+                    if (merger == null) {
+                        merger = new NextableSlotMerger(new NextableRestaurant(id, cached.timeZone).setGranularity(cached.granularity));
+                    }
+                    // days are cached separately: the merger joins the slots running across midnight
+                    merger.add(start, cached.granularity, slot.partySizes);
+                }
+            }
+            if (merger != null && merger.getRestaurant().hasAvailability()) {
+                restaurants.add(merger.getRestaurant());
+            }
+        }
+        return restaurants;
+    }
+
+    private static final class Key {
+        final String restaurantId;
+        final LocalDate day;
+        final int partySize;
+
+        Key(String restaurantId, LocalDate day, int partySize) {
+            this.restaurantId = restaurantId;
+            this.day = day;
+            this.partySize = partySize;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (!(o instanceof Key)) return false;
+            Key key = (Key) o;
+            return partySize == key.partySize && restaurantId.equals(key.restaurantId) && day.equals(key.day);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(restaurantId, day, partySize);
+        }
+    }
+
+    private static final class CachedDay {
+        final ZoneId timeZone;
+        final Duration granularity;
+        final List<CachedSlot> slots;
+        final long loadedAt;
+
+        CachedDay(ZoneId timeZone, Duration granularity, List<CachedSlot> slots, long loadedAt) {
+            this.timeZone = timeZone;
+            this.granularity = granularity;
+            this.slots = slots;
+            this.loadedAt = loadedAt;
+        }
+
+        boolean reachesMidnight(LocalDate day) {
+            if (slots.isEmpty()) return false;
+            LocalTime last = slots.get(slots.size() - 1).start;
+            return LocalDateTime.of(day, last).plus(granularity).toLocalDate().isAfter(day);
+        }
+
+        boolean runsFromMidnightTo(LocalTime time) {
+            LocalTime next = LocalTime.MIDNIGHT;
+            for (CachedSlot slot : slots) {
+                if (!slot.start.equals(next)) return false;
+                next = slot.start.plus(granularity);
+                if (time.isBefore(next) || next.equals(LocalTime.MIDNIGHT)) return !time.isBefore(slot.start);
+            }
+            return false;
+        }
+    }
+
+    private static final class CachedSlot {
+        final LocalTime start;
+        final long partySizes;
+
+        CachedSlot(LocalTime start, long partySizes) {
+            this.start = start;
+            this.partySizes = partySizes;
+        }
+    }
+
+    // consecutive days missing from the cache
+    private static final class Run {
+        final LocalDate from;
+        final LocalDate to;
+
+        Run(LocalDate from, LocalDate to) {
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (!(o instanceof Run)) return false;
+            Run run = (Run) o;
+            return from.equals(run.from) && to.equals(run.to);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(from, to);
+        }
+    }
+
+}
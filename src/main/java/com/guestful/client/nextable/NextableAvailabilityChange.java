@@ -0,0 +1,142 @@
+/**
+ * Copyright (C) 2013 Guestful (info@guestful.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.guestful.client.nextable;
+
+import javax.json.JsonArrayBuilder;
+import javax.json.JsonObject;
+import javax.json.JsonObjectBuilder;
+import java.time.Duration;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.LocalTime;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * One time slot added, removed or changed between two availability results. Slots are identified by their restaurant
+ * and start: a changed slot starts at the same time but lasts longer or shorter, or accepts other party sizes.
+ *
+ * @author Mathieu Carbou (mathieu.carbou@gmail.com)
+ */
+public class NextableAvailabilityChange {
+
+    public enum Type {ADDED, REMOVED, CHANGED}
+
+    private final Type type;
+    private final String restaurantId;
+    private final LocalDateTime start;
+    private final int previousDuration;
+    private final long previousPartySizes;
+    private final int duration;
+    private final long partySizes;
+
+    NextableAvailabilityChange(Type type, String restaurantId, LocalDateTime start, int previousDuration, long previousPartySizes, int duration, long partySizes) {
+        this.type = type;
+        this.restaurantId = restaurantId;
+        this.start = start;
+        this.previousDuration = previousDuration;
+        this.previousPartySizes = previousPartySizes;
+        this.duration = duration;
+        this.partySizes = partySizes;
+    }
+
+    public Type getType() {
+        return type;
+    }
+
+    public String getRestaurantId() {
+        return restaurantId;
+    }
+
+    /**
+     * @return the start of the slot, in the time zone of the restaurant
+     */
+    public LocalDateTime getStart() {
+        return start;
+    }
+
+    public LocalDate getDay() {
+        return start.toLocalDate();
+    }
+
+    public LocalTime getStartTime() {
+        return start.toLocalTime();
+    }
+
+    /**
+     * @return the duration before the change, or {@link Duration#ZERO} for an added slot
+     */
+    public Duration getPreviousDuration() {
+        return Duration.ofMinutes(previousDuration);
+    }
+
+    /**
+     * @return the party sizes accepted before the change, empty for an added slot
+     */
+    public List<Integer> getPreviousPartySizes() {
+        return partySizes(previousPartySizes);
+    }
+
+    /**
+     * @return the duration after the change, or {@link Duration#ZERO} for a removed slot
+     */
+    public Duration getDuration() {
+        return Duration.ofMinutes(duration);
+    }
+
+    /**
+     * @return the party sizes accepted after the change, empty for a removed slot
+     */
+    public List<Integer> getPartySizes() {
+        return partySizes(partySizes);
+    }
+
+    public JsonObject toJson() {
+        JsonObjectBuilder builder = NextableJson.createObjectBuilder()
+            .add("type", type.name())
+            .add("restaurantId", restaurantId)
+            .add("start", start.format(NextableClient.DATE_TIME_FORMATTER));
+        if (type != Type.ADDED) {
+            builder.add("previousDuration", previousDuration).add("previousPartySizes", toJson(previousPartySizes));
+        }
+        if (type != Type.REMOVED) {
+            builder.add("duration", duration).add("partySizes", toJson(partySizes));
+        }
+        return builder.build();
+    }
+
+    @Override
+    public String toString() {
+        return toJson().toString();
+    }
+
+    private static List<Integer> partySizes(long mask) {
+        List<Integer> sizes = new ArrayList<>(Long.bitCount(mask));
+        for (long m = mask; m != 0; m &= m - 1) {
+            sizes.add(Long.numberOfTrailingZeros(m));
+        }
+        return sizes;
+    }
+
+    private static JsonArrayBuilder toJson(long mask) {
+        JsonArrayBuilder array = NextableJson.createArrayBuilder();
+        for (long m = mask; m != 0; m &= m - 1) {
+            array.add(Long.numberOfTrailingZeros(m));
+        }
+        return array;
+    }
+
+}
@@ -0,0 +1,124 @@
+/**
+ * Copyright (C) 2013 Guestful (info@guestful.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.guestful.client.nextable;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Slots added, removed or changed between two availability results, so that only the changes are pushed downstream.
+ * Both results are read as {@link NextableAvailabilitySnapshot}s, whose slots are sorted by start within each
+ * restaurant: the slots of a restaurant are compared by a single merge pass, and restaurants are matched by id, so the
+ * diff is computed in linear time.
+ * <p>
+ * Slots are compared after merging, as returned by the searches: when a merged slot is split, the first part is
+ * reported as changed and the next ones as added.
+ *
+ * @author Mathieu Carbou (mathieu.carbou@gmail.com)
+ */
+public class NextableAvailabilityDiff {
+
+    private static final int MINUTES_PER_DAY = 24 * 60;
+
+    private final List<NextableAvailabilityChange> changes;
+
+    private NextableAvailabilityDiff(List<NextableAvailabilityChange> changes) {
+        this.changes = Collections.unmodifiableList(changes);
+    }
+
+    public static NextableAvailabilityDiff between(Collection<NextableRestaurant> before, Collection<NextableRestaurant> after) {
+        return between(NextableAvailabilitySnapshot.of(before), NextableAvailabilitySnapshot.of(after));
+    }
+
+    public static NextableAvailabilityDiff between(NextableAvailabilitySnapshot before, NextableAvailabilitySnapshot after) {
+        List<NextableAvailabilityChange> changes = new ArrayList<>();
+        boolean[] matched = new boolean[before.getRestaurantCount()];
+        for (int r = 0; r < after.getRestaurantCount(); r++) {
+            int previous = before.indexOf(after.getRestaurantId(r));
+            if (previous >= 0) {
+                matched[previous] = true;
+                merge(changes, after.getRestaurantId(r), before.cursor(previous), after.cursor(r));
+            } else {
+                merge(changes, after.getRestaurantId(r), null, after.cursor(r));
+            }
+        }
+        for (int r = 0; r < matched.length; r++) {
+            if (!matched[r]) {
+                merge(changes, before.getRestaurantId(r), before.cursor(r), null);
+            }
+        }
+        return new NextableAvailabilityDiff(changes);
+    }
+
+    /**
+     * @return the changes, restaurant by restaurant and sorted by start within a restaurant: restaurants of the new
+     * result first, in their order, then the ones which are gone
+     */
+    public List<NextableAvailabilityChange> getChanges() {
+        return changes;
+    }
+
+    public boolean isEmpty() {
+        return changes.isEmpty();
+    }
+
+    /**
+     * @return the ids of the restaurants having at least one change
+     */
+    public Set<String> getRestaurantIds() {
+        Set<String> ids = new LinkedHashSet<>();
+        for (NextableAvailabilityChange change : changes) {
+            ids.add(change.getRestaurantId());
+        }
+        return ids;
+    }
+
+    @Override
+    public String toString() {
+        return "NextableAvailabilityDiff{changes=" + changes + '}';
+    }
+
+    private static void merge(List<NextableAvailabilityChange> changes, String restaurantId, NextableAvailabilitySnapshot.Cursor before, NextableAvailabilitySnapshot.Cursor after) {
+        boolean hasBefore = before != null && before.next();
+        boolean hasAfter = after != null && after.next();
+        while (hasBefore || hasAfter) {
+            long b = hasBefore ? start(before) : Long.MAX_VALUE;
+            long a = hasAfter ? start(after) : Long.MAX_VALUE;
+            if (b < a) {
+                changes.add(new NextableAvailabilityChange(NextableAvailabilityChange.Type.REMOVED, restaurantId, before.getStart(), before.getDurationMinutes(), before.getPartySizeMask(), 0, 0));
+                hasBefore = before.next();
+            } else if (a < b) {
+                changes.add(new NextableAvailabilityChange(NextableAvailabilityChange.Type.ADDED, restaurantId, after.getStart(), 0, 0, after.getDurationMinutes(), after.getPartySizeMask()));
+                hasAfter = after.next();
+            } else {
+                if (before.getDurationMinutes() != after.getDurationMinutes() || before.getPartySizeMask() != after.getPartySizeMask()) {
+                    changes.add(new NextableAvailabilityChange(NextableAvailabilityChange.Type.CHANGED, restaurantId, after.getStart(), before.getDurationMinutes(), before.getPartySizeMask(), after.getDurationMinutes(), after.getPartySizeMask()));
+                }
+                hasBefore = before.next();
+                hasAfter = after.next();
+            }
+        }
+    }
+
+    private static long start(NextableAvailabilitySnapshot.Cursor cursor) {
+        return cursor.getEpochDay() * MINUTES_PER_DAY + cursor.getStartMinute();
+    }
+
+}
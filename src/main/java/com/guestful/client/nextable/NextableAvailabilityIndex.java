@@ -0,0 +1,194 @@
+/**
+ * Copyright (C) 2013 Guestful (info@guestful.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.guestful.client.nextable;
+
+import java.time.Duration;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+
+/**
+ * Read-only index of the time slots of a restaurant: for each day, slots sorted by start minute with their end minute
+ * and party size mask, so that point lookups are a map get plus a binary search. Times are compared as local
+ * wall-clock minutes of the restaurant. A slot may end after midnight and is then found from the next day as well.
+ * <p>
+ * The index is a snapshot: {@link NextableRestaurant#getAvailabilityIndex()} rebuilds it after any modification.
+ *
+ * @author Mathieu Carbou (mathieu.carbou@gmail.com)
+ */
+public class NextableAvailabilityIndex {
+
+    private static final int MINUTES_PER_DAY = 24 * 60;
+
+    private final Map<LocalDate, Day> days;
+    private final LocalDate[] sortedDays;
+
+    NextableAvailabilityIndex(NextableRestaurant restaurant) {
+        List<NextableDailyAvailability> availabilities = restaurant.getAvailabilities();
+        this.days = new HashMap<>(availabilities.size() * 2);
+        for (NextableDailyAvailability availability : availabilities) {
+            if (!availability.getTimeSlots().isEmpty()) {
+                Day day = days.get(availability.getDay());
+                days.put(availability.getDay(), day == null ? new Day(availability.getTimeSlots()) : day.merge(availability.getTimeSlots()));
+            }
+        }
+        this.sortedDays = days.keySet().toArray(new LocalDate[days.size()]);
+        Arrays.sort(sortedDays);
+    }
+
+    public boolean isEmpty() {
+        return sortedDays.length == 0;
+    }
+
+    public boolean hasAvailability(LocalDateTime dateTime, int partySize) {
+        return find(dateTime, partySize) != null;
+    }
+
+    /**
+     * @return the slot accepting the party size and containing {@code dateTime}, or else the next one starting after
+     */
+    public Optional<NextableTimeSlot> findFirstAvailability(LocalDateTime dateTime, int partySize) {
+        NextableTimeSlot slot = find(dateTime, partySize);
+        if (slot != null) return Optional.of(slot);
+        long mask = mask(partySize);
+        if (mask == 0) return Optional.empty();
+        LocalDate date = dateTime.toLocalDate();
+        int minute = minutes(dateTime);
+        int d = Arrays.binarySearch(sortedDays, date);
+        for (int i = d >= 0 ? d : -d - 1; i < sortedDays.length; i++) {
+            Day day = days.get(sortedDays[i]);
+            int from = sortedDays[i].equals(date) ? day.firstStartingAfter(minute) : 0;
+            for (int j = from; j < day.size(); j++) {
+                if ((day.masks[j] & mask) != 0) return Optional.of(day.slots[j]);
+            }
+        }
+        return Optional.empty();
+    }
+
+    /**
+     * @param partySize the party size to accept, or 0 for any
+     * @return the slots overlapping [from, to), in chronological order
+     */
+    public List<NextableTimeSlot> getTimeSlots(LocalDateTime from, LocalDateTime to, int partySize) {
+        long mask = partySize <= 0 ? -1L : mask(partySize);
+        if (mask == 0 || !from.isBefore(to)) return Collections.emptyList();
+        List<NextableTimeSlot> slots = new ArrayList<>();
+        int d = Arrays.binarySearch(sortedDays, from.toLocalDate().minusDays(1));
+        for (int i = d >= 0 ? d : -d - 1; i < sortedDays.length && sortedDays[i].atStartOfDay().isBefore(to); i++) {
+            Day day = days.get(sortedDays[i]);
+            int start = (int) Duration.between(sortedDays[i].atStartOfDay(), from).toMinutes();
+            int end = (int) Duration.between(sortedDays[i].atStartOfDay(), to).toMinutes();
+            for (int j = 0; j < day.size() && day.starts[j] < end; j++) {
+                if (day.ends[j] > start && (day.masks[j] & mask) != 0) slots.add(day.slots[j]);
+            }
+        }
+        return slots;
+    }
+
+    private NextableTimeSlot find(LocalDateTime dateTime, int partySize) {
+        long mask = mask(partySize);
+        if (mask == 0) return null;
+        LocalDate date = dateTime.toLocalDate();
+        int minute = minutes(dateTime);
+        Day day = days.get(date);
+        NextableTimeSlot slot = day == null ? null : day.find(minute, mask);
+        if (slot == null) {
+            Day previous = days.get(date.minusDays(1));
+            if (previous != null && previous.maxEnd() > MINUTES_PER_DAY) {
+                slot = previous.find(minute + MINUTES_PER_DAY, mask);
+            }
+        }
+        return slot;
+    }
+
+    private static int minutes(LocalDateTime dateTime) {
+        return dateTime.getHour() * 60 + dateTime.getMinute();
+    }
+
+    private static long mask(int partySize) {
+        return partySize < 0 || partySize > NextableTimeSlot.MAX_PARTY_SIZE ? 0 : 1L << partySize;
+    }
+
+    private static final class Day {
+        final NextableTimeSlot[] slots;
+        final int[] starts;
+        final int[] ends;
+        // maxEnds[i] is the greatest end of slots 0..i, to stop backward scans early
+        final int[] maxEnds;
+        final long[] masks;
+
+        Day(List<NextableTimeSlot> timeSlots) {
+            this(timeSlots.toArray(new NextableTimeSlot[timeSlots.size()]));
+        }
+
+        Day(NextableTimeSlot[] slots) {
+            Arrays.sort(slots, (a, b) -> a.getStartTime().compareTo(b.getStartTime()));
+            this.slots = slots;
+            this.starts = new int[slots.length];
+            this.ends = new int[slots.length];
+            this.maxEnds = new int[slots.length];
+            this.masks = new long[slots.length];
+            for (int i = 0; i < slots.length; i++) {
+                starts[i] = slots[i].getStartTime().toSecondOfDay() / 60;
+                ends[i] = starts[i] + (int) slots[i].getDuration().toMinutes();
+                maxEnds[i] = i == 0 ? ends[i] : Math.max(maxEnds[i - 1], ends[i]);
+                masks[i] = slots[i].getPartySizeMask();
+            }
+        }
+
+        Day merge(List<NextableTimeSlot> timeSlots) {
+            NextableTimeSlot[] all = Arrays.copyOf(slots, slots.length + timeSlots.size());
+            for (int i = 0; i < timeSlots.size(); i++) {
+                all[slots.length + i] = timeSlots.get(i);
+            }
+            return new Day(all);
+        }
+
+        int size() {
+            return slots.length;
+        }
+
+        int maxEnd() {
+            return maxEnds[maxEnds.length - 1];
+        }
+
+        // index of the first slot starting strictly after the minute
+        int firstStartingAfter(int minute) {
+            int lo = 0;
+            int hi = starts.length;
+            while (lo < hi) {
+                int mid = (lo + hi) >>> 1;
+                if (starts[mid] <= minute) lo = mid + 1;
+                else hi = mid;
+            }
+            return lo;
+        }
+
+        NextableTimeSlot find(int minute, long mask) {
+            for (int i = firstStartingAfter(minute) - 1; i >= 0 && maxEnds[i] > minute; i--) {
+                if (ends[i] > minute && (masks[i] & mask) != 0) return slots[i];
+            }
+            return null;
+        }
+    }
+
+}
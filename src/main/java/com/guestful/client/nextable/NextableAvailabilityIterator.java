@@ -0,0 +1,75 @@
+/**
+ * Copyright (C) 2013 Guestful (info@guestful.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.guestful.client.nextable;
+
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * @author Mathieu Carbou (mathieu.carbou@gmail.com)
+ */
+final class NextableAvailabilityIterator implements Iterator<NextableRestaurant>, AutoCloseable {
+
+    private final NextableClient client;
+    private final NextableAvailabilitySearchCriteria criteria;
+
+    private Iterator<NextableRestaurant> current = Collections.emptyIterator();
+    private CompletableFuture<NextableAvailabilityPage> pending;
+    private int page;
+
+    NextableAvailabilityIterator(NextableClient client, NextableAvailabilitySearchCriteria criteria) {
+        if (criteria.getPageSize() < 1) throw new IllegalArgumentException("Bad page size: " + criteria.getPageSize());
+        this.client = client;
+        this.criteria = criteria;
+        this.page = criteria.getPage();
+        this.pending = fetch(page);
+    }
+
+    @Override
+    public boolean hasNext() {
+        while (!current.hasNext()) {
+            if (pending == null) return false;
+            NextableAvailabilityPage received = NextableFutures.join(pending);
+            // prefetch the next page while this one is consumed
+            pending = received.size < criteria.getPageSize() ? null : fetch(++page);
+            current = received.restaurants.iterator();
+        }
+        return true;
+    }
+
+    @Override
+    public NextableRestaurant next() {
+        if (!hasNext()) throw new NoSuchElementException();
+        return current.next();
+    }
+
+    @Override
+    public void close() {
+        if (pending != null) {
+            // only gives up this iterator's share of the prefetch: the request is aborted unless coalesced with others
+            pending.cancel(true);
+            pending = null;
+        }
+        current = Collections.emptyIterator();
+    }
+
+    private CompletableFuture<NextableAvailabilityPage> fetch(int page) {
+        return client.searchAvailabilityPageAsync(criteria.copy(criteria.getRestaurantIds()).setPage(page));
+    }
+
+}
@@ -0,0 +1,34 @@
+/**
+ * Copyright (C) 2013 Guestful (info@guestful.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.guestful.client.nextable;
+
+import java.util.List;
+
+/**
+ * @author Mathieu Carbou (mathieu.carbou@gmail.com)
+ */
+final class NextableAvailabilityPage {
+
+    final List<NextableRestaurant> restaurants;
+    // number of entries returned by Nextable, before dropping restaurants without availability
+    final int size;
+
+    NextableAvailabilityPage(List<NextableRestaurant> restaurants, int size) {
+        this.restaurants = restaurants;
+        this.size = size;
+    }
+
+}
@@ -0,0 +1,341 @@
+/**
+ * Copyright (C) 2013 Guestful (info@guestful.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.guestful.client.nextable;
+
+import java.time.Duration;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Keeps the availabilities of a set of hot restaurants loaded in the background, from now to the end of the horizon
+ * (today and tomorrow by default), so that pages read them from memory with {@link #getSnapshot(String)} instead of
+ * waiting for Nextable.
+ * <p>
+ * Every {@code tick}, the restaurants due for a refresh are searched together with
+ * {@link NextableClient#searchAvailabilitySnapshotAsync(NextableAvailabilitySearchCriteria)}, so the searches go
+ * through the rate limiter, bulkhead and circuit breaker of the client. A single search is in flight at a time and the
+ * restaurants of a failed or rejected search keep their previous availabilities until their next interval.
+ * <p>
+ * The refresh interval of each restaurant follows how often it is read: about once every {@code readsPerRefresh}
+ * reads, between {@code minInterval} and {@code maxInterval}. The intervals are shortened by a random jitter so that
+ * restaurants added together do not stay refreshed together.
+ * <pre>
+ * NextableAvailabilityPrefetcher prefetcher = new NextableAvailabilityPrefetcher(client).addRestaurantId("17856R898").start();
+ * NextableAvailabilitySnapshot snapshot = prefetcher.getSnapshot("17856R898");
+ * if (snapshot != null &amp;&amp; snapshot.hasAvailability("17856R898", dateTime, 2)) ...
+ * </pre>
+ *
+ * @author Mathieu Carbou (mathieu.carbou@gmail.com)
+ */
+public class NextableAvailabilityPrefetcher implements AutoCloseable {
+
+    private static final Logger LOGGER = Logger.getLogger(NextableAvailabilityPrefetcher.class.getName());
+
+    private final NextableClient client;
+    private final Map<String, Hot> restaurants = new ConcurrentHashMap<>();
+    private final AtomicBoolean refreshing = new AtomicBoolean();
+
+    private volatile int horizon = 2;
+    private volatile ZoneId timeZone = ZoneId.systemDefault();
+    private volatile long tick = Duration.ofSeconds(1).toNanos();
+    private volatile long minInterval = Duration.ofSeconds(15).toNanos();
+    private volatile long maxInterval = Duration.ofMinutes(5).toNanos();
+    private volatile double readsPerRefresh = 20;
+    private volatile double jitter = 0.2;
+    private volatile int batchSize = 50;
+
+    private ScheduledFuture<?> timer;
+
+    public NextableAvailabilityPrefetcher(NextableClient client) {
+        this.client = client;
+    }
+
+    public NextableAvailabilityPrefetcher addRestaurantId(String restaurantId) {
+        // due at a random time of the first interval, to spread the first loads
+        long now = System.nanoTime();
+        restaurants.computeIfAbsent(restaurantId, id -> new Hot(now + (long) (ThreadLocalRandom.current().nextDouble() * Math.min(tick * 10, maxInterval))));
+        return this;
+    }
+
+    public NextableAvailabilityPrefetcher removeRestaurantId(String restaurantId) {
+        restaurants.remove(restaurantId);
+        return this;
+    }
+
+    public Set<String> getRestaurantIds() {
+        return new TreeSet<>(restaurants.keySet());
+    }
+
+    public NextableAvailabilityPrefetcher setRestaurantIds(Collection<String> restaurantIds) {
+        restaurants.keySet().retainAll(restaurantIds);
+        restaurantIds.forEach(this::addRestaurantId);
+        return this;
+    }
+
+    public int getHorizon() {
+        return horizon;
+    }
+
+    /**
+     * @param horizon number of days loaded, starting today: 1 for tonight only, 2 for tonight and tomorrow
+     */
+    public NextableAvailabilityPrefetcher setHorizon(int horizon) {
+        if (horizon < 1) throw new IllegalArgumentException("Bad horizon: " + horizon);
+        this.horizon = horizon;
+        return this;
+    }
+
+    public ZoneId getTimeZone() {
+        return timeZone;
+    }
+
+    /**
+     * @param timeZone time zone defining today, usually the one of the restaurants
+     */
+    public NextableAvailabilityPrefetcher setTimeZone(ZoneId timeZone) {
+        this.timeZone = timeZone;
+        return this;
+    }
+
+    public Duration getTick() {
+        return Duration.ofNanos(tick);
+    }
+
+    /**
+     * @param tick how often the restaurants due for a refresh are looked for. Applied on {@link #start()}.
+     */
+    public NextableAvailabilityPrefetcher setTick(Duration tick) {
+        if (tick.isNegative() || tick.isZero()) throw new IllegalArgumentException("Bad tick: " + tick);
+        this.tick = tick.toNanos();
+        return this;
+    }
+
+    public Duration getMinInterval() {
+        return Duration.ofNanos(minInterval);
+    }
+
+    /**
+     * @param minInterval refresh interval of the most read restaurants, at most {@code maxInterval}
+     */
+    public NextableAvailabilityPrefetcher setMinInterval(Duration minInterval) {
+        if (minInterval.isNegative() || minInterval.isZero() || minInterval.toNanos() > maxInterval) throw new IllegalArgumentException("Bad minimum interval: " + minInterval);
+        this.minInterval = minInterval.toNanos();
+        return this;
+    }
+
+    public Duration getMaxInterval() {
+        return Duration.ofNanos(maxInterval);
+    }
+
+    /**
+     * @param maxInterval refresh interval of restaurants which are not read, at least {@code minInterval}
+     */
+    public NextableAvailabilityPrefetcher setMaxInterval(Duration maxInterval) {
+        if (maxInterval.isNegative() || maxInterval.isZero() || maxInterval.toNanos() < minInterval) throw new IllegalArgumentException("Bad maximum interval: " + maxInterval);
+        this.maxInterval = maxInterval.toNanos();
+        return this;
+    }
+
+    public double getReadsPerRefresh() {
+        return readsPerRefresh;
+    }
+
+    public NextableAvailabilityPrefetcher setReadsPerRefresh(double readsPerRefresh) {
+        if (readsPerRefresh <= 0) throw new IllegalArgumentException("Bad read count: " + readsPerRefresh);
+        this.readsPerRefresh = readsPerRefresh;
+        return this;
+    }
+
+    public double getJitter() {
+        return jitter;
+    }
+
+    /**
+     * @param jitter each interval is shortened by a random ratio between 0 and {@code jitter}
+     */
+    public NextableAvailabilityPrefetcher setJitter(double jitter) {
+        if (jitter < 0 || jitter >= 1) throw new IllegalArgumentException("Bad jitter: " + jitter);
+        this.jitter = jitter;
+        return this;
+    }
+
+    public int getBatchSize() {
+        return batchSize;
+    }
+
+    /**
+     * @param batchSize maximum number of restaurants refreshed by one search
+     */
+    public NextableAvailabilityPrefetcher setBatchSize(int batchSize) {
+        if (batchSize < 1) throw new IllegalArgumentException("Bad batch size: " + batchSize);
+        this.batchSize = batchSize;
+        return this;
+    }
+
+    public synchronized NextableAvailabilityPrefetcher start() {
+        if (timer != null) throw new IllegalStateException("Already started");
+        timer = client.getScheduler().scheduleWithFixedDelay(() -> {
+            try {
+                tick();
+            } catch (RuntimeException e) {
+                // would stop the timer
+                LOGGER.log(Level.WARNING, "Prefetch failed: " + e.getMessage(), e);
+            }
+        }, tick, tick, TimeUnit.NANOSECONDS);
+        return this;
+    }
+
+    @Override
+    public synchronized void close() {
+        if (timer != null) {
+            timer.cancel(false);
+            timer = null;
+        }
+    }
+
+    /**
+     * Counts as a read of the restaurant for the refresh rate.
+     *
+     * @return the last availabilities loaded for the restaurant, possibly along with other restaurants, or null if the
+     * restaurant is not hot or not loaded yet
+     */
+    public NextableAvailabilitySnapshot getSnapshot(String restaurantId) {
+        Hot hot = restaurants.get(restaurantId);
+        if (hot == null) return null;
+        hot.reads.increment();
+        return hot.snapshot;
+    }
+
+    /**
+     * @return the time since the restaurant was last loaded, or null if it is not hot or not loaded yet
+     */
+    public Duration getAge(String restaurantId) {
+        Hot hot = restaurants.get(restaurantId);
+        return hot == null || hot.snapshot == null ? null : Duration.ofNanos(System.nanoTime() - hot.loadedAt);
+    }
+
+    /**
+     * Searches the restaurants due for a refresh, unless a search is still running.
+     *
+     * @return completed when the search is done
+     */
+    CompletableFuture<Void> tick() {
+        if (!client.isEnabled() || !refreshing.compareAndSet(false, true)) {
+            return CompletableFuture.completedFuture(null);
+        }
+        long now = System.nanoTime();
+        List<String> due = new ArrayList<>();
+        for (Iterator<Map.Entry<String, Hot>> it = restaurants.entrySet().iterator(); it.hasNext() && due.size() < batchSize; ) {
+            Map.Entry<String, Hot> entry = it.next();
+            if (entry.getValue().due - now <= 0) due.add(entry.getKey());
+        }
+        if (due.isEmpty()) {
+            refreshing.set(false);
+            return CompletableFuture.completedFuture(null);
+        }
+        LocalDateTime from = LocalDateTime.now(timeZone).withSecond(0).withNano(0);
+        LocalDate last = from.toLocalDate().plusDays(horizon - 1);
+        NextableAvailabilitySearchCriteria criteria = new NextableAvailabilitySearchCriteria()
+            .setFrom(from)
+            .setTo(last.atTime(23, 59, 59))
+            .setPageSize(Math.max(due.size(), 1));
+        due.forEach(criteria::addRestaurantId);
+        CompletableFuture<NextableAvailabilitySnapshot> search;
+        try {
+            search = client.searchAvailabilitySnapshotAsync(criteria);
+        } catch (RuntimeException e) {
+            search = new CompletableFuture<>();
+            search.completeExceptionally(e);
+        }
+        return search.handle((snapshot, throwable) -> {
+            try {
+                refreshed(due, snapshot, NextableFutures.unwrap(throwable));
+            } finally {
+                refreshing.set(false);
+            }
+            return null;
+        });
+    }
+
+    private void refreshed(List<String> due, NextableAvailabilitySnapshot snapshot, Throwable failure) {
+        long now = System.nanoTime();
+        if (failure != null) {
+            LOGGER.log(Level.FINE, "Unable to refresh " + due + ": " + failure.getMessage(), failure);
+        }
+        for (String id : due) {
+            Hot hot = restaurants.get(id);
+            if (hot == null) continue;
+            if (snapshot != null) {
+                hot.snapshot = snapshot;
+                hot.loadedAt = now;
+            }
+            // a failed or rejected search is not retried before the next interval
+            hot.reschedule(now);
+        }
+    }
+
+    /**
+     * @param readRate reads per second
+     */
+    long interval(double readRate) {
+        long max = maxInterval;
+        if (readRate <= 0) return max;
+        return Math.max(minInterval, Math.min(max, (long) (readsPerRefresh / readRate * 1e9)));
+    }
+
+    private final class Hot {
+        final LongAdder reads = new LongAdder();
+        volatile NextableAvailabilitySnapshot snapshot;
+        volatile long loadedAt;
+        volatile long due;
+        // smoothed reads per second
+        double readRate;
+        long lastRefresh;
+
+        Hot(long due) {
+            this.due = due;
+            this.lastRefresh = System.nanoTime();
+        }
+
+        // only called by the refresh in flight
+        void reschedule(long now) {
+            double elapsed = (now - lastRefresh) / 1e9;
+            if (elapsed > 0) {
+                readRate = (readRate + reads.sumThenReset() / elapsed) / 2;
+            }
+            lastRefresh = now;
+            due = now + (long) (interval(readRate) * (1 - jitter * ThreadLocalRandom.current().nextDouble()));
+        }
+    }
+
+}
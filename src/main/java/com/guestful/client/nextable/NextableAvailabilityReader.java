@@ -0,0 +1,301 @@
+/**
+ * Copyright (C) 2013 Guestful (info@guestful.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.guestful.client.nextable;
+
+import javax.json.stream.JsonParser;
+import java.io.InputStream;
+import java.time.Duration;
+import java.time.LocalDate;
+import java.time.LocalTime;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.logging.Logger;
+
+/**
+ * Event based reader of the {@code reservations/availability} response: builds the restaurants, days and merged time
+ * slots straight from the parser events, without materializing the JSON tree. Party sizes out of
+ * 1..{@link NextableTimeSlot#MAX_PARTY_SIZE} cannot be held by the slots read and are skipped, with a warning.
+ *
+ * @author Mathieu Carbou (mathieu.carbou@gmail.com)
+ */
+final class NextableAvailabilityReader {
+
+    private static final Logger LOGGER = Logger.getLogger(NextableAvailabilityReader.class.getName());
+
+    private final JsonParser parser;
+    private final Target target;
+    private final Day day = new Day();
+    private int skippedPartySizes;
+    private int skippedPartySize;
+
+    private NextableAvailabilityReader(JsonParser parser, Target target) {
+        this.parser = parser;
+        this.target = target;
+    }
+
+    static NextableAvailabilityPage read(InputStream in) {
+        Restaurants restaurants = new Restaurants();
+        try (JsonParser parser = NextableJson.createParser(in)) {
+            NextableAvailabilityReader reader = new NextableAvailabilityReader(parser, restaurants);
+            int size = reader.readPage();
+            reader.warnSkippedPartySizes();
+            return new NextableAvailabilityPage(restaurants.restaurants, size);
+        }
+    }
+
+    static NextableAvailabilitySnapshot readSnapshot(InputStream in) {
+        NextableAvailabilitySnapshot.Builder builder = new NextableAvailabilitySnapshot.Builder();
+        try (JsonParser parser = NextableJson.createParser(in)) {
+            NextableAvailabilityReader reader = new NextableAvailabilityReader(parser, builder);
+            reader.readPage();
+            reader.warnSkippedPartySizes();
+            return builder.build();
+        }
+    }
+
+    /**
+     * Receives the restaurants as they are read. Slots of a restaurant come in the response order and must be merged by
+     * the target.
+     */
+    interface Target {
+
+        void beginRestaurant(String id, String timeZone, int slotSize);
+
+        void addSlot(LocalDate day, LocalTime time, long partySizes);
+
+        void endRestaurant();
+    }
+
+    // number of entries of the response
+    private int readPage() {
+        JsonParser.Event event = parser.next();
+        if (event != JsonParser.Event.START_ARRAY) {
+            throw new IllegalStateException("Expected an array of restaurants but got " + event);
+        }
+        int size = 0;
+        while ((event = parser.next()) != JsonParser.Event.END_ARRAY) {
+            size++;
+            if (event == JsonParser.Event.START_OBJECT) {
+                readRestaurant();
+            } else {
+                skip(event);
+            }
+        }
+        return size;
+    }
+
+    private void readRestaurant() {
+        String id = null;
+        String timeZone = null;
+        int slotSize = -1;
+        boolean begun = false;
+        // days seen before the restaurant properties, only used if Nextable sends "availability" first
+        List<Day> pending = null;
+        JsonParser.Event event;
+        while ((event = parser.next()) != JsonParser.Event.END_OBJECT) {
+            String key = parser.getString();
+            event = parser.next();
+            switch (key) {
+                case "id":
+                    id = string(event);
+                    break;
+                case "timeZone":
+                    timeZone = string(event);
+                    break;
+                case "slotSize":
+                    slotSize = parser.getInt();
+                    break;
+                case "availability":
+                    if (event != JsonParser.Event.START_ARRAY) {
+                        skip(event);
+                        break;
+                    }
+                    while ((event = parser.next()) != JsonParser.Event.END_ARRAY) {
+                        if (event != JsonParser.Event.START_OBJECT) {
+                            skip(event);
+                        } else if (id != null && timeZone != null && slotSize >= 0) {
+                            if (!begun) {
+                                target.beginRestaurant(id, timeZone, slotSize);
+                                begun = true;
+                            }
+                            addDay(readDay(day.reset()));
+                        } else {
+                            if (pending == null) pending = new ArrayList<>();
+                            pending.add(readDay(new Day()));
+                        }
+                    }
+                    break;
+                default:
+                    skip(event);
+            }
+        }
+        if (pending != null) {
+            if (!begun) {
+                target.beginRestaurant(id, timeZone, slotSize);
+                begun = true;
+            }
+            for (Day d : pending) {
+                addDay(d);
+            }
+        }
+        if (begun) target.endRestaurant();
+    }
+
+    private Day readDay(Day day) {
+        JsonParser.Event event;
+        while ((event = parser.next()) != JsonParser.Event.END_OBJECT) {
+            String key = parser.getString();
+            event = parser.next();
+            if ("date".equals(key)) {
+                String date = string(event);
+                day.date = date == null ? null : LocalDate.parse(date.substring(0, 10));
+            } else if ("slots".equals(key) && event == JsonParser.Event.START_ARRAY) {
+                while ((event = parser.next()) != JsonParser.Event.END_ARRAY) {
+                    if (event == JsonParser.Event.START_OBJECT) {
+                        readSlot(day);
+                    } else {
+                        skip(event);
+                    }
+                }
+            } else {
+                skip(event);
+            }
+        }
+        return day;
+    }
+
+    private void readSlot(Day day) {
+        String time = null;
+        long partySizes = 0;
+        JsonParser.Event event;
+        while ((event = parser.next()) != JsonParser.Event.END_OBJECT) {
+            String key = parser.getString();
+            event = parser.next();
+            if ("time24".equals(key)) {
+                time = string(event);
+            } else if ("partySizes".equals(key) && event == JsonParser.Event.START_ARRAY) {
+                while ((event = parser.next()) != JsonParser.Event.END_ARRAY) {
+                    if (event != JsonParser.Event.START_OBJECT) {
+                        skip(event);
+                        continue;
+                    }
+                    while ((event = parser.next()) != JsonParser.Event.END_OBJECT) {
+                        String k = parser.getString();
+                        event = parser.next();
+                        if ("size".equals(k) && event == JsonParser.Event.VALUE_NUMBER) {
+                            int size = parser.getInt();
+                            if (size >= 1 && size <= NextableTimeSlot.MAX_PARTY_SIZE) {
+                                partySizes |= 1L << size;
+                            } else {
+                                skippedPartySizes++;
+                                skippedPartySize = size;
+                            }
+                        } else {
+                            skip(event);
+                        }
+                    }
+                }
+            } else {
+                skip(event);
+            }
+        }
+        day.add(time == null ? null : LocalTime.parse(time), partySizes);
+    }
+
+    private void warnSkippedPartySizes() {
+        if (skippedPartySizes > 0) {
+            LOGGER.warning("Skipped " + skippedPartySizes + " party sizes out of 1.." + NextableTimeSlot.MAX_PARTY_SIZE + " in availability response, such as " + skippedPartySize);
+        }
+    }
+
+    private String string(JsonParser.Event event) {
+        if (event == JsonParser.Event.VALUE_NULL) return null;
+        if (event == JsonParser.Event.VALUE_STRING) return parser.getString();
+        skip(event);
+        return null;
+    }
+
+    private void skip(JsonParser.Event event) {
+        if (event != JsonParser.Event.START_OBJECT && event != JsonParser.Event.START_ARRAY) return;
+        int depth = 1;
+        while (depth > 0) {
+            switch (parser.next()) {
+                case START_OBJECT:
+                case START_ARRAY:
+                    depth++;
+                    break;
+                case END_OBJECT:
+                case END_ARRAY:
+                    depth--;
+                    break;
+                default:
+            }
+        }
+    }
+
+    private void addDay(Day day) {
+        for (int k = 0; k < day.times.size(); k++) {
+            LocalTime time = day.times.get(k);
+            if (time != null && day.date != null) {
+                target.addSlot(day.date, time, day.partySizes[k]);
+            }
+        }
+    }
+
+    // builds the restaurants, keeping only the ones with availabilities
+    private static final class Restaurants implements Target {
+        final List<NextableRestaurant> restaurants = new ArrayList<>();
+        NextableSlotMerger merger;
+
+        @Override
+        public void beginRestaurant(String id, String timeZone, int slotSize) {
+            if (timeZone == null) throw new NullPointerException("timeZone");
+            merger = new NextableSlotMerger(new NextableRestaurant(id, ZoneId.of(timeZone)).setGranularity(Duration.ofMinutes(slotSize)));
+        }
+
+        @Override
+        public void addSlot(LocalDate day, LocalTime time, long partySizes) {
+            merger.add(day.atTime(time), merger.getRestaurant().getGranularity(), partySizes);
+        }
+
+        @Override
+        public void endRestaurant() {
+            if (merger.getRestaurant().hasAvailability()) restaurants.add(merger.getRestaurant());
+            merger = null;
+        }
+    }
+
+    private static final class Day {
+        LocalDate date;
+        final List<LocalTime> times = new ArrayList<>();
+        long[] partySizes = new long[32];
+
+        void add(LocalTime time, long partySizes) {
+            if (times.size() == this.partySizes.length) this.partySizes = Arrays.copyOf(this.partySizes, times.size() * 2);
+            this.partySizes[times.size()] = partySizes;
+            times.add(time);
+        }
+
+        Day reset() {
+            date = null;
+            times.clear();
+            return this;
+        }
+    }
+
+}
@@ -16,6 +16,8 @@
 package com.guestful.client.nextable;
 
 import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Set;
 import java.util.TreeSet;
@@ -86,6 +88,22 @@ public class NextableAvailabilitySearchCriteria {
         return this;
     }
 
+    NextableAvailabilitySearchCriteria copy(Collection<String> restaurantIds) {
+        NextableAvailabilitySearchCriteria copy = new NextableAvailabilitySearchCriteria()
+            .setFrom(from)
+            .setTo(to)
+            .setPartySize(partySize)
+            .setPage(page)
+            .setPageSize(pageSize);
+        copy.restaurantIds.addAll(restaurantIds);
+        return copy;
+    }
+
+    // identifies searches sending the same request, restaurant ids being kept sorted
+    Object key() {
+        return Arrays.asList(new ArrayList<>(restaurantIds), from, to, partySize, page, pageSize);
+    }
+
     @Override
     public String toString() {
         return "NextableAvailabilitySearchCriteria{" +
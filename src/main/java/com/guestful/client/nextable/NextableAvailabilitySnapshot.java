@@ -0,0 +1,387 @@
+/**
+ * Copyright (C) 2013 Guestful (info@guestful.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.guestful.client.nextable;
+
+import java.time.Duration;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.LocalTime;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Immutable availabilities of several restaurants, stored as columns of primitive arrays (one entry per merged time
+ * slot) instead of an object graph. The slots of a restaurant are contiguous and sorted by start. Times are local
+ * wall-clock minutes of the restaurant and a slot may run past midnight.
+ * <p>
+ * A snapshot is never modified once built and can be shared by any number of threads. It is read through
+ * {@link Cursor}s, which are mutable views meant to be used by one thread, or converted back to
+ * {@link NextableRestaurant}s.
+ *
+ * @author Mathieu Carbou (mathieu.carbou@gmail.com)
+ */
+public final class NextableAvailabilitySnapshot {
+
+    private static final int MINUTES_PER_DAY = 24 * 60;
+
+    private static final NextableAvailabilitySnapshot EMPTY = new Builder().build();
+
+    // restaurants
+    private final String[] ids;
+    private final ZoneId[] timeZones;
+    private final int[] granularities;
+    // slots of restaurant r are in [offsets[r], offsets[r + 1])
+    private final int[] offsets;
+    private final Map<String, Integer> indexes;
+
+    // slots
+    private final int[] restaurants;
+    private final int[] days;
+    private final short[] startMinutes;
+    private final int[] durations;
+    private final long[] partySizes;
+
+    private NextableAvailabilitySnapshot(Builder builder) {
+        int n = builder.ids.size();
+        int size = builder.size;
+        this.ids = builder.ids.toArray(new String[n]);
+        this.timeZones = builder.timeZones.toArray(new ZoneId[n]);
+        this.granularities = Arrays.copyOf(builder.granularities, n);
+        this.offsets = Arrays.copyOf(builder.offsets, n + 1);
+        this.offsets[n] = size;
+        this.restaurants = Arrays.copyOf(builder.restaurants, size);
+        this.days = Arrays.copyOf(builder.days, size);
+        this.startMinutes = Arrays.copyOf(builder.startMinutes, size);
+        this.durations = Arrays.copyOf(builder.durations, size);
+        this.partySizes = Arrays.copyOf(builder.partySizes, size);
+        Map<String, Integer> indexes = new HashMap<>(n * 2);
+        for (int r = 0; r < n; r++) {
+            indexes.putIfAbsent(ids[r], r);
+        }
+        this.indexes = Collections.unmodifiableMap(indexes);
+    }
+
+    public static NextableAvailabilitySnapshot empty() {
+        return EMPTY;
+    }
+
+    /**
+     * Copies the availabilities of restaurants. Restaurants without any time slot are left out.
+     */
+    public static NextableAvailabilitySnapshot of(Collection<NextableRestaurant> restaurants) {
+        Builder builder = new Builder();
+        for (NextableRestaurant restaurant : restaurants) {
+            builder.beginRestaurant(restaurant.getId(), restaurant.getTimeZone(), (int) restaurant.getGranularity().toMinutes());
+            for (NextableDailyAvailability availability : restaurant.getAvailabilities()) {
+                long day = availability.getDay().toEpochDay();
+                for (NextableTimeSlot slot : availability.getTimeSlots()) {
+                    builder.addSlot(day, minutes(slot.getStartTime()), (int) slot.getDuration().toMinutes(), slot.getPartySizeMask());
+                }
+            }
+            builder.endRestaurant();
+        }
+        return builder.build();
+    }
+
+    /**
+     * @return the number of slots
+     */
+    public int size() {
+        return restaurants.length;
+    }
+
+    public int getRestaurantCount() {
+        return ids.length;
+    }
+
+    /**
+     * @return the index of the restaurant, or -1 if it has no availability in this snapshot
+     */
+    public int indexOf(String restaurantId) {
+        Integer index = indexes.get(restaurantId);
+        return index == null ? -1 : index;
+    }
+
+    public String getRestaurantId(int restaurant) {
+        return ids[restaurant];
+    }
+
+    public ZoneId getTimeZone(int restaurant) {
+        return timeZones[restaurant];
+    }
+
+    public Duration getGranularity(int restaurant) {
+        return Duration.ofMinutes(granularities[restaurant]);
+    }
+
+    /**
+     * @return a cursor over all the slots, restaurant by restaurant
+     */
+    public Cursor cursor() {
+        return new Cursor(0, restaurants.length);
+    }
+
+    /**
+     * @return a cursor over the slots of one restaurant
+     */
+    public Cursor cursor(int restaurant) {
+        return new Cursor(offsets[restaurant], offsets[restaurant + 1]);
+    }
+
+    public boolean hasAvailability(String restaurantId, LocalDateTime dateTime, int partySize) {
+        int restaurant = indexOf(restaurantId);
+        if (restaurant < 0 || partySize < 0 || partySize > NextableTimeSlot.MAX_PARTY_SIZE) return false;
+        long time = dateTime.toLocalDate().toEpochDay() * MINUTES_PER_DAY + minutes(dateTime.toLocalTime());
+        // last slot starting at or before the time
+        int low = offsets[restaurant];
+        int high = offsets[restaurant + 1] - 1;
+        int found = -1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            if (start(mid) <= time) {
+                found = mid;
+                low = mid + 1;
+            } else {
+                high = mid - 1;
+            }
+        }
+        return found >= 0 && start(found) + durations[found] > time && (partySizes[found] & (1L << partySize)) != 0;
+    }
+
+    public NextableRestaurant toRestaurant(int restaurant) {
+        NextableRestaurant result = new NextableRestaurant(ids[restaurant], timeZones[restaurant]).setGranularity(getGranularity(restaurant));
+        NextableDailyAvailability availability = null;
+        for (int i = offsets[restaurant]; i < offsets[restaurant + 1]; i++) {
+            if (availability == null || availability.getDay().toEpochDay() != days[i]) {
+                availability = result.addAvailability(LocalDate.ofEpochDay(days[i]));
+            }
+            NextableTimeSlot slot = availability.addTimeSlot(LocalTime.ofSecondOfDay(startMinutes[i] * 60)).setPartySizeMask(partySizes[i]);
+            if (durations[i] != granularities[restaurant]) slot.setDuration(Duration.ofMinutes(durations[i]));
+        }
+        return result;
+    }
+
+    /**
+     * @return new mutable restaurants holding the same availabilities
+     */
+    public List<NextableRestaurant> toRestaurants() {
+        List<NextableRestaurant> result = new ArrayList<>(ids.length);
+        for (int r = 0; r < ids.length; r++) {
+            result.add(toRestaurant(r));
+        }
+        return result;
+    }
+
+    @Override
+    public String toString() {
+        return "NextableAvailabilitySnapshot{restaurants=" + ids.length + ", slots=" + restaurants.length + '}';
+    }
+
+    private long start(int slot) {
+        return (long) days[slot] * MINUTES_PER_DAY + startMinutes[slot];
+    }
+
+    private static int minutes(LocalTime time) {
+        return time.getHour() * 60 + time.getMinute();
+    }
+
+    /**
+     * Flyweight over the slots of a snapshot: {@link #next()} moves it to the next slot, whose columns are then read
+     * through the getters, without allocating anything.
+     */
+    public final class Cursor {
+
+        private final int end;
+        private int position;
+
+        private Cursor(int from, int end) {
+            this.position = from - 1;
+            this.end = end;
+        }
+
+        /**
+         * @return false when there is no more slot
+         */
+        public boolean next() {
+            return ++position < end;
+        }
+
+        public int getRestaurantIndex() {
+            return restaurants[position];
+        }
+
+        public String getRestaurantId() {
+            return ids[restaurants[position]];
+        }
+
+        public long getEpochDay() {
+            return days[position];
+        }
+
+        public LocalDate getDay() {
+            return LocalDate.ofEpochDay(days[position]);
+        }
+
+        /**
+         * @return minutes since midnight of the day
+         */
+        public int getStartMinute() {
+            return startMinutes[position];
+        }
+
+        public LocalTime getStartTime() {
+            return LocalTime.ofSecondOfDay(startMinutes[position] * 60);
+        }
+
+        public LocalDateTime getStart() {
+            return LocalDateTime.of(getDay(), getStartTime());
+        }
+
+        public int getDurationMinutes() {
+            return durations[position];
+        }
+
+        /**
+         * @return bit n is set when party size n is accepted
+         */
+        public long getPartySizeMask() {
+            return partySizes[position];
+        }
+
+        public boolean hasPartySize(int n) {
+            return n >= 0 && n <= NextableTimeSlot.MAX_PARTY_SIZE && (partySizes[position] & (1L << n)) != 0;
+        }
+    }
+
+    /**
+     * Appends restaurants and their slots, merging each slot with the previous one when it starts where the previous
+     * one ends and accepts the same party sizes. Restaurants without slots are left out.
+     */
+    static final class Builder implements NextableAvailabilityReader.Target {
+
+        final List<String> ids = new ArrayList<>();
+        final List<ZoneId> timeZones = new ArrayList<>();
+        int[] granularities = new int[16];
+        int[] offsets = new int[17];
+
+        int size;
+        int[] restaurants = new int[256];
+        int[] days = new int[256];
+        short[] startMinutes = new short[256];
+        int[] durations = new int[256];
+        long[] partySizes = new long[256];
+
+        private int current = -1;
+        private boolean sorted;
+
+        @Override
+        public void beginRestaurant(String id, String timeZone, int slotSize) {
+            if (timeZone == null) throw new NullPointerException("timeZone");
+            beginRestaurant(id, ZoneId.of(timeZone), slotSize);
+        }
+
+        void beginRestaurant(String id, ZoneId timeZone, int granularity) {
+            current = ids.size();
+            ids.add(id);
+            timeZones.add(timeZone);
+            if (current == granularities.length) {
+                granularities = Arrays.copyOf(granularities, current * 2);
+                offsets = Arrays.copyOf(offsets, current * 2 + 1);
+            }
+            granularities[current] = granularity;
+            offsets[current] = size;
+            sorted = true;
+        }
+
+        @Override
+        public void addSlot(LocalDate day, LocalTime time, long partySizes) {
+            addSlot(day.toEpochDay(), minutes(time), granularities[current], partySizes);
+        }
+
+        void addSlot(long day, int startMinute, int duration, long partySizes) {
+            if (partySizes == 0) return;
+            long start = day * MINUTES_PER_DAY + startMinute;
+            if (size > offsets[current]) {
+                int last = size - 1;
+                long lastEnd = (long) days[last] * MINUTES_PER_DAY + startMinutes[last] + durations[last];
+                if (start == lastEnd && this.partySizes[last] == partySizes) {
+                    durations[last] += duration;
+                    return;
+                }
+                if (start < lastEnd) sorted = false;
+            }
+            if (size == restaurants.length) grow();
+            restaurants[size] = current;
+            days[size] = (int) day;
+            startMinutes[size] = (short) startMinute;
+            durations[size] = duration;
+            this.partySizes[size] = partySizes;
+            size++;
+        }
+
+        @Override
+        public void endRestaurant() {
+            if (size == offsets[current]) {
+                // no availability
+                ids.remove(current);
+                timeZones.remove(current);
+            } else if (!sorted) {
+                remerge(offsets[current], size);
+            }
+            current = -1;
+        }
+
+        NextableAvailabilitySnapshot build() {
+            if (current >= 0) endRestaurant();
+            return new NextableAvailabilitySnapshot(this);
+        }
+
+        private void grow() {
+            int capacity = restaurants.length * 2;
+            restaurants = Arrays.copyOf(restaurants, capacity);
+            days = Arrays.copyOf(days, capacity);
+            startMinutes = Arrays.copyOf(startMinutes, capacity);
+            durations = Arrays.copyOf(durations, capacity);
+            partySizes = Arrays.copyOf(partySizes, capacity);
+        }
+
+        // rare: slots received out of order are cut into granules, the latest one received for a time winning, and
+        // merged again, as NextableSlotMerger does
+        private void remerge(int from, int to) {
+            int granularity = Math.max(1, granularities[current]);
+            Map<Long, Long> granules = new TreeMap<>();
+            for (int i = from; i < to; i++) {
+                long start = (long) days[i] * MINUTES_PER_DAY + startMinutes[i];
+                for (long minute = start; minute < start + durations[i]; minute += granularity) {
+                    granules.put(minute, partySizes[i]);
+                }
+            }
+            size = from;
+            for (Map.Entry<Long, Long> granule : granules.entrySet()) {
+                long minute = granule.getKey();
+                addSlot(Math.floorDiv(minute, (long) MINUTES_PER_DAY), Math.toIntExact(Math.floorMod(minute, (long) MINUTES_PER_DAY)), granularity, granule.getValue());
+            }
+        }
+    }
+
+}
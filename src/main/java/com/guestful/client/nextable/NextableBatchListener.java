@@ -0,0 +1,32 @@
+/**
+ * Copyright (C) 2013 Guestful (info@guestful.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.guestful.client.nextable;
+
+/**
+ * Notified as each item of a batch completes, in completion order and from the thread completing it.
+ *
+ * @author Mathieu Carbou (mathieu.carbou@gmail.com)
+ */
+public interface NextableBatchListener<I, R> {
+
+    /**
+     * @param completed number of items completed so far, including this one
+     * @param failed    number of items failed so far, including this one if it failed
+     * @param total     number of items in the batch
+     */
+    void onItemCompleted(NextableBatchResult<I, R> result, int completed, int failed, int total);
+
+}
@@ -0,0 +1,68 @@
+/**
+ * Copyright (C) 2013 Guestful (info@guestful.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.guestful.client.nextable;
+
+/**
+ * Outcome of one item of a batch: either a result or the failure of this item only.
+ *
+ * @author Mathieu Carbou (mathieu.carbou@gmail.com)
+ */
+public class NextableBatchResult<I, R> {
+
+    private final int index;
+    private final I item;
+    private final R result;
+    private final Throwable failure;
+
+    NextableBatchResult(int index, I item, R result, Throwable failure) {
+        this.index = index;
+        this.item = item;
+        this.result = result;
+        this.failure = failure;
+    }
+
+    /**
+     * @return the position of the item in the batch
+     */
+    public int getIndex() {
+        return index;
+    }
+
+    public I getItem() {
+        return item;
+    }
+
+    public R getResult() {
+        return result;
+    }
+
+    public Throwable getFailure() {
+        return failure;
+    }
+
+    public boolean isSuccess() {
+        return failure == null;
+    }
+
+    @Override
+    public String toString() {
+        return "NextableBatchResult{" +
+            "index=" + index +
+            ", item=" + item +
+            (failure == null ? ", result=" + result : ", failure=" + failure) +
+            '}';
+    }
+}
@@ -0,0 +1,165 @@
+/**
+ * Copyright (C) 2013 Guestful (info@guestful.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.guestful.client.nextable;
+
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Limits the number of concurrent calls. A call waits for a free slot up to {@code maxWait}, or is rejected at once
+ * when {@code maxWait} is zero. Waiting calls, blocking or async, get the freed slots in arrival order.
+ *
+ * @author Mathieu Carbou (mathieu.carbou@gmail.com)
+ */
+public class NextableBulkhead {
+
+    private final int maxConcurrentCalls;
+    private final Deque<Waiter> waiters = new ArrayDeque<>();
+
+    private volatile long maxWait;
+    private int inFlight;
+
+    public NextableBulkhead(int maxConcurrentCalls) {
+        if (maxConcurrentCalls < 1) throw new IllegalArgumentException("Bad concurrent calls: " + maxConcurrentCalls);
+        this.maxConcurrentCalls = maxConcurrentCalls;
+    }
+
+    public int getMaxConcurrentCalls() {
+        return maxConcurrentCalls;
+    }
+
+    public Duration getMaxWait() {
+        return Duration.ofNanos(maxWait);
+    }
+
+    public NextableBulkhead setMaxWait(Duration maxWait) {
+        this.maxWait = maxWait.toNanos();
+        return this;
+    }
+
+    public synchronized int getInFlight() {
+        return inFlight;
+    }
+
+    public synchronized int getWaiting() {
+        return waiters.size();
+    }
+
+    /**
+     * Blocks up to {@code maxWait} for a slot.
+     *
+     * @return true if a slot was acquired, in which case it must be given back with {@link #release()}
+     */
+    public boolean acquire() {
+        synchronized (this) {
+            if (tryAcquire()) return true;
+            if (maxWait <= 0) return false;
+            long deadline = System.nanoTime() + maxWait;
+            Waiter waiter = new Waiter(null);
+            waiters.addLast(waiter);
+            try {
+                while (!waiter.granted) {
+                    long remaining = deadline - System.nanoTime();
+                    if (remaining <= 0) {
+                        waiters.remove(waiter);
+                        return false;
+                    }
+                    TimeUnit.NANOSECONDS.timedWait(this, remaining);
+                }
+                return true;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                if (!waiter.granted) {
+                    waiters.remove(waiter);
+                    return false;
+                }
+            }
+        }
+        // interrupted once the slot was handed over: give it to the next one
+        release();
+        return false;
+    }
+
+    /**
+     * Runs {@code onAcquired} as soon as a slot is free, without blocking, or {@code onRejected} if none got free within
+     * {@code maxWait}.
+     */
+    public void acquireAsync(Runnable onAcquired, Runnable onRejected, ScheduledExecutorService scheduler) {
+        Waiter waiter = null;
+        synchronized (this) {
+            if (tryAcquire()) {
+                // run below
+            } else if (maxWait > 0) {
+                waiter = new Waiter(onAcquired);
+                waiters.addLast(waiter);
+            } else {
+                onAcquired = null;
+            }
+        }
+        if (waiter != null) {
+            Waiter w = waiter;
+            scheduler.schedule(() -> {
+                boolean expired;
+                synchronized (this) {
+                    expired = waiters.remove(w);
+                }
+                if (expired) onRejected.run();
+            }, maxWait, TimeUnit.NANOSECONDS);
+        } else if (onAcquired != null) {
+            onAcquired.run();
+        } else {
+            onRejected.run();
+        }
+    }
+
+    public void release() {
+        Waiter next;
+        synchronized (this) {
+            next = waiters.pollFirst();
+            if (next == null) {
+                inFlight--;
+            } else if (next.onAcquired == null) {
+                // the slot is handed over to the blocked call
+                next.granted = true;
+                notifyAll();
+                next = null;
+            }
+        }
+        // the slot is handed over to the waiting async call
+        if (next != null) next.onAcquired.run();
+    }
+
+    // calls already waiting are served first
+    private boolean tryAcquire() {
+        if (inFlight >= maxConcurrentCalls || !waiters.isEmpty()) return false;
+        inFlight++;
+        return true;
+    }
+
+    private static final class Waiter {
+        // null for a blocked call
+        final Runnable onAcquired;
+        boolean granted;
+
+        Waiter(Runnable onAcquired) {
+            this.onAcquired = onAcquired;
+        }
+    }
+
+}
@@ -0,0 +1,76 @@
+/**
+ * Copyright (C) 2013 Guestful (info@guestful.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.guestful.client.nextable;
+
+/**
+ * @author Mathieu Carbou (mathieu.carbou@gmail.com)
+ */
+public class NextableCacheStats {
+
+    private final long hits;
+    private final long staleHits;
+    private final long misses;
+    private final long evictions;
+    private final long loadFailures;
+
+    public NextableCacheStats(long hits, long staleHits, long misses, long evictions, long loadFailures) {
+        this.hits = hits;
+        this.staleHits = staleHits;
+        this.misses = misses;
+        this.evictions = evictions;
+        this.loadFailures = loadFailures;
+    }
+
+    public long getHits() {
+        return hits;
+    }
+
+    public long getStaleHits() {
+        return staleHits;
+    }
+
+    public long getMisses() {
+        return misses;
+    }
+
+    public long getEvictions() {
+        return evictions;
+    }
+
+    public long getLoadFailures() {
+        return loadFailures;
+    }
+
+    public long getRequests() {
+        return hits + staleHits + misses;
+    }
+
+    public double getHitRate() {
+        long requests = getRequests();
+        return requests == 0 ? 1 : (double) (hits + staleHits) / requests;
+    }
+
+    @Override
+    public String toString() {
+        return "NextableCacheStats{" +
+            "hits=" + hits +
+            ", staleHits=" + staleHits +
+            ", misses=" + misses +
+            ", evictions=" + evictions +
+            ", loadFailures=" + loadFailures +
+            '}';
+    }
+}
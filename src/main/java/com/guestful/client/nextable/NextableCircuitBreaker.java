@@ -0,0 +1,259 @@
+/**
+ * Copyright (C) 2013 Guestful (info@guestful.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.guestful.client.nextable;
+
+import javax.ws.rs.ProcessingException;
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Count based circuit breaker. While CLOSED, the outcome of the last {@code windowSize} calls is recorded: once at least
+ * {@code minimumCalls} are recorded and the failure rate or the slow call rate reaches its threshold, the breaker
+ * opens and calls fail fast with a {@link NextableCircuitOpenException}. After {@code openDuration} it becomes
+ * HALF_OPEN and lets {@code halfOpenCalls} probes through: it closes when they all succeed and opens again on the first
+ * failed or slow probe.
+ * <p>
+ * Failures are transport errors, 5xx, 408 and 429 responses. Other 4xx responses mean Nextable is healthy.
+ *
+ * @author Mathieu Carbou (mathieu.carbou@gmail.com)
+ */
+public class NextableCircuitBreaker {
+
+    private static final Logger LOGGER = Logger.getLogger(NextableCircuitBreaker.class.getName());
+
+    public enum State {CLOSED, OPEN, HALF_OPEN}
+
+    private static final byte FAILED = 1;
+    private static final byte SLOW = 2;
+
+    private final String name;
+    private final List<NextableCircuitBreakerListener> listeners = new CopyOnWriteArrayList<>();
+
+    private int minimumCalls = 10;
+    private double failureRateThreshold = 0.5;
+    private long slowCallDuration = Duration.ofSeconds(5).toNanos();
+    private double slowCallRateThreshold = 1;
+    private long openDuration = Duration.ofSeconds(30).toNanos();
+    private int halfOpenCalls = 3;
+
+    private State state = State.CLOSED;
+    private byte[] window = new byte[20];
+    private int recorded;
+    private int position;
+    private int failed;
+    private int slow;
+    private long openedAt;
+    private int probesStarted;
+    private int probesSucceeded;
+
+    public NextableCircuitBreaker(String name) {
+        this.name = name;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public synchronized State getState() {
+        return state;
+    }
+
+    public synchronized NextableCircuitBreaker setWindowSize(int windowSize) {
+        if (windowSize < 1) throw new IllegalArgumentException("Bad window size: " + windowSize);
+        this.window = new byte[windowSize];
+        resetWindow();
+        return this;
+    }
+
+    public synchronized NextableCircuitBreaker setMinimumCalls(int minimumCalls) {
+        this.minimumCalls = minimumCalls;
+        return this;
+    }
+
+    public synchronized NextableCircuitBreaker setFailureRateThreshold(double failureRateThreshold) {
+        this.failureRateThreshold = failureRateThreshold;
+        return this;
+    }
+
+    public synchronized NextableCircuitBreaker setSlowCallDuration(Duration slowCallDuration) {
+        this.slowCallDuration = slowCallDuration.toNanos();
+        return this;
+    }
+
+    /**
+     * @param slowCallRateThreshold rate of calls slower than the slow call duration opening the breaker. 1 (the
+     *                              default) only opens it when all calls are slow.
+     */
+    public synchronized NextableCircuitBreaker setSlowCallRateThreshold(double slowCallRateThreshold) {
+        this.slowCallRateThreshold = slowCallRateThreshold;
+        return this;
+    }
+
+    public synchronized NextableCircuitBreaker setOpenDuration(Duration openDuration) {
+        this.openDuration = openDuration.toNanos();
+        return this;
+    }
+
+    public synchronized NextableCircuitBreaker setHalfOpenCalls(int halfOpenCalls) {
+        if (halfOpenCalls < 1) throw new IllegalArgumentException("Bad half open calls: " + halfOpenCalls);
+        this.halfOpenCalls = halfOpenCalls;
+        return this;
+    }
+
+    public void addListener(NextableCircuitBreakerListener listener) {
+        listeners.add(listener);
+    }
+
+    public void removeListener(NextableCircuitBreakerListener listener) {
+        listeners.remove(listener);
+    }
+
+    public boolean isFailure(Throwable failure) {
+        if (failure instanceof NextableCircuitOpenException || failure instanceof NextableRejectedException) return false;
+        if (failure instanceof NextableException) {
+            int status = ((NextableException) failure).getStatusType().getStatusCode();
+            return status >= 500 || status == 408 || status == 429;
+        }
+        return failure instanceof ProcessingException;
+    }
+
+    /**
+     * @return true if the call can proceed, in which case its outcome must be reported with {@link #onResult(long, Throwable)}
+     */
+    public boolean tryAcquire() {
+        State from;
+        synchronized (this) {
+            from = state;
+            if (state == State.OPEN) {
+                if (System.nanoTime() - openedAt < openDuration) return false;
+                state = State.HALF_OPEN;
+                probesStarted = 0;
+                probesSucceeded = 0;
+            }
+            if (state == State.HALF_OPEN) {
+                if (probesStarted >= halfOpenCalls) {
+                    return false;
+                }
+                probesStarted++;
+            }
+        }
+        if (from == State.OPEN) fire(from, State.HALF_OPEN);
+        return true;
+    }
+
+    /**
+     * @param duration call duration in nanoseconds
+     * @param failure  the call failure, or null
+     */
+    public void onResult(long duration, Throwable failure) {
+        boolean failed = failure != null && isFailure(failure);
+        boolean slow = duration >= slowCallDuration;
+        State from;
+        State to;
+        synchronized (this) {
+            from = state;
+            if (state == State.HALF_OPEN) {
+                if (failed || slow) {
+                    open();
+                } else if (++probesSucceeded >= halfOpenCalls) {
+                    state = State.CLOSED;
+                    resetWindow();
+                }
+            } else if (state == State.CLOSED) {
+                record((byte) ((failed ? FAILED : 0) | (slow ? SLOW : 0)));
+                if (recorded >= minimumCalls && (this.failed >= failureRateThreshold * recorded || this.slow >= slowCallRateThreshold * recorded)) {
+                    open();
+                }
+            }
+            to = state;
+        }
+        if (from != to) fire(from, to);
+    }
+
+    /**
+     * Gives back the permit of a call abandoned before its outcome was known, i.e. cancelled, instead of reporting it
+     * with {@link #onResult(long, Throwable)}: a HALF_OPEN breaker lets another probe through.
+     */
+    public synchronized void release() {
+        if (state == State.HALF_OPEN && probesStarted > probesSucceeded) {
+            probesStarted--;
+        }
+    }
+
+    /**
+     * Forces the breaker back to CLOSED.
+     */
+    public void reset() {
+        State from;
+        synchronized (this) {
+            from = state;
+            state = State.CLOSED;
+            resetWindow();
+        }
+        if (from != State.CLOSED) fire(from, State.CLOSED);
+    }
+
+    private void open() {
+        state = State.OPEN;
+        openedAt = System.nanoTime();
+    }
+
+    private void record(byte outcome) {
+        if (recorded == window.length) {
+            byte evicted = window[position];
+            if ((evicted & FAILED) != 0) failed--;
+            if ((evicted & SLOW) != 0) slow--;
+        } else {
+            recorded++;
+        }
+        window[position] = outcome;
+        position = (position + 1) % window.length;
+        if ((outcome & FAILED) != 0) failed++;
+        if ((outcome & SLOW) != 0) slow++;
+    }
+
+    private void resetWindow() {
+        recorded = 0;
+        position = 0;
+        failed = 0;
+        slow = 0;
+    }
+
+    private void fire(State from, State to) {
+        LOGGER.info("Circuit breaker '" + name + "': " + from + " -> " + to);
+        for (NextableCircuitBreakerListener listener : listeners) {
+            try {
+                listener.onStateChange(this, from, to);
+            } catch (RuntimeException e) {
+                LOGGER.log(Level.WARNING, "Circuit breaker listener " + listener + " failed: " + e.getMessage(), e);
+            }
+        }
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "NextableCircuitBreaker{" +
+            "name='" + name + '\'' +
+            ", state=" + state +
+            ", recorded=" + recorded +
+            ", failed=" + failed +
+            ", slow=" + slow +
+            '}';
+    }
+}
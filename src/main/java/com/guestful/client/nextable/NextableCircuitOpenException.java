@@ -0,0 +1,40 @@
+/**
+ * Copyright (C) 2013 Guestful (info@guestful.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.guestful.client.nextable;
+
+import javax.ws.rs.core.Response;
+
+/**
+ * Thrown without calling Nextable when the circuit breaker of the operation is open.
+ *
+ * @author Mathieu Carbou (mathieu.carbou@gmail.com)
+ */
+public class NextableCircuitOpenException extends NextableException {
+
+    private static final long serialVersionUID = 1L;
+
+    private final NextableOperation operation;
+
+    NextableCircuitOpenException(NextableOperation operation, NextableCircuitBreaker circuitBreaker) {
+        super(Response.Status.SERVICE_UNAVAILABLE, NextableJson.createObjectBuilder().add("error", "Circuit breaker '" + circuitBreaker.getName() + "' is " + circuitBreaker.getState() + " for " + operation).build(), null, null);
+        this.operation = operation;
+    }
+
+    public NextableOperation getOperation() {
+        return operation;
+    }
+
+}
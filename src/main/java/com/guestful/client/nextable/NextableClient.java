@@ -15,23 +15,49 @@
  */
 package com.guestful.client.nextable;
 
-import javax.json.Json;
-import javax.json.JsonArray;
 import javax.json.JsonObject;
-import javax.json.JsonObjectBuilder;
+import javax.json.stream.JsonGenerator;
 import javax.ws.rs.HttpMethod;
+import javax.ws.rs.ProcessingException;
 import javax.ws.rs.client.*;
 import javax.ws.rs.core.MediaType;
 import javax.ws.rs.core.MultivaluedHashMap;
 import javax.ws.rs.core.MultivaluedMap;
 import javax.ws.rs.core.Response;
+import java.io.InputStream;
 import java.time.*;
 import java.time.format.DateTimeFormatter;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.UUID;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.Supplier;
 import java.util.logging.Level;
 import java.util.logging.Logger;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
 /**
  * @author Mathieu Carbou (mathieu.carbou@gmail.com)
@@ -40,19 +66,42 @@ public class NextableClient {
 
     private static final Logger LOGGER = Logger.getLogger(NextableClient.class.getName());
     static final DateTimeFormatter DATE_TIME_FORMATTER = DateTimeFormatter.ofPattern("yyyy-MM-dd'T'HH:mm:ss");
+    private static final String JSON_UTF8 = "application/json; charset=utf-8";
+
+    static final String IDEMPOTENCY_KEY = "Idempotency-Key";
+
+    public static final String DEFAULT_URI = "http://services.nextable.com/api/v1";
 
     private final String token;
+    private final String uri;
     private final WebTarget target;
     private final Client client;
+    private final List<NextableReservationListener> reservationListeners = new CopyOnWriteArrayList<>();
+    private final Map<NextableOperation, NextableCircuitBreaker> circuitBreakers = new ConcurrentHashMap<>();
+    private final Map<NextableOperation, NextableRateLimiter> rateLimiters = new ConcurrentHashMap<>();
+    private final Map<NextableOperation, NextableBulkhead> bulkheads = new ConcurrentHashMap<>();
+    private final Map<NextableOperation, NextableHedgingPolicy> hedgingPolicies = new ConcurrentHashMap<>();
 
     private boolean enabled = true;
+    private volatile NextableRestaurantCache restaurantCache;
+    private volatile NextableSingleFlight<Object, NextableAvailabilityPage> searchFlights;
+    private volatile NextableRetryPolicy retryPolicy;
+    private volatile ScheduledExecutorService scheduler;
+    private volatile NextableMetrics metrics = NextableMetrics.NOOP;
+    private volatile NextableWriteJournal writeJournal;
+    private volatile boolean serverDeduplicatesWrites;
 
     public NextableClient(String token) {
         this(ClientBuilder.newClient(), token);
     }
 
     public NextableClient(Client client, String token) {
+        this(client, token, DEFAULT_URI);
+    }
+
+    public NextableClient(Client client, String token, String uri) {
         this.token = token;
+        this.uri = uri;
         this.client = client;
         this.target = buildWebTarget();
     }
@@ -65,6 +114,10 @@ public class NextableClient {
         return client;
     }
 
+    public String getUri() {
+        return uri;
+    }
+
     public boolean isEnabled() {
         return enabled;
     }
@@ -73,61 +126,203 @@ public class NextableClient {
         this.enabled = enabled;
     }
 
+    public NextableRestaurantCache getRestaurantCache() {
+        return restaurantCache;
+    }
+
+    public void setRestaurantCache(NextableRestaurantCache restaurantCache) {
+        this.restaurantCache = restaurantCache;
+    }
+
+    public boolean isSearchCoalescing() {
+        return searchFlights != null;
+    }
+
+    /**
+     * When enabled, concurrent availability searches with identical criteria share one HTTP request and its parsed
+     * result: the returned restaurants are then the same instances for all those callers.
+     */
+    public void setSearchCoalescing(boolean searchCoalescing) {
+        this.searchFlights = searchCoalescing ? new NextableSingleFlight<>() : null;
+    }
+
+    public NextableRetryPolicy getRetryPolicy() {
+        return retryPolicy;
+    }
+
+    /**
+     * Retries failed idempotent operations according to the policy. Reservation creations and edits are never retried.
+     */
+    public void setRetryPolicy(NextableRetryPolicy retryPolicy) {
+        this.retryPolicy = retryPolicy;
+    }
+
+    public NextableCircuitBreaker getCircuitBreaker(NextableOperation operation) {
+        return circuitBreakers.get(operation);
+    }
+
+    /**
+     * @param circuitBreaker the breaker guarding the operation, or null to remove it. A breaker can be shared by several
+     *                       operations.
+     */
+    public void setCircuitBreaker(NextableOperation operation, NextableCircuitBreaker circuitBreaker) {
+        if (circuitBreaker == null) circuitBreakers.remove(operation);
+        else circuitBreakers.put(operation, circuitBreaker);
+    }
+
+    public NextableRateLimiter getRateLimiter(NextableOperation operation) {
+        return rateLimiters.get(operation);
+    }
+
+    /**
+     * @param rateLimiter the limiter applied to each call of the operation, keyed by the api key, or null to remove it.
+     *                    Operations sharing a limiter share its budget.
+     */
+    public void setRateLimiter(NextableOperation operation, NextableRateLimiter rateLimiter) {
+        if (rateLimiter == null) rateLimiters.remove(operation);
+        else rateLimiters.put(operation, rateLimiter);
+    }
+
+    public NextableBulkhead getBulkhead(NextableOperation operation) {
+        return bulkheads.get(operation);
+    }
+
+    public void setBulkhead(NextableOperation operation, NextableBulkhead bulkhead) {
+        if (bulkhead == null) bulkheads.remove(operation);
+        else bulkheads.put(operation, bulkhead);
+    }
+
+    public NextableHedgingPolicy getHedgingPolicy(NextableOperation operation) {
+        return hedgingPolicies.get(operation);
+    }
+
+    /**
+     * @param hedgingPolicy hedges the slow requests of the operation, or null to stop hedging them. Only read-only
+     *                      operations can be hedged.
+     */
+    public void setHedgingPolicy(NextableOperation operation, NextableHedgingPolicy hedgingPolicy) {
+        if (!operation.isReadOnly()) throw new IllegalArgumentException(operation + " cannot be hedged");
+        if (hedgingPolicy == null) hedgingPolicies.remove(operation);
+        else hedgingPolicies.put(operation, hedgingPolicy);
+    }
+
+    public NextableMetrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * @param metrics receives the counts and timings of every call, or null to stop recording them
+     */
+    public void setMetrics(NextableMetrics metrics) {
+        this.metrics = metrics == null ? NextableMetrics.NOOP : metrics;
+    }
+
+    public NextableWriteJournal getWriteJournal() {
+        return writeJournal;
+    }
+
+    /**
+     * Records each reservation creation and edition until its outcome is known. Each write then carries a new
+     * idempotency key, only kept by its {@link NextablePendingWrite}, and is only retried if
+     * {@link #setServerDeduplicatesWrites(boolean)} is set. Writes left pending by a lost response are resolved with
+     * {@link #reconcile()}. The journal holds the reservations as sent, guest name, phone number and email included:
+     * see {@link NextableFileWriteJournal} before keeping it on disk.
+     *
+     * @param writeJournal the journal, or null to send writes without idempotency key
+     */
+    public void setWriteJournal(NextableWriteJournal writeJournal) {
+        this.writeJournal = writeJournal;
+    }
+
+    public boolean isServerDeduplicatesWrites() {
+        return serverDeduplicatesWrites;
+    }
+
+    /**
+     * Lets the {@link #getRetryPolicy() retry policy} retry the reservation creations and editions sent with an
+     * idempotency key, like idempotent operations. Only safe if Nextable recognizes a replayed key and answers with the
+     * booking already made instead of a new one: otherwise a retried creation whose first response was lost books
+     * twice. Off by default.
+     *
+     * @param serverDeduplicatesWrites true if Nextable applies a write only once per idempotency key
+     */
+    public void setServerDeduplicatesWrites(boolean serverDeduplicatesWrites) {
+        this.serverDeduplicatesWrites = serverDeduplicatesWrites;
+    }
+
+    public void addReservationListener(NextableReservationListener listener) {
+        reservationListeners.add(listener);
+    }
+
+    public void removeReservationListener(NextableReservationListener listener) {
+        reservationListeners.remove(listener);
+    }
+
     protected WebTarget buildWebTarget() {
-        return getClient().target("http://services.nextable.com/api/v1");
+        return getClient().target(getUri());
     }
 
     public NextableRestaurant getRestaurant(String restaurantId) {
         if (restaurantId == null) throw new NullPointerException();
-        JsonObject body = request(HttpMethod.GET, "restaurants/" + restaurantId).readEntity(JsonObject.class);
-        NextableRestaurant restaurant = new NextableRestaurant(restaurantId, ZoneId.of(body.getString("timeZone")))
-            .setName(body.getString("restaurantName"))
-            .setGranularity(Duration.ofMinutes(body.getInt("timeSlotSpan")))
-            .setDescription(body.getString("description", null))
-            .setPhoneNumber(body.getString("businessPhone", null))
-            .setAddress(body.getString("address", null))
-            .setCity(body.getString("city", null))
-            .setStateCode(body.getString("state", null))
-            .setPostalCode(body.getString("zip", null))
-            .setCountryCode(body.getString("country", null))
-            .setPricingScale(body.getString("price", "").length() / 4);
-        for (int i = 1; body.containsKey("cuisine" + i); i++) {
-            String c = body.getString("cuisine" + i, null);
-            if(c != null && c.length() > 0) {
-                restaurant.addCuisine(c);
-            }
+        NextableRestaurantCache cache = restaurantCache;
+        if (cache != null) {
+            return NextableFutures.join(cache.get(restaurantId, this::fetchRestaurantAsync));
         }
-        return restaurant;
+        return read(NextableOperation.GET_RESTAURANT, request(NextableOperation.GET_RESTAURANT, HttpMethod.GET, "restaurants/" + restaurantId), body -> readRestaurant(restaurantId, body));
+    }
+
+    public CompletableFuture<NextableRestaurant> getRestaurantAsync(String restaurantId) {
+        if (restaurantId == null) throw new NullPointerException();
+        NextableRestaurantCache cache = restaurantCache;
+        return cache == null ? fetchRestaurantAsync(restaurantId) : cache.get(restaurantId, this::fetchRestaurantAsync);
+    }
+
+    private CompletableFuture<NextableRestaurant> fetchRestaurantAsync(String restaurantId) {
+        CompletableFuture<Response> request = requestAsync(NextableOperation.GET_RESTAURANT, HttpMethod.GET, "restaurants/" + restaurantId);
+        return NextableFutures.cancelling(request.thenApply(response -> read(NextableOperation.GET_RESTAURANT, response, body -> readRestaurant(restaurantId, body))), request, Response::close);
     }
 
     public NextableReservation getReservation(String reservationId, String restaurantId) {
         if (reservationId == null) throw new NullPointerException();
         if (restaurantId == null) throw new NullPointerException();
-        MultivaluedMap<String, Object> queryParams = new MultivaluedHashMap<>();
-        queryParams.putSingle("reservationId", reservationId);
-        queryParams.putSingle("restaurantId", restaurantId);
-        JsonObject body = request(HttpMethod.GET, "reservations", queryParams).readEntity(JsonObject.class);
-        return new NextableReservation()
-            .setId(reservationId)
-            .setRestaurantId(restaurantId)
-            .setFirstName(body.getString("firstName", null))
-            .setLastName(body.getString("lastName", null))
-            .setEmail(body.getString("email", null))
-            .setPhoneNumber(body.getString("phone", null))
-            .setPhoneCode(body.getString("phoneCode", null))
-            .setStart(LocalDateTime.parse(body.getString("dateAndTime")))
-            .setPartySize(body.getInt("partySize"))
-            .setSpecialRequest(body.getString("note", null));
+        return read(NextableOperation.GET_RESERVATION, request(NextableOperation.GET_RESERVATION, HttpMethod.GET, "reservations", reservationQueryParams(reservationId, restaurantId)), body -> readReservation(reservationId, restaurantId, body));
+    }
+
+    public CompletableFuture<NextableReservation> getReservationAsync(String reservationId, String restaurantId) {
+        if (reservationId == null) throw new NullPointerException();
+        if (restaurantId == null) throw new NullPointerException();
+        CompletableFuture<Response> request = requestAsync(NextableOperation.GET_RESERVATION, HttpMethod.GET, "reservations", reservationQueryParams(reservationId, restaurantId));
+        return NextableFutures.cancelling(request.thenApply(response -> read(NextableOperation.GET_RESERVATION, response, body -> readReservation(reservationId, restaurantId, body))), request, Response::close);
     }
 
     public NextableReservation createReservation(NextableReservation reservation) {
-        JsonObject response = request(HttpMethod.POST, "reservations", reservation.toJson()).readEntity(JsonObject.class);
-        JsonObject reservationPlaced = response.getJsonObject("result");
-        String id = reservationPlaced.getString("key");
-        reservation.setId(id);
+        return createReservation(reservation, journal(NextableOperation.CREATE_RESERVATION, reservation));
+    }
+
+    private NextableReservation createReservation(NextableReservation reservation, String idempotencyKey) {
+        try {
+            reservation.setId(read(NextableOperation.CREATE_RESERVATION, request(NextableOperation.CREATE_RESERVATION, HttpMethod.POST, "reservations", reservation::writeJson, new MultivaluedHashMap<>(), idempotencyKey), NextableClient::readReservationKey));
+        } catch (RuntimeException e) {
+            settle(idempotencyKey, e);
+            throw e;
+        }
+        settle(idempotencyKey, null);
+        fireReservationEvent(l -> l.onReservationCreated(reservation));
         return reservation;
     }
 
+    public CompletableFuture<NextableReservation> createReservationAsync(NextableReservation reservation) {
+        String idempotencyKey = journal(NextableOperation.CREATE_RESERVATION, reservation);
+        CompletableFuture<Response> request = requestAsync(NextableOperation.CREATE_RESERVATION, HttpMethod.POST, "reservations", reservation::writeJson, new MultivaluedHashMap<>(), idempotencyKey);
+        return NextableFutures.cancelling(request.thenApply(response -> {
+            reservation.setId(read(NextableOperation.CREATE_RESERVATION, response, NextableClient::readReservationKey));
+            return reservation;
+        }).whenComplete((created, throwable) -> {
+            settle(idempotencyKey, NextableFutures.unwrap(throwable));
+            if (throwable == null) fireReservationEvent(l -> l.onReservationCreated(created));
+        }), request, Response::close);
+    }
+
     public void cancelReservation(NextableReservation reservation) {
         cancelReservation(reservation.getId(), reservation.getRestaurantId());
     }
@@ -135,111 +330,573 @@ public class NextableClient {
     public void cancelReservation(String reservationId, String restaurantId) {
         if (reservationId == null) throw new NullPointerException();
         if (restaurantId == null) throw new NullPointerException();
-        MultivaluedMap<String, Object> queryParams = new MultivaluedHashMap<>();
-        queryParams.putSingle("reservationId", reservationId);
-        queryParams.putSingle("restaurantId", restaurantId);
         try {
-            request(HttpMethod.DELETE, "reservations", queryParams);
+            request(NextableOperation.CANCEL_RESERVATION, HttpMethod.DELETE, "reservations", reservationQueryParams(reservationId, restaurantId)).close();
         } catch (NextableException e) {
-            if(!(e.getStatusType().getStatusCode() == 400 && e.getResponse() != null && e.getResponse().getString("message", "").equals("Reservation already cancelled"))) {
+            if (!isAlreadyCancelled(e)) {
                 throw e;
             }
         }
+        fireReservationEvent(l -> l.onReservationCancelled(reservationId, restaurantId));
+    }
+
+    public CompletableFuture<Void> cancelReservationAsync(NextableReservation reservation) {
+        return cancelReservationAsync(reservation.getId(), reservation.getRestaurantId());
+    }
+
+    public CompletableFuture<Void> cancelReservationAsync(String reservationId, String restaurantId) {
+        if (reservationId == null) throw new NullPointerException();
+        if (restaurantId == null) throw new NullPointerException();
+        CompletableFuture<Response> request = requestAsync(NextableOperation.CANCEL_RESERVATION, HttpMethod.DELETE, "reservations", reservationQueryParams(reservationId, restaurantId));
+        return NextableFutures.cancelling(request.handle((response, throwable) -> {
+            if (response != null) response.close();
+            Throwable cause = NextableFutures.unwrap(throwable);
+            if (cause != null && !(cause instanceof NextableException && isAlreadyCancelled((NextableException) cause))) {
+                throw cause instanceof RuntimeException ? (RuntimeException) cause : new CompletionException(cause);
+            }
+            fireReservationEvent(l -> l.onReservationCancelled(reservationId, restaurantId));
+            return null;
+        }), request, Response::close);
     }
 
     public NextableReservation editReservation(NextableReservation reservation) {
         if (reservation.getId() == null) throw new NullPointerException();
         if (reservation.getRestaurantId() == null) throw new NullPointerException();
-        JsonObject response = request(HttpMethod.PUT, "reservations", reservation.toJson()).readEntity(JsonObject.class);
-        JsonObject body = response.getJsonObject("result");
-        return new NextableReservation()
-            .setId(body.getString("key"))
-            .setRestaurantId(body.getString("restaurantId"))
-            .setFirstName(body.getString("firstName", null))
-            .setLastName(body.getString("lastName", null))
-            .setEmail(body.getString("email", null))
-            .setPhoneNumber(body.getString("phone", null))
-            .setPhoneCode(body.getString("phoneCode", null))
-            .setStart(LocalDateTime.parse(body.getString("dateAndTime")))
-            .setPartySize(body.getInt("partySize"))
-            .setSpecialRequest(body.getString("note", null));
+        return editReservation(reservation, journal(NextableOperation.EDIT_RESERVATION, reservation));
     }
 
-    public List<NextableRestaurant> searchAvailabilities(NextableAvailabilitySearchCriteria criteria) throws NextableException {
+    private NextableReservation editReservation(NextableReservation reservation, String idempotencyKey) {
+        NextableReservation edited;
+        try {
+            edited = read(NextableOperation.EDIT_RESERVATION, request(NextableOperation.EDIT_RESERVATION, HttpMethod.PUT, "reservations", reservation::writeJson, new MultivaluedHashMap<>(), idempotencyKey), NextableClient::readReservationResult);
+        } catch (RuntimeException e) {
+            settle(idempotencyKey, e);
+            throw e;
+        }
+        settle(idempotencyKey, null);
+        fireReservationEvent(l -> l.onReservationEdited(edited));
+        return edited;
+    }
+
+    public CompletableFuture<NextableReservation> editReservationAsync(NextableReservation reservation) {
+        if (reservation.getId() == null) throw new NullPointerException();
+        if (reservation.getRestaurantId() == null) throw new NullPointerException();
+        String idempotencyKey = journal(NextableOperation.EDIT_RESERVATION, reservation);
+        CompletableFuture<Response> request = requestAsync(NextableOperation.EDIT_RESERVATION, HttpMethod.PUT, "reservations", reservation::writeJson, new MultivaluedHashMap<>(), idempotencyKey);
+        return NextableFutures.cancelling(request
+            .thenApply(response -> read(NextableOperation.EDIT_RESERVATION, response, NextableClient::readReservationResult))
+            .whenComplete((edited, throwable) -> {
+                settle(idempotencyKey, NextableFutures.unwrap(throwable));
+                if (throwable == null) fireReservationEvent(l -> l.onReservationEdited(edited));
+            }), request, Response::close);
+    }
+
+    /**
+     * Resolves the writes left pending in the {@link #setWriteJournal(NextableWriteJournal) write journal}, oldest
+     * first. A creation is first looked up in its restaurant by its idempotency key and only sent again, with the same
+     * key, once Nextable answers that it does not know it. An edition is first compared with the reservation read with
+     * {@link #getReservation(String, String)}, on the fields it sets, and only sent again if it was not applied. Writes
+     * whose outcome is still unknown stay pending.
+     *
+     * @return one result per pending write, holding the created or edited reservation or the failure
+     */
+    public List<NextableBatchResult<NextablePendingWrite, NextableReservation>> reconcile() {
+        NextableWriteJournal journal = writeJournal;
+        if (journal == null) return new ArrayList<>();
+        List<NextablePendingWrite> writes = journal.getPendingWrites();
+        List<NextableBatchResult<NextablePendingWrite, NextableReservation>> results = new ArrayList<>(writes.size());
+        for (int i = 0; i < writes.size(); i++) {
+            NextablePendingWrite write = writes.get(i);
+            try {
+                results.add(new NextableBatchResult<>(i, write, reconcile(journal, write), null));
+            } catch (RuntimeException e) {
+                LOGGER.log(Level.FINE, "Unable to reconcile " + write + ": " + e.getMessage(), e);
+                results.add(new NextableBatchResult<>(i, write, null, e));
+            }
+        }
+        return results;
+    }
+
+    private NextableReservation reconcile(NextableWriteJournal journal, NextablePendingWrite write) {
+        NextableReservation reservation = write.getReservation();
+        switch (write.getOperation()) {
+            case CREATE_RESERVATION: {
+                NextableReservation created = findReservation(reservation.getRestaurantId(), write.getIdempotencyKey());
+                if (created == null) {
+                    return createReservation(reservation, write.getIdempotencyKey());
+                }
+                journal.remove(write.getIdempotencyKey());
+                fireReservationEvent(l -> l.onReservationCreated(created));
+                return created;
+            }
+            case EDIT_RESERVATION: {
+                NextableReservation current;
+                try {
+                    current = getReservation(reservation.getId(), reservation.getRestaurantId());
+                } catch (NextableException e) {
+                    if (isRefused(e)) journal.remove(write.getIdempotencyKey());
+                    throw e;
+                }
+                if (!isApplied(reservation, current)) {
+                    return editReservation(reservation, write.getIdempotencyKey());
+                }
+                journal.remove(write.getIdempotencyKey());
+                fireReservationEvent(l -> l.onReservationEdited(current));
+                return current;
+            }
+            default:
+                journal.remove(write.getIdempotencyKey());
+                throw new IllegalArgumentException("Unsupported write: " + write);
+        }
+    }
+
+    /**
+     * @return the reservation created with this idempotency key, or null if Nextable answers that there is none
+     */
+    private NextableReservation findReservation(String restaurantId, String idempotencyKey) {
         MultivaluedMap<String, Object> queryParams = new MultivaluedHashMap<>();
-        for (String id : criteria.getRestaurantIds()) {
-            queryParams.add("restaurantIds", id);
+        queryParams.putSingle("restaurantId", restaurantId);
+        queryParams.putSingle("idempotencyKey", idempotencyKey);
+        try {
+            return read(NextableOperation.GET_RESERVATION, request(NextableOperation.GET_RESERVATION, HttpMethod.GET, "reservations", queryParams), NextableClient::readReservationResult);
+        } catch (NextableException e) {
+            if (e.getStatusType().getStatusCode() == 404) return null;
+            throw e;
         }
-        queryParams.putSingle("includeClosed", false);
-        queryParams.putSingle("page", criteria.getPage());
-        queryParams.putSingle("pageSize", criteria.getPageSize());
-        if (criteria.getPartySize() > 0) {
-            queryParams.putSingle("partySize", criteria.getPartySize());
+    }
+
+    /**
+     * Creates the reservations with at most {@code parallelism} calls in flight. A failure only fails its own item:
+     * results are returned in item order, each one holding the created reservation or the failure.
+     *
+     * @param listener notified as each item completes, or null
+     */
+    public List<NextableBatchResult<NextableReservation, NextableReservation>> createReservations(Collection<NextableReservation> reservations, int parallelism, NextableBatchListener<NextableReservation, NextableReservation> listener) {
+        return NextableFutures.join(createReservationsAsync(reservations, parallelism, listener));
+    }
+
+    public CompletableFuture<List<NextableBatchResult<NextableReservation, NextableReservation>>> createReservationsAsync(Collection<NextableReservation> reservations, int parallelism, NextableBatchListener<NextableReservation, NextableReservation> listener) {
+        return batch(reservations, parallelism, listener, this::createReservationAsync);
+    }
+
+    public List<NextableBatchResult<NextableReservation, NextableReservation>> editReservations(Collection<NextableReservation> reservations, int parallelism, NextableBatchListener<NextableReservation, NextableReservation> listener) {
+        return NextableFutures.join(editReservationsAsync(reservations, parallelism, listener));
+    }
+
+    public CompletableFuture<List<NextableBatchResult<NextableReservation, NextableReservation>>> editReservationsAsync(Collection<NextableReservation> reservations, int parallelism, NextableBatchListener<NextableReservation, NextableReservation> listener) {
+        return batch(reservations, parallelism, listener, this::editReservationAsync);
+    }
+
+    /**
+     * Cancels the reservations, which only need their id and restaurant id, with at most {@code parallelism} calls in
+     * flight. Already cancelled reservations succeed.
+     */
+    public List<NextableBatchResult<NextableReservation, Void>> cancelReservations(Collection<NextableReservation> reservations, int parallelism, NextableBatchListener<NextableReservation, Void> listener) {
+        return NextableFutures.join(cancelReservationsAsync(reservations, parallelism, listener));
+    }
+
+    public CompletableFuture<List<NextableBatchResult<NextableReservation, Void>>> cancelReservationsAsync(Collection<NextableReservation> reservations, int parallelism, NextableBatchListener<NextableReservation, Void> listener) {
+        return batch(reservations, parallelism, listener, this::cancelReservationAsync);
+    }
+
+    public List<NextableRestaurant> searchAvailabilities(NextableAvailabilitySearchCriteria criteria) throws NextableException {
+        NextableSingleFlight<Object, NextableAvailabilityPage> flights = searchFlights;
+        if (flights != null) {
+            return flights.execute(criteria.key(), () -> searchAvailabilityPage(criteria)).restaurants;
         }
-        if (criteria.getFrom() != null) {
-            queryParams.putSingle("beginDateTime", criteria.getFrom().format(DATE_TIME_FORMATTER));
+        return searchAvailabilityPage(criteria).restaurants;
+    }
+
+    public CompletableFuture<List<NextableRestaurant>> searchAvailabilitiesAsync(NextableAvailabilitySearchCriteria criteria) {
+        CompletableFuture<NextableAvailabilityPage> page = searchAvailabilityPageAsync(criteria);
+        return NextableFutures.cancelling(page.thenApply(p -> p.restaurants), page);
+    }
+
+    /**
+     * Same search as {@link #searchAvailabilities(NextableAvailabilitySearchCriteria)}, but the response is read
+     * straight into an immutable, compact snapshot without building restaurants, days and time slots.
+     */
+    public NextableAvailabilitySnapshot searchAvailabilitySnapshot(NextableAvailabilitySearchCriteria criteria) throws NextableException {
+        return readAvailabilitySnapshot(request(NextableOperation.SEARCH_AVAILABILITIES, HttpMethod.GET, "reservations/availability", availabilityQueryParams(criteria)));
+    }
+
+    public CompletableFuture<NextableAvailabilitySnapshot> searchAvailabilitySnapshotAsync(NextableAvailabilitySearchCriteria criteria) {
+        CompletableFuture<Response> request = requestAsync(NextableOperation.SEARCH_AVAILABILITIES, HttpMethod.GET, "reservations/availability", availabilityQueryParams(criteria));
+        return NextableFutures.cancelling(request.thenApply(this::readAvailabilitySnapshot), request, Response::close);
+    }
+
+    /**
+     * Lazily walks all the pages of a search, starting at the criteria page. The next page is requested as soon as the
+     * current one is received and the stream ends on the first page returning less than {@code pageSize} entries.
+     * Closing the stream discards any pending prefetch.
+     */
+    public Stream<NextableRestaurant> streamAvailabilities(NextableAvailabilitySearchCriteria criteria) {
+        NextableAvailabilityIterator iterator = new NextableAvailabilityIterator(this, criteria);
+        return StreamSupport.stream(Spliterators.spliteratorUnknownSize(iterator, Spliterator.ORDERED | Spliterator.NONNULL), false).onClose(iterator::close);
+    }
+
+    private NextableAvailabilityPage searchAvailabilityPage(NextableAvailabilitySearchCriteria criteria) {
+        return readAvailabilities(request(NextableOperation.SEARCH_AVAILABILITIES, HttpMethod.GET, "reservations/availability", availabilityQueryParams(criteria)));
+    }
+
+    CompletableFuture<NextableAvailabilityPage> searchAvailabilityPageAsync(NextableAvailabilitySearchCriteria criteria) {
+        NextableSingleFlight<Object, NextableAvailabilityPage> flights = searchFlights;
+        if (flights != null) {
+            return flights.executeAsync(criteria.key(), () -> fetchAvailabilityPageAsync(criteria));
         }
-        if (criteria.getTo() != null) {
-            queryParams.putSingle("endDateTime", criteria.getTo().format(DATE_TIME_FORMATTER));
+        return fetchAvailabilityPageAsync(criteria);
+    }
+
+    private CompletableFuture<NextableAvailabilityPage> fetchAvailabilityPageAsync(NextableAvailabilitySearchCriteria criteria) {
+        CompletableFuture<Response> request = requestAsync(NextableOperation.SEARCH_AVAILABILITIES, HttpMethod.GET, "reservations/availability", availabilityQueryParams(criteria));
+        return NextableFutures.cancelling(request.thenApply(this::readAvailabilities), request, Response::close);
+    }
+
+    /**
+     * Splits the restaurant ids of the criteria into shards of {@code shardSize} ids and searches them concurrently,
+     * with at most {@code parallelism} requests in flight. Results are merged in criteria order.
+     */
+    public List<NextableRestaurant> searchAvailabilities(NextableAvailabilitySearchCriteria criteria, int shardSize, int parallelism) throws NextableException {
+        return NextableFutures.join(searchAvailabilitiesAsync(criteria, shardSize, parallelism));
+    }
+
+    public CompletableFuture<List<NextableRestaurant>> searchAvailabilitiesAsync(NextableAvailabilitySearchCriteria criteria, int shardSize, int parallelism) {
+        if (shardSize < 1) throw new IllegalArgumentException("Bad shard size: " + shardSize);
+        List<String> ids = new ArrayList<>(criteria.getRestaurantIds());
+        if (ids.size() <= shardSize) {
+            return searchAvailabilitiesAsync(criteria);
         }
-        JsonArray in_list = request(HttpMethod.GET, "reservations/availability", queryParams).readEntity(JsonArray.class);
-        List<NextableRestaurant> restaurants = new ArrayList<>(in_list.size());
-        for (int i = 0; i < in_list.size(); i++) {
-            JsonObject in_resto = in_list.getJsonObject(i);
-            JsonArray in_avail = in_resto.getJsonArray("availability");
-            if (in_avail != null && !in_avail.isEmpty()) {
-                NextableRestaurant nextableRestaurant = new NextableRestaurant(in_resto.getString("id"), ZoneId.of(in_resto.getString("timeZone")))
-                    .setGranularity(Duration.ofMinutes(in_resto.getInt("slotSize")));
-                for (int j = 0; j < in_avail.size(); j++) {
-                    JsonObject in_day = in_avail.getJsonObject(j);
-                    JsonArray in_slots = in_day.getJsonArray("slots");
-                    if (in_slots != null && !in_slots.isEmpty()) {
-                        NextableDailyAvailability availability = nextableRestaurant.addAvailability(LocalDate.parse(in_day.getString("date").substring(0, 10)));
-                        NextableTimeSlot previous = null;
-                        for (int k = 0; k < in_slots.size(); k++) {
-                            JsonObject in_slot = in_slots.getJsonObject(k);
-                            JsonArray in_partySizes = in_slot.getJsonArray("partySizes");
-                            if (in_partySizes != null && !in_partySizes.isEmpty()) {
-                                NextableTimeSlot slot = availability.addTimeSlot(LocalTime.parse(in_slot.getString("time24")));
-                                for (int p = 0; p < in_partySizes.size(); p++) {
-                                    slot.addPartySize(in_partySizes.getJsonObject(p).getInt("size"));
-                                }
-                                if (previous != null && previous.getEndTime().equals(slot.getStartTime()) && previous.hasSameProperties(slot)) {
-                                    previous.expand();
-                                    slot.remove();
-                                } else {
-                                    previous = slot;
-                                }
-                            } else {
-                                previous = null;
-                            }
-                        }
-                        if (!availability.hasAvailability()) {
-                            availability.remove();
-                        }
-                    }
+        List<NextableAvailabilitySearchCriteria> shards = new ArrayList<>((ids.size() + shardSize - 1) / shardSize);
+        for (int i = 0; i < ids.size(); i += shardSize) {
+            shards.add(criteria.copy(ids.subList(i, Math.min(ids.size(), i + shardSize))));
+        }
+        Map<String, Integer> order = new HashMap<>(ids.size() * 2);
+        for (int i = 0; i < ids.size(); i++) {
+            order.put(ids.get(i), i);
+        }
+        CompletableFuture<List<List<NextableRestaurant>>> shardResults = NextableFutures.mapBounded(shards, parallelism, this::searchAvailabilitiesAsync);
+        return NextableFutures.cancelling(shardResults.thenApply(pages -> {
+            List<NextableRestaurant> restaurants = new ArrayList<>();
+            pages.forEach(restaurants::addAll);
+            restaurants.sort(Comparator.comparing(r -> order.getOrDefault(r.getId(), Integer.MAX_VALUE)));
+            return restaurants;
+        }), shardResults);
+    }
+
+    Response request(NextableOperation operation, String method, String path) throws NextableException {
+        return request(operation, method, path, new MultivaluedHashMap<>());
+    }
+
+    Response request(NextableOperation operation, String method, String path, MultivaluedMap<String, Object> queryParams) throws NextableException {
+        return request(operation, method, path, null, queryParams);
+    }
+
+    Response request(NextableOperation operation, String method, String path, Consumer<JsonGenerator> body) throws NextableException {
+        return request(operation, method, path, body, new MultivaluedHashMap<>());
+    }
+
+    Response request(NextableOperation operation, String method, String path, Consumer<JsonGenerator> body, MultivaluedMap<String, Object> queryParams) throws NextableException {
+        return request(operation, method, path, body, queryParams, null);
+    }
+
+    /**
+     * @param idempotencyKey if not null, sent with the body and makes the request retryable even if the operation is
+     *                       not idempotent
+     */
+    Response request(NextableOperation operation, String method, String path, Consumer<JsonGenerator> body, MultivaluedMap<String, Object> queryParams, String idempotencyKey) throws NextableException {
+        if (isEnabled() && hedgingPolicies.containsKey(operation)) {
+            // the hedge is sent while waiting for the first response
+            return NextableFutures.join(requestAsync(operation, method, path, body, queryParams, idempotencyKey));
+        }
+        WebTarget t = buildTarget(method, path, queryParams);
+        NextableRequestBody entity = buildEntity(method, body, idempotencyKey);
+        if (LOGGER.isLoggable(Level.FINEST)) {
+            LOGGER.finest(method + " " + t.getUri() + (entity == null ? "" : (" : " + entity)));
+        }
+        if (!isEnabled()) {
+            return Response.ok().build();
+        }
+        NextableRetryPolicy retryPolicy = isRetryable(operation, entity) ? this.retryPolicy : null;
+        if (retryPolicy != null) retryPolicy.onRequest();
+        for (int attempt = 1; ; attempt++) {
+            try {
+                return invoke(operation, t, method, entity);
+            } catch (NextableException | ProcessingException e) {
+                long delay = retryPolicy == null ? -1 : retryPolicy.nextDelay(attempt, e);
+                if (delay < 0) throw e;
+                LOGGER.fine("Retrying " + operation + " in " + TimeUnit.NANOSECONDS.toMillis(delay) + "ms after attempt " + attempt + " failed: " + e.getMessage());
+                try {
+                    TimeUnit.NANOSECONDS.sleep(delay);
+                } catch (InterruptedException ie) {
+                    Thread.currentThread().interrupt();
+                    throw e;
+                }
+            }
+        }
+    }
+
+    CompletableFuture<Response> requestAsync(NextableOperation operation, String method, String path) {
+        return requestAsync(operation, method, path, new MultivaluedHashMap<>());
+    }
+
+    CompletableFuture<Response> requestAsync(NextableOperation operation, String method, String path, MultivaluedMap<String, Object> queryParams) {
+        return requestAsync(operation, method, path, null, queryParams);
+    }
+
+    CompletableFuture<Response> requestAsync(NextableOperation operation, String method, String path, Consumer<JsonGenerator> body) {
+        return requestAsync(operation, method, path, body, new MultivaluedHashMap<>());
+    }
+
+    CompletableFuture<Response> requestAsync(NextableOperation operation, String method, String path, Consumer<JsonGenerator> body, MultivaluedMap<String, Object> queryParams) {
+        return requestAsync(operation, method, path, body, queryParams, null);
+    }
+
+    CompletableFuture<Response> requestAsync(NextableOperation operation, String method, String path, Consumer<JsonGenerator> body, MultivaluedMap<String, Object> queryParams, String idempotencyKey) {
+        WebTarget t = buildTarget(method, path, queryParams);
+        NextableRequestBody entity = buildEntity(method, body, idempotencyKey);
+        if (LOGGER.isLoggable(Level.FINEST)) {
+            LOGGER.finest(method + " " + t.getUri() + (entity == null ? "" : (" : " + entity)) + " (async)");
+        }
+        if (!isEnabled()) {
+            return CompletableFuture.completedFuture(Response.ok().build());
+        }
+        NextableRetryPolicy retryPolicy = isRetryable(operation, entity) ? this.retryPolicy : null;
+        if (retryPolicy != null) retryPolicy.onRequest();
+        NextableHedgingPolicy hedgingPolicy = hedgingPolicies.get(operation);
+        if (hedgingPolicy != null) {
+            return hedge(operation, hedgingPolicy, () -> {
+                CompletableFuture<Response> future = new CompletableFuture<>();
+                invokeAsync(future, operation, retryPolicy, 1, t, method, entity);
+                return future;
+            });
+        }
+        CompletableFuture<Response> future = new CompletableFuture<>();
+        invokeAsync(future, operation, retryPolicy, 1, t, method, entity);
+        return future;
+    }
+
+    private CompletableFuture<Response> hedge(NextableOperation operation, NextableHedgingPolicy hedgingPolicy, Supplier<CompletableFuture<Response>> call) {
+        hedgingPolicy.onRequest();
+        CompletableFuture<Response> result = new CompletableFuture<>();
+        List<CompletableFuture<Response>> calls = new CopyOnWriteArrayList<>();
+        AtomicInteger running = new AtomicInteger(1);
+        long start = System.nanoTime();
+        BiConsumer<Response, Throwable> settle = (response, throwable) -> {
+            if (throwable == null) {
+                // the loser's response is not needed
+                if (!result.complete(response)) response.close();
+            } else if (running.decrementAndGet() == 0) {
+                result.completeExceptionally(NextableFutures.unwrap(throwable));
+            }
+        };
+        CompletableFuture<Response> first = call.get();
+        calls.add(first);
+        first.whenComplete((response, throwable) -> {
+            if (throwable == null) hedgingPolicy.record(System.nanoTime() - start);
+            settle.accept(response, throwable);
+        });
+        ScheduledFuture<?> timer = getScheduler().schedule(() -> {
+            if (result.isDone() || !hedgingPolicy.tryHedge()) return;
+            metrics.onHedged(operation);
+            running.incrementAndGet();
+            CompletableFuture<Response> hedge = call.get();
+            calls.add(hedge);
+            hedge.whenComplete(settle);
+            if (result.isDone()) hedge.cancel(true);
+        }, hedgingPolicy.delayNanos(), TimeUnit.NANOSECONDS);
+        result.whenComplete((response, throwable) -> {
+            timer.cancel(false);
+            for (CompletableFuture<Response> c : calls) {
+                if (!c.isDone()) {
+                    // a first request beaten by its hedge took at least this long
+                    if (c == first) hedgingPolicy.record(System.nanoTime() - start);
+                    c.cancel(true);
                 }
-                if (nextableRestaurant.hasAvailability()) {
-                    restaurants.add(nextableRestaurant);
+            }
+        });
+        return result;
+    }
+
+    private Response invoke(NextableOperation operation, WebTarget t, String method, NextableRequestBody entity) throws NextableException {
+        NextableRateLimiter rateLimiter = rateLimiters.get(operation);
+        if (rateLimiter != null) {
+            long delay = rateLimiter.reserve(getToken());
+            if (delay < 0) throw rejected(operation, new NextableRejectedException(operation, "rate limit reached"));
+            if (delay > 0) {
+                try {
+                    TimeUnit.NANOSECONDS.sleep(delay);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw rejected(operation, new NextableRejectedException(operation, "interrupted while waiting for the rate limiter"));
                 }
             }
         }
-        return restaurants;
+        NextableBulkhead bulkhead = bulkheads.get(operation);
+        if (bulkhead != null && !bulkhead.acquire()) {
+            throw rejected(operation, new NextableRejectedException(operation, "too many concurrent calls"));
+        }
+        try {
+            NextableCircuitBreaker circuitBreaker = circuitBreakers.get(operation);
+            if (circuitBreaker != null && !circuitBreaker.tryAcquire()) {
+                throw rejected(operation, new NextableCircuitOpenException(operation, circuitBreaker));
+            }
+            long start = System.nanoTime();
+            try {
+                Response response = send(operation, t, method, entity);
+                if (circuitBreaker != null) circuitBreaker.onResult(System.nanoTime() - start, null);
+                return response;
+            } catch (RuntimeException e) {
+                if (circuitBreaker != null) circuitBreaker.onResult(System.nanoTime() - start, e);
+                throw e;
+            }
+        } finally {
+            if (bulkhead != null) bulkhead.release();
+        }
     }
 
-    Response request(String method, String path) throws NextableException {
-        return request(method, path, new MultivaluedHashMap<>());
+    private Response send(NextableOperation operation, WebTarget t, String method, NextableRequestBody entity) throws NextableException {
+        Invocation.Builder b = t.request(MediaType.APPLICATION_JSON_TYPE);
+        if (entity != null && entity.getIdempotencyKey() != null) b = b.header(IDEMPOTENCY_KEY, entity.getIdempotencyKey());
+        // {{-- only for testing with a tunnel
+        //System.setProperty("sun.net.http.allowRestrictedHeaders", "true");
+        //b = b.header("Host", "services-dev.nextable.com");
+        // --}}
+        NextableMetrics metrics = this.metrics;
+        long start = System.nanoTime();
+        Response response;
+        try {
+            response = entity != null ? b.method(method, Entity.entity(entity, JSON_UTF8)) : b.method(method);
+        } catch (RuntimeException e) {
+            metrics.onFailure(operation, e, System.nanoTime() - start);
+            throw e;
+        }
+        metrics.onResponse(operation, response.getStatus(), System.nanoTime() - start);
+        return checkResponse(response, entity);
     }
 
-    Response request(String method, String path, MultivaluedMap<String, Object> queryParams) throws NextableException {
-        return request(method, path, null, queryParams);
+    private void invokeAsync(CompletableFuture<Response> future, NextableOperation operation, NextableRetryPolicy retryPolicy, int attempt, WebTarget t, String method, NextableRequestBody entity) {
+        NextableRateLimiter rateLimiter = rateLimiters.get(operation);
+        long delay = rateLimiter == null ? 0 : rateLimiter.reserve(getToken());
+        if (delay < 0) {
+            future.completeExceptionally(rejected(operation, new NextableRejectedException(operation, "rate limit reached")));
+        } else if (delay > 0) {
+            getScheduler().schedule(() -> acquireAsync(future, operation, retryPolicy, attempt, t, method, entity), delay, TimeUnit.NANOSECONDS);
+        } else {
+            acquireAsync(future, operation, retryPolicy, attempt, t, method, entity);
+        }
     }
 
-    Response request(String method, String path, JsonObject body) throws NextableException {
-        return request(method, path, body, new MultivaluedHashMap<>());
+    private void acquireAsync(CompletableFuture<Response> future, NextableOperation operation, NextableRetryPolicy retryPolicy, int attempt, WebTarget t, String method, NextableRequestBody entity) {
+        NextableBulkhead bulkhead = bulkheads.get(operation);
+        if (bulkhead == null) {
+            sendAsync(future, operation, retryPolicy, attempt, t, method, entity, () -> {
+            });
+        } else {
+            bulkhead.acquireAsync(
+                () -> {
+                    AtomicBoolean released = new AtomicBoolean();
+                    sendAsync(future, operation, retryPolicy, attempt, t, method, entity, () -> {
+                        if (released.compareAndSet(false, true)) bulkhead.release();
+                    });
+                },
+                () -> future.completeExceptionally(rejected(operation, new NextableRejectedException(operation, "too many concurrent calls"))),
+                getScheduler());
+        }
     }
 
-    Response request(String method, String path, JsonObject body, MultivaluedMap<String, Object> queryParams) throws NextableException {
+    private void sendAsync(CompletableFuture<Response> future, NextableOperation operation, NextableRetryPolicy retryPolicy, int attempt, WebTarget t, String method, NextableRequestBody entity, Runnable release) {
+        if (future.isDone()) {
+            release.run();
+            return;
+        }
+        NextableCircuitBreaker circuitBreaker = circuitBreakers.get(operation);
+        if (circuitBreaker != null && !circuitBreaker.tryAcquire()) {
+            release.run();
+            future.completeExceptionally(rejected(operation, new NextableCircuitOpenException(operation, circuitBreaker)));
+            return;
+        }
+        NextableMetrics metrics = this.metrics;
+        long start = System.nanoTime();
+        // set by whichever comes first: the outcome of the call or its cancellation, which is not an outcome to account
+        AtomicBoolean settled = new AtomicBoolean();
+        InvocationCallback<Response> callback = new InvocationCallback<Response>() {
+            @Override
+            public void completed(Response response) {
+                if (!settled.compareAndSet(false, true)) {
+                    // cancelled first
+                    response.close();
+                    return;
+                }
+                release.run();
+                metrics.onResponse(operation, response.getStatus(), System.nanoTime() - start);
+                try {
+                    Response checked = checkResponse(response, entity);
+                    if (circuitBreaker != null) circuitBreaker.onResult(System.nanoTime() - start, null);
+                    // cancelled meanwhile: nobody will read it
+                    if (!future.complete(checked)) checked.close();
+                } catch (NextableException e) {
+                    if (circuitBreaker != null) circuitBreaker.onResult(System.nanoTime() - start, e);
+                    retryOrFail(e);
+                } catch (RuntimeException e) {
+                    future.completeExceptionally(e);
+                }
+            }
+
+            @Override
+            public void failed(Throwable throwable) {
+                if (!settled.compareAndSet(false, true)) return;
+                release.run();
+                if (NextableFutures.unwrap(throwable) instanceof CancellationException) {
+                    if (circuitBreaker != null) circuitBreaker.release();
+                    future.completeExceptionally(throwable);
+                    return;
+                }
+                metrics.onFailure(operation, throwable, System.nanoTime() - start);
+                if (circuitBreaker != null) circuitBreaker.onResult(System.nanoTime() - start, throwable);
+                retryOrFail(throwable);
+            }
+
+            void retryOrFail(Throwable failure) {
+                long delay = retryPolicy == null || future.isDone() ? -1 : retryPolicy.nextDelay(attempt, failure);
+                if (delay < 0) {
+                    future.completeExceptionally(failure);
+                } else {
+                    LOGGER.fine("Retrying " + operation + " in " + TimeUnit.NANOSECONDS.toMillis(delay) + "ms after attempt " + attempt + " failed: " + failure.getMessage());
+                    getScheduler().schedule(() -> invokeAsync(future, operation, retryPolicy, attempt + 1, t, method, entity), delay, TimeUnit.NANOSECONDS);
+                }
+            }
+        };
+        Invocation.Builder b = t.request(MediaType.APPLICATION_JSON_TYPE);
+        if (entity != null && entity.getIdempotencyKey() != null) b = b.header(IDEMPOTENCY_KEY, entity.getIdempotencyKey());
+        AsyncInvoker invoker = b.async();
+        Future<Response> call = entity != null ? invoker.method(method, Entity.entity(entity, JSON_UTF8), callback) : invoker.method(method, callback);
+        future.whenComplete((response, throwable) -> {
+            if (future.isCancelled() && settled.compareAndSet(false, true)) {
+                call.cancel(true);
+                release.run();
+                if (circuitBreaker != null) circuitBreaker.release();
+            }
+        });
+    }
+
+    ScheduledExecutorService getScheduler() {
+        ScheduledExecutorService s = scheduler;
+        if (s == null) {
+            synchronized (this) {
+                s = scheduler;
+                if (s == null) {
+                    scheduler = s = Executors.newSingleThreadScheduledExecutor(r -> {
+                        Thread thread = new Thread(r, "nextable-scheduler");
+                        thread.setDaemon(true);
+                        return thread;
+                    });
+                }
+            }
+        }
+        return s;
+    }
+
+    private WebTarget buildTarget(String method, String path, MultivaluedMap<String, Object> queryParams) {
         WebTarget t = target.path(path);
         for (Map.Entry<String, List<Object>> entry : queryParams.entrySet()) {
             t = t.queryParam(entry.getKey(), entry.getValue().toArray(new Object[entry.getValue().size()]));
@@ -247,29 +904,224 @@ public class NextableClient {
         // add api key
         if (HttpMethod.GET.equals(method) || HttpMethod.DELETE.equals(method)) {
             t = t.queryParam("apiKey", getToken());
-        } else {
-            JsonObjectBuilder builder = Json.createObjectBuilder();
-            if (body != null) body.forEach(builder::add);
-            builder.add("apiKey", getToken());
-            body = builder.build();
         }
-        if (LOGGER.isLoggable(Level.FINEST)) {
-            LOGGER.finest(method + " " + t.getUri() + (body == null ? "" : (" : " + body)));
+        return t;
+    }
+
+    private NextableRequestBody buildEntity(String method, Consumer<JsonGenerator> body, String idempotencyKey) {
+        if (HttpMethod.GET.equals(method) || HttpMethod.DELETE.equals(method)) {
+            return body == null ? null : new NextableRequestBody(body, null, idempotencyKey);
         }
-        if (!isEnabled()) {
-            return Response.ok().build();
+        // add api key
+        return new NextableRequestBody(body, getToken(), idempotencyKey);
+    }
+
+    /**
+     * @return the idempotency key to send with the write, or null if there is no write journal
+     */
+    private String journal(NextableOperation operation, NextableReservation reservation) {
+        NextableWriteJournal journal = writeJournal;
+        if (journal == null || !isEnabled()) return null;
+        // a new key per write: reusing one would make Nextable take a later write for a replay of the first one
+        String idempotencyKey = UUID.randomUUID().toString();
+        journal.add(new NextablePendingWrite(operation, idempotencyKey, reservation));
+        return idempotencyKey;
+    }
+
+    /**
+     * Forgets the write once its outcome is known: applied, or refused by Nextable or by the client itself.
+     */
+    private void settle(String idempotencyKey, Throwable failure) {
+        NextableWriteJournal journal = writeJournal;
+        if (idempotencyKey == null || journal == null) return;
+        if (failure == null || isRefused(failure)) {
+            journal.remove(idempotencyKey);
         } else {
-            Invocation.Builder b = t.request(MediaType.APPLICATION_JSON_TYPE);
-            // {{-- only for testing with a tunnel
-            //System.setProperty("sun.net.http.allowRestrictedHeaders", "true");
-            //b = b.header("Host", "services-dev.nextable.com");
-            // --}}
-            Response response = body != null ? b.method(method, Entity.entity(body, "application/json; charset=utf-8")) : b.method(method);
-            if (response.getStatusInfo().getFamily() != Response.Status.Family.SUCCESSFUL) {
-                throw new NextableException(response, body);
+            LOGGER.fine("Write " + idempotencyKey + " left pending after: " + failure);
+        }
+    }
+
+    private <I, R> CompletableFuture<List<NextableBatchResult<I, R>>> batch(Collection<I> items, int parallelism, NextableBatchListener<I, R> listener, Function<I, CompletableFuture<R>> call) {
+        List<I> list = new ArrayList<>(items);
+        List<Integer> indexes = IntStream.range(0, list.size()).boxed().collect(Collectors.toList());
+        AtomicInteger completed = new AtomicInteger();
+        AtomicInteger failed = new AtomicInteger();
+        return NextableFutures.mapBounded(indexes, parallelism, index -> {
+            I item = list.get(index);
+            CompletableFuture<R> future;
+            try {
+                future = call.apply(item);
+            } catch (RuntimeException e) {
+                future = new CompletableFuture<>();
+                future.completeExceptionally(e);
+            }
+            return NextableFutures.cancelling(future.handle((result, throwable) -> {
+                NextableBatchResult<I, R> itemResult = new NextableBatchResult<>(index, item, result, NextableFutures.unwrap(throwable));
+                int f = throwable == null ? failed.get() : failed.incrementAndGet();
+                int c = completed.incrementAndGet();
+                if (listener != null) {
+                    try {
+                        listener.onItemCompleted(itemResult, c, f, list.size());
+                    } catch (RuntimeException e) {
+                        LOGGER.log(Level.WARNING, "Batch listener " + listener + " failed: " + e.getMessage(), e);
+                    }
+                }
+                return itemResult;
+            }), future);
+        });
+    }
+
+    private <T> T read(NextableOperation operation, Response response, Function<JsonObject, T> mapper) {
+        NextableMetrics metrics = this.metrics;
+        long start = System.nanoTime();
+        JsonObject body = response.readEntity(JsonObject.class);
+        long read = System.nanoTime();
+        T result = mapper.apply(body);
+        metrics.onRead(operation, read - start);
+        metrics.onMapping(operation, System.nanoTime() - read);
+        return result;
+    }
+
+    private NextableAvailabilityPage readAvailabilities(Response response) {
+        long start = System.nanoTime();
+        try {
+            return NextableAvailabilityReader.read(response.readEntity(InputStream.class));
+        } finally {
+            response.close();
+            metrics.onRead(NextableOperation.SEARCH_AVAILABILITIES, System.nanoTime() - start);
+        }
+    }
+
+    private NextableAvailabilitySnapshot readAvailabilitySnapshot(Response response) {
+        long start = System.nanoTime();
+        try {
+            return NextableAvailabilityReader.readSnapshot(response.readEntity(InputStream.class));
+        } finally {
+            response.close();
+            metrics.onRead(NextableOperation.SEARCH_AVAILABILITIES, System.nanoTime() - start);
+        }
+    }
+
+    private <E extends NextableException> E rejected(NextableOperation operation, E e) {
+        metrics.onRejected(operation, e);
+        return e;
+    }
+
+    private void fireReservationEvent(Consumer<NextableReservationListener> event) {
+        for (NextableReservationListener listener : reservationListeners) {
+            try {
+                event.accept(listener);
+            } catch (RuntimeException e) {
+                LOGGER.log(Level.WARNING, "Reservation listener " + listener + " failed: " + e.getMessage(), e);
+            }
+        }
+    }
+
+    private static Response checkResponse(Response response, NextableRequestBody entity) throws NextableException {
+        if (response.getStatusInfo().getFamily() != Response.Status.Family.SUCCESSFUL) {
+            throw new NextableException(response, entity == null ? null : entity.toJson());
+        }
+        return response;
+    }
+
+    private boolean isRetryable(NextableOperation operation, NextableRequestBody entity) {
+        return operation.isIdempotent() || serverDeduplicatesWrites && entity != null && entity.getIdempotencyKey() != null;
+    }
+
+    /**
+     * @return true if the failure proves that the write was not applied: rejected before being sent or refused by
+     * Nextable. Timeouts, transport errors and 5xx may have been applied.
+     */
+    private static boolean isRefused(Throwable failure) {
+        if (failure instanceof NextableCircuitOpenException || failure instanceof NextableRejectedException) return true;
+        if (!(failure instanceof NextableException)) return false;
+        int status = ((NextableException) failure).getStatusType().getStatusCode();
+        return status >= 400 && status < 500 && status != 408;
+    }
+
+    /**
+     * @return true if the current reservation holds every field set by the edition. Fields the edition leaves unset
+     * and fields filled by Nextable are not compared.
+     */
+    private static boolean isApplied(NextableReservation edition, NextableReservation current) {
+        JsonObject expected = edition.toJson();
+        JsonObject actual = current.toJson();
+        return expected.entrySet().stream().allMatch(field -> field.getValue().equals(actual.get(field.getKey())));
+    }
+
+    private static boolean isAlreadyCancelled(NextableException e) {
+        return e.getStatusType().getStatusCode() == 400 && e.getResponse() != null && e.getResponse().getString("message", "").equals("Reservation already cancelled");
+    }
+
+    private static MultivaluedMap<String, Object> reservationQueryParams(String reservationId, String restaurantId) {
+        MultivaluedMap<String, Object> queryParams = new MultivaluedHashMap<>();
+        queryParams.putSingle("reservationId", reservationId);
+        queryParams.putSingle("restaurantId", restaurantId);
+        return queryParams;
+    }
+
+    private static MultivaluedMap<String, Object> availabilityQueryParams(NextableAvailabilitySearchCriteria criteria) {
+        MultivaluedMap<String, Object> queryParams = new MultivaluedHashMap<>();
+        for (String id : criteria.getRestaurantIds()) {
+            queryParams.add("restaurantIds", id);
+        }
+        queryParams.putSingle("includeClosed", false);
+        queryParams.putSingle("page", criteria.getPage());
+        queryParams.putSingle("pageSize", criteria.getPageSize());
+        if (criteria.getPartySize() > 0) {
+            queryParams.putSingle("partySize", criteria.getPartySize());
+        }
+        if (criteria.getFrom() != null) {
+            queryParams.putSingle("beginDateTime", criteria.getFrom().format(DATE_TIME_FORMATTER));
+        }
+        if (criteria.getTo() != null) {
+            queryParams.putSingle("endDateTime", criteria.getTo().format(DATE_TIME_FORMATTER));
+        }
+        return queryParams;
+    }
+
+    private static NextableRestaurant readRestaurant(String restaurantId, JsonObject body) {
+        NextableRestaurant restaurant = new NextableRestaurant(restaurantId, ZoneId.of(body.getString("timeZone")))
+            .setName(body.getString("restaurantName"))
+            .setGranularity(Duration.ofMinutes(body.getInt("timeSlotSpan")))
+            .setDescription(body.getString("description", null))
+            .setPhoneNumber(body.getString("businessPhone", null))
+            .setAddress(body.getString("address", null))
+            .setCity(body.getString("city", null))
+            .setStateCode(body.getString("state", null))
+            .setPostalCode(body.getString("zip", null))
+            .setCountryCode(body.getString("country", null))
+            .setPricingScale(body.getString("price", "").length() / 4);
+        for (int i = 1; body.containsKey("cuisine" + i); i++) {
+            String c = body.getString("cuisine" + i, null);
+            if(c != null && c.length() > 0) {
+                restaurant.addCuisine(c);
             }
-            return response;
         }
+        return restaurant;
+    }
+
+    private static NextableReservation readReservation(String reservationId, String restaurantId, JsonObject body) {
+        return new NextableReservation()
+            .setId(reservationId)
+            .setRestaurantId(restaurantId)
+            .setFirstName(body.getString("firstName", null))
+            .setLastName(body.getString("lastName", null))
+            .setEmail(body.getString("email", null))
+            .setPhoneNumber(body.getString("phone", null))
+            .setPhoneCode(body.getString("phoneCode", null))
+            .setStart(LocalDateTime.parse(body.getString("dateAndTime")))
+            .setPartySize(body.getInt("partySize"))
+            .setSpecialRequest(body.getString("note", null));
+    }
+
+    private static String readReservationKey(JsonObject response) {
+        return response.getJsonObject("result").getString("key");
+    }
+
+    private static NextableReservation readReservationResult(JsonObject response) {
+        JsonObject body = response.getJsonObject("result");
+        return readReservation(body.getString("key"), body.getString("restaurantId"), body);
     }
 
 }
@@ -0,0 +1,119 @@
+/**
+ * Copyright (C) 2013 Guestful (info@guestful.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.guestful.client.nextable;
+
+import javax.ws.rs.client.Client;
+import javax.ws.rs.client.ClientBuilder;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Builds a {@link NextableClient} with an explicitly tuned JAX-RS {@link Client}.
+ * <p>
+ * Timeouts and the async pool size are passed as Jersey client properties. The connection pool is not configured here:
+ * the default Jersey connector uses the JDK {@code HttpURLConnection} keep-alive cache, which is sized for the whole
+ * JVM by the {@code http.keepAlive} and {@code http.maxConnections} (idle connections kept per host, 5 by default)
+ * system properties, to set on the command line. When another connector is registered, configure its pool through
+ * {@link #property(String, Object)}.
+ *
+ * @author Mathieu Carbou (mathieu.carbou@gmail.com)
+ */
+public class NextableClientBuilder {
+
+    public static final String CONNECT_TIMEOUT = "jersey.config.client.connectTimeout";
+    public static final String READ_TIMEOUT = "jersey.config.client.readTimeout";
+    public static final String ASYNC_THREAD_POOL_SIZE = "jersey.config.client.async.threadPoolSize";
+
+    private final Map<String, Object> properties = new LinkedHashMap<>();
+    private final List<Object> components = new ArrayList<>();
+
+    private String token;
+    private String uri = NextableClient.DEFAULT_URI;
+    private Duration connectTimeout = Duration.ofSeconds(5);
+    private Duration readTimeout = Duration.ofSeconds(30);
+    private int asyncThreadPoolSize;
+    private boolean compression = true;
+
+    public NextableClientBuilder setToken(String token) {
+        this.token = token;
+        return this;
+    }
+
+    public NextableClientBuilder setUri(String uri) {
+        this.uri = uri;
+        return this;
+    }
+
+    public NextableClientBuilder setConnectTimeout(Duration connectTimeout) {
+        this.connectTimeout = connectTimeout;
+        return this;
+    }
+
+    public NextableClientBuilder setReadTimeout(Duration readTimeout) {
+        this.readTimeout = readTimeout;
+        return this;
+    }
+
+    /**
+     * Size of the pool running async requests and their callbacks. 0 keeps the JAX-RS implementation default.
+     */
+    public NextableClientBuilder setAsyncThreadPoolSize(int asyncThreadPoolSize) {
+        if (asyncThreadPoolSize < 0) throw new IllegalArgumentException("Bad pool size: " + asyncThreadPoolSize);
+        this.asyncThreadPoolSize = asyncThreadPoolSize;
+        return this;
+    }
+
+    public NextableClientBuilder setCompression(boolean compression) {
+        this.compression = compression;
+        return this;
+    }
+
+    public NextableClientBuilder property(String name, Object value) {
+        properties.put(name, value);
+        return this;
+    }
+
+    /**
+     * Registers a provider or feature on the client, i.e. the JSON-P body reader and writer.
+     */
+    public NextableClientBuilder register(Object component) {
+        components.add(component);
+        return this;
+    }
+
+    public Client buildClient() {
+        ClientBuilder builder = ClientBuilder.newBuilder();
+        if (connectTimeout != null) builder.property(CONNECT_TIMEOUT, (int) connectTimeout.toMillis());
+        if (readTimeout != null) builder.property(READ_TIMEOUT, (int) readTimeout.toMillis());
+        if (asyncThreadPoolSize > 0) builder.property(ASYNC_THREAD_POOL_SIZE, asyncThreadPoolSize);
+        properties.forEach(builder::property);
+        for (Object component : components) {
+            if (component instanceof Class) builder.register((Class<?>) component);
+            else builder.register(component);
+        }
+        if (compression) builder.register(new NextableGzipSupport());
+        return builder.build();
+    }
+
+    public NextableClient build() {
+        if (token == null) throw new NullPointerException("token");
+        return new NextableClient(buildClient(), token, uri);
+    }
+
+}
@@ -15,7 +15,6 @@
  */
 package com.guestful.client.nextable;
 
-import javax.json.Json;
 import javax.json.JsonArrayBuilder;
 import javax.json.JsonObject;
 import java.time.LocalDate;
@@ -52,15 +51,16 @@ public class NextableDailyAvailability {
     public NextableTimeSlot addTimeSlot(LocalTime time) {
         NextableTimeSlot slot = new NextableTimeSlot(this, time);
         timeSlots.add(slot);
+        restaurant.modCount++;
         return slot;
     }
 
     public JsonObject toJson() {
-        JsonArrayBuilder slots = Json.createArrayBuilder();
+        JsonArrayBuilder slots = NextableJson.createArrayBuilder();
         for (NextableTimeSlot timeSlot : timeSlots) {
             slots.add(timeSlot.toJson());
         }
-        return Json.createObjectBuilder()
+        return NextableJson.createObjectBuilder()
             .add("day", day.toString())
             .add("timeSlots", slots)
             .build();
@@ -15,7 +15,6 @@
  */
 package com.guestful.client.nextable;
 
-import javax.json.Json;
 import javax.json.JsonObject;
 import javax.ws.rs.core.MediaType;
 import javax.ws.rs.core.Response;
@@ -32,12 +31,12 @@ public class NextableException extends RuntimeException {
 
     NextableException(Response response, JsonObject request) {
         this(response.getStatusInfo(),
-            MediaType.APPLICATION_JSON_TYPE.isCompatible(response.getMediaType()) ? response.readEntity(JsonObject.class) : Json.createObjectBuilder().add("error", response.readEntity(String.class)).build(),
+            MediaType.APPLICATION_JSON_TYPE.isCompatible(response.getMediaType()) ? response.readEntity(JsonObject.class) : NextableJson.createObjectBuilder().add("error", response.readEntity(String.class)).build(),
             request,
             response.getHeaderString("NexTableTrxId"));
     }
 
-    private NextableException(Response.StatusType statusType, JsonObject response, JsonObject request, String nexTableTrxId) {
+    NextableException(Response.StatusType statusType, JsonObject response, JsonObject request, String nexTableTrxId) {
         super("Nextable request error. " + statusType.getStatusCode() + " " + statusType.getReasonPhrase() + ". NexTableTrxId: " + nexTableTrxId + "\n" + response + (request == null ? "" : "\nRequest:\n" + request));
         this.statusType = statusType;
         this.response = response;
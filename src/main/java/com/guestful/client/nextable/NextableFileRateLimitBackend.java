@@ -0,0 +1,126 @@
+/**
+ * Copyright (C) 2013 Guestful (info@guestful.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.guestful.client.nextable;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.LockSupport;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * {@link NextableRateLimitBackend} storing the buckets in a directory shared by several JVMs of the same host (or a
+ * shared file system supporting locks). Each key is stored in its own file, updated under an exclusive file lock, and
+ * times are wall-clock microseconds so that all the JVMs agree on them.
+ * <p>
+ * Reservations may run on the scheduler thread of the client, so the lock is never waited for more than
+ * {@code lockTimeout}: past it, i.e. when another process holds it, the permit is refused.
+ *
+ * @author Mathieu Carbou (mathieu.carbou@gmail.com)
+ */
+public class NextableFileRateLimitBackend implements NextableRateLimitBackend {
+
+    private static final long LOCK_RETRY_NANOS = TimeUnit.MICROSECONDS.toNanos(50);
+
+    private final Path directory;
+    // file locks are held by the JVM, so threads of the same JVM are serialized here first
+    private final ConcurrentMap<Path, Lock> locks = new ConcurrentHashMap<>();
+
+    private volatile long lockTimeout = Duration.ofMillis(10).toNanos();
+
+    public NextableFileRateLimitBackend(Path directory) {
+        this.directory = directory;
+        try {
+            Files.createDirectories(directory);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    public Path getDirectory() {
+        return directory;
+    }
+
+    public Duration getLockTimeout() {
+        return Duration.ofNanos(lockTimeout);
+    }
+
+    public NextableFileRateLimitBackend setLockTimeout(Duration lockTimeout) {
+        this.lockTimeout = lockTimeout.toNanos();
+        return this;
+    }
+
+    @Override
+    public long reserve(String key, double permitsPerSecond, double burst, long maxWaitMicros) {
+        // the key is an api key: do not write it in clear in file names
+        Path file = directory.resolve(UUID.nameUUIDFromBytes(key.getBytes(StandardCharsets.UTF_8)) + ".bucket");
+        Lock lock = locks.computeIfAbsent(file, f -> new ReentrantLock());
+        long deadline = System.nanoTime() + lockTimeout;
+        try {
+            if (!lock.tryLock(lockTimeout, TimeUnit.NANOSECONDS)) return -1;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return -1;
+        }
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+             FileLock fileLock = tryLock(channel, deadline)) {
+            if (fileLock == null) return -1;
+            ByteBuffer buffer = ByteBuffer.allocate(8);
+            long tat = channel.read(buffer, 0) == 8 ? buffer.getLong(0) : 0;
+            long now = System.currentTimeMillis() * 1000;
+            long next = NextableRateLimitBackend.gcra(tat, now, permitsPerSecond, burst, maxWaitMicros);
+            if (next < 0) return -1;
+            buffer.clear();
+            buffer.putLong(next).flip();
+            channel.write(buffer, 0);
+            return Math.max(0, next - (long) (burst * (1_000_000 / permitsPerSecond)) - now);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return the lock of the file, or null if it is still held by another process at the deadline
+     */
+    private static FileLock tryLock(FileChannel channel, long deadline) throws IOException {
+        while (true) {
+            try {
+                FileLock fileLock = channel.tryLock();
+                if (fileLock != null) return fileLock;
+            } catch (OverlappingFileLockException ignored) {
+                // held by another channel of this JVM, not managed by this backend
+            }
+            if (System.nanoTime() - deadline >= 0) return null;
+            LockSupport.parkNanos(LOCK_RETRY_NANOS);
+        }
+    }
+
+}
@@ -0,0 +1,133 @@
+/**
+ * Copyright (C) 2013 Guestful (info@guestful.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.guestful.client.nextable;
+
+import javax.json.JsonObject;
+import javax.json.JsonReader;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * {@link NextableWriteJournal} surviving a restart of the JVM. Changes are appended to a file, one JSON object per
+ * line, and synced to the disk before the write is sent. The file is compacted to the pending writes when opened.
+ * A file must only be used by one journal at a time.
+ * <p>
+ * The file holds the pending reservations in clear text, with the personal data of their guests: name, phone number and
+ * email. It should only be readable by the account running the client: keep it in a directory with permissions
+ * {@code 700} and the file itself with {@code 600}. Compaction rewrites the file as {@code 600} on POSIX file systems;
+ * elsewhere, the access must be restricted on the directory.
+ *
+ * @author Mathieu Carbou (mathieu.carbou@gmail.com)
+ */
+public class NextableFileWriteJournal implements NextableWriteJournal {
+
+    private static final Logger LOGGER = Logger.getLogger(NextableFileWriteJournal.class.getName());
+
+    private final Path file;
+    private final Map<String, NextablePendingWrite> writes = new LinkedHashMap<>();
+
+    public NextableFileWriteJournal(Path file) {
+        this.file = file;
+        try {
+            if (Files.exists(file)) {
+                load();
+            }
+            compact();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    public Path getFile() {
+        return file;
+    }
+
+    @Override
+    public synchronized void add(NextablePendingWrite write) {
+        append(NextableJson.createObjectBuilder().add("add", write.toJson()).build());
+        writes.remove(write.getIdempotencyKey());
+        writes.put(write.getIdempotencyKey(), write);
+    }
+
+    @Override
+    public synchronized void remove(String idempotencyKey) {
+        if (writes.remove(idempotencyKey) != null) {
+            append(NextableJson.createObjectBuilder().add("remove", idempotencyKey).build());
+        }
+    }
+
+    @Override
+    public synchronized List<NextablePendingWrite> getPendingWrites() {
+        return new ArrayList<>(writes.values());
+    }
+
+    private void load() throws IOException {
+        try (BufferedReader lines = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = lines.readLine()) != null) {
+                if (line.isEmpty()) continue;
+                JsonObject change;
+                try (JsonReader reader = NextableJson.createReader(new StringReader(line))) {
+                    change = reader.readObject();
+                } catch (RuntimeException e) {
+                    // the last line may be truncated by a crash while appending: its write was not sent
+                    LOGGER.log(Level.WARNING, "Ignoring bad line of " + file + ": " + line, e);
+                    continue;
+                }
+                if (change.containsKey("add")) {
+                    NextablePendingWrite write = NextablePendingWrite.fromJson(change.getJsonObject("add"));
+                    writes.put(write.getIdempotencyKey(), write);
+                } else if (change.containsKey("remove")) {
+                    writes.remove(change.getString("remove"));
+                }
+            }
+        }
+    }
+
+    private void compact() throws IOException {
+        Path parent = file.toAbsolutePath().getParent();
+        Files.createDirectories(parent);
+        Path tmp = Files.createTempFile(parent, file.getFileName().toString(), ".tmp");
+        StringBuilder content = new StringBuilder();
+        for (NextablePendingWrite write : writes.values()) {
+            content.append(NextableJson.createObjectBuilder().add("add", write.toJson()).build()).append('\n');
+        }
+        Files.write(tmp, content.toString().getBytes(StandardCharsets.UTF_8), StandardOpenOption.DSYNC);
+        Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private void append(JsonObject change) {
+        try {
+            Files.write(file, (change + "\n").getBytes(StandardCharsets.UTF_8), StandardOpenOption.CREATE, StandardOpenOption.APPEND, StandardOpenOption.DSYNC);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+}
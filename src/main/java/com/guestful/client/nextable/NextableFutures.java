@@ -0,0 +1,163 @@
+/**
+ * Copyright (C) 2013 Guestful (info@guestful.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.guestful.client.nextable;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+/**
+ * @author Mathieu Carbou (mathieu.carbou@gmail.com)
+ */
+final class NextableFutures {
+
+    private NextableFutures() {
+    }
+
+    /**
+     * Applies {@code fn} to every item, keeping at most {@code parallelism} stages in flight. Results are returned in
+     * item order. The first failure completes the returned future and stops launching new stages. Cancelling the
+     * returned future cancels the stages in flight.
+     */
+    static <T, R> CompletableFuture<List<R>> mapBounded(List<T> items, int parallelism, Function<? super T, ? extends CompletionStage<R>> fn) {
+        if (parallelism < 1) throw new IllegalArgumentException("Bad parallelism: " + parallelism);
+        if (items.isEmpty()) return CompletableFuture.completedFuture(Collections.emptyList());
+        return new BoundedMap<>(items, parallelism, fn).start();
+    }
+
+    /**
+     * Dependent stages do not pass a cancellation back to the stage they come from: makes cancelling {@code derived}
+     * cancel {@code source} as well.
+     */
+    static <T> CompletableFuture<T> cancelling(CompletableFuture<T> derived, CompletableFuture<?> source) {
+        derived.whenComplete((value, throwable) -> {
+            if (derived.isCancelled()) source.cancel(true);
+        });
+        return derived;
+    }
+
+    /**
+     * Same as {@link #cancelling(CompletableFuture, CompletableFuture)}, and if {@code source} already completed when
+     * {@code derived} is cancelled, its value is handed to {@code discard} since no stage will consume it anymore.
+     */
+    static <S, T> CompletableFuture<T> cancelling(CompletableFuture<T> derived, CompletableFuture<S> source, Consumer<? super S> discard) {
+        derived.whenComplete((value, throwable) -> {
+            if (derived.isCancelled() && !source.cancel(true)) source.thenAccept(discard);
+        });
+        return derived;
+    }
+
+    static <T> T join(CompletableFuture<T> future) {
+        try {
+            return future.join();
+        } catch (CompletionException e) {
+            Throwable cause = unwrap(e);
+            if (cause instanceof RuntimeException) throw (RuntimeException) cause;
+            if (cause instanceof Error) throw (Error) cause;
+            throw e;
+        }
+    }
+
+    static Throwable unwrap(Throwable throwable) {
+        while (throwable instanceof CompletionException && throwable.getCause() != null) {
+            throwable = throwable.getCause();
+        }
+        return throwable;
+    }
+
+    private static final class BoundedMap<T, R> {
+
+        final List<T> items;
+        final int parallelism;
+        final Function<? super T, ? extends CompletionStage<R>> fn;
+        final AtomicReferenceArray<R> results;
+        final AtomicReferenceArray<CompletableFuture<R>> stages;
+        final CompletableFuture<List<R>> result = new CompletableFuture<>();
+        final AtomicInteger inFlight = new AtomicInteger();
+        final AtomicInteger remaining;
+        final AtomicInteger wip = new AtomicInteger();
+        int next;
+
+        BoundedMap(List<T> items, int parallelism, Function<? super T, ? extends CompletionStage<R>> fn) {
+            this.items = items;
+            this.parallelism = parallelism;
+            this.fn = fn;
+            this.results = new AtomicReferenceArray<>(items.size());
+            this.stages = new AtomicReferenceArray<>(items.size());
+            this.remaining = new AtomicInteger(items.size());
+        }
+
+        CompletableFuture<List<R>> start() {
+            result.whenComplete((list, throwable) -> {
+                if (!result.isCancelled()) return;
+                for (int i = 0; i < stages.length(); i++) {
+                    CompletableFuture<R> stage = stages.get(i);
+                    if (stage != null) stage.cancel(true);
+                }
+            });
+            drain();
+            return result;
+        }
+
+        // serialized by wip: stages completing synchronously re-enter here without growing the stack
+        void drain() {
+            if (wip.getAndIncrement() != 0) return;
+            do {
+                while (next < items.size() && inFlight.get() < parallelism && !result.isDone()) {
+                    inFlight.incrementAndGet();
+                    launch(next++);
+                }
+            } while (wip.decrementAndGet() != 0);
+        }
+
+        void launch(int i) {
+            CompletableFuture<R> stage;
+            try {
+                stage = fn.apply(items.get(i)).toCompletableFuture();
+            } catch (RuntimeException | Error e) {
+                result.completeExceptionally(e);
+                return;
+            }
+            stages.set(i, stage);
+            if (result.isCancelled()) stage.cancel(true);
+            stage.whenComplete((r, throwable) -> {
+                if (throwable != null) {
+                    result.completeExceptionally(unwrap(throwable));
+                    return;
+                }
+                results.set(i, r);
+                if (remaining.decrementAndGet() == 0) {
+                    List<R> list = new ArrayList<>(results.length());
+                    for (int j = 0; j < results.length(); j++) {
+                        list.add(results.get(j));
+                    }
+                    result.complete(list);
+                } else {
+                    inFlight.decrementAndGet();
+                    drain();
+                }
+            });
+        }
+    }
+
+}
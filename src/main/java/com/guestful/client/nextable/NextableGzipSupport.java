@@ -0,0 +1,53 @@
+/**
+ * Copyright (C) 2013 Guestful (info@guestful.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.guestful.client.nextable;
+
+import javax.ws.rs.WebApplicationException;
+import javax.ws.rs.client.ClientRequestContext;
+import javax.ws.rs.client.ClientRequestFilter;
+import javax.ws.rs.core.HttpHeaders;
+import javax.ws.rs.ext.ReaderInterceptor;
+import javax.ws.rs.ext.ReaderInterceptorContext;
+import java.io.IOException;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Asks for gzip compressed responses and inflates them, using only the JAX-RS API.
+ *
+ * @author Mathieu Carbou (mathieu.carbou@gmail.com)
+ */
+public class NextableGzipSupport implements ClientRequestFilter, ReaderInterceptor {
+
+    private static final String GZIP = "gzip";
+
+    @Override
+    public void filter(ClientRequestContext requestContext) throws IOException {
+        if (!requestContext.getHeaders().containsKey(HttpHeaders.ACCEPT_ENCODING)) {
+            requestContext.getHeaders().putSingle(HttpHeaders.ACCEPT_ENCODING, GZIP);
+        }
+    }
+
+    @Override
+    public Object aroundReadFrom(ReaderInterceptorContext context) throws IOException, WebApplicationException {
+        String encoding = context.getHeaders().getFirst(HttpHeaders.CONTENT_ENCODING);
+        if (encoding != null && (GZIP.equalsIgnoreCase(encoding.trim()) || "x-gzip".equalsIgnoreCase(encoding.trim()))) {
+            context.getHeaders().remove(HttpHeaders.CONTENT_ENCODING);
+            context.setInputStream(new GZIPInputStream(context.getInputStream()));
+        }
+        return context.proceed();
+    }
+
+}
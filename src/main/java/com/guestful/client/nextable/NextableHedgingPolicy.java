@@ -0,0 +1,157 @@
+/**
+ * Copyright (C) 2013 Guestful (info@guestful.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.guestful.client.nextable;
+
+import java.time.Duration;
+
+/**
+ * Sends a second, identical request when the first one has not answered within a percentile of the recent response
+ * times, and keeps the first response. Only read-only operations are hedged.
+ * <p>
+ * Hedges are paid from a budget credited by {@code hedgeRatio} on each request, so that hedging adds at most this
+ * ratio of requests to the load on Nextable, with bursts up to {@code budgetCapacity}.
+ *
+ * @author Mathieu Carbou (mathieu.carbou@gmail.com)
+ */
+public class NextableHedgingPolicy {
+
+    private static final int MIN_SAMPLES = 20;
+    private static final int REFRESH_SAMPLES = 64;
+
+    private final NextableLatencyHistogram latencies = new NextableLatencyHistogram();
+
+    private volatile double percentile = 95;
+    private volatile long minDelay = Duration.ofMillis(10).toNanos();
+    private volatile long maxDelay = Duration.ofSeconds(1).toNanos();
+    private volatile int windowSize = 1000;
+    private volatile double hedgeRatio = 0.05;
+    private volatile double budgetCapacity = 10;
+
+    private double budget = budgetCapacity;
+    // samples of the current window
+    private long samples;
+    private volatile long delay = maxDelay;
+
+    public double getPercentile() {
+        return percentile;
+    }
+
+    /**
+     * @param percentile response time percentile, between 0 and 100, after which a hedge is sent
+     */
+    public NextableHedgingPolicy setPercentile(double percentile) {
+        if (percentile <= 0 || percentile > 100) throw new IllegalArgumentException("Bad percentile: " + percentile);
+        this.percentile = percentile;
+        return this;
+    }
+
+    public Duration getMinDelay() {
+        return Duration.ofNanos(minDelay);
+    }
+
+    public NextableHedgingPolicy setMinDelay(Duration minDelay) {
+        this.minDelay = minDelay.toNanos();
+        return this;
+    }
+
+    public Duration getMaxDelay() {
+        return Duration.ofNanos(maxDelay);
+    }
+
+    /**
+     * @param maxDelay upper bound of the hedge delay, also used until enough response times are known
+     */
+    public NextableHedgingPolicy setMaxDelay(Duration maxDelay) {
+        this.maxDelay = maxDelay.toNanos();
+        return this;
+    }
+
+    public int getWindowSize() {
+        return windowSize;
+    }
+
+    /**
+     * @param windowSize number of response times after which the percentile is computed again from new ones only
+     */
+    public NextableHedgingPolicy setWindowSize(int windowSize) {
+        if (windowSize < MIN_SAMPLES) throw new IllegalArgumentException("Bad window size: " + windowSize);
+        this.windowSize = windowSize;
+        return this;
+    }
+
+    public double getHedgeRatio() {
+        return hedgeRatio;
+    }
+
+    public NextableHedgingPolicy setHedgeRatio(double hedgeRatio) {
+        if (hedgeRatio < 0) throw new IllegalArgumentException("Bad ratio: " + hedgeRatio);
+        this.hedgeRatio = hedgeRatio;
+        return this;
+    }
+
+    public double getBudgetCapacity() {
+        return budgetCapacity;
+    }
+
+    public synchronized NextableHedgingPolicy setBudgetCapacity(double budgetCapacity) {
+        if (budgetCapacity < 1) throw new IllegalArgumentException("Bad capacity: " + budgetCapacity);
+        this.budgetCapacity = budgetCapacity;
+        this.budget = Math.min(budget, budgetCapacity);
+        return this;
+    }
+
+    /**
+     * @return the current delay after which a request is hedged
+     */
+    public Duration getDelay() {
+        return Duration.ofNanos(delayNanos());
+    }
+
+    long delayNanos() {
+        return Math.max(minDelay, Math.min(maxDelay, delay));
+    }
+
+    synchronized void onRequest() {
+        budget = Math.min(budgetCapacity, budget + hedgeRatio);
+    }
+
+    synchronized boolean tryHedge() {
+        if (budget < 1) return false;
+        budget--;
+        return true;
+    }
+
+    /**
+     * Records the response time of a first request.
+     */
+    void record(long nanos) {
+        latencies.record(nanos);
+        boolean refresh;
+        boolean reset;
+        synchronized (this) {
+            long n = ++samples;
+            refresh = n == MIN_SAMPLES || (n >= MIN_SAMPLES && n % REFRESH_SAMPLES == 0);
+            reset = n >= windowSize;
+            if (reset) samples = 0;
+        }
+        if (refresh || reset) {
+            delay = latencies.getSnapshot().getPercentile(percentile);
+            // start a new window, keeping the delay computed on the previous one meanwhile
+            if (reset) latencies.reset();
+        }
+    }
+
+}
@@ -0,0 +1,184 @@
+/**
+ * Copyright (C) 2013 Guestful (info@guestful.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.guestful.client.nextable;
+
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Keeps counters and latency histograms per operation in memory, to be polled by a monitoring system.
+ *
+ * @author Mathieu Carbou (mathieu.carbou@gmail.com)
+ */
+public class NextableInMemoryMetrics implements NextableMetrics {
+
+    /**
+     * Status under which the failures without any response are counted.
+     */
+    public static final int NO_RESPONSE = 0;
+
+    private final Map<NextableOperation, OperationMetrics> operations = new EnumMap<>(NextableOperation.class);
+
+    public NextableInMemoryMetrics() {
+        for (NextableOperation operation : NextableOperation.values()) {
+            operations.put(operation, new OperationMetrics());
+        }
+    }
+
+    public OperationMetrics get(NextableOperation operation) {
+        return operations.get(operation);
+    }
+
+    public void reset() {
+        operations.values().forEach(OperationMetrics::reset);
+    }
+
+    @Override
+    public void onResponse(NextableOperation operation, int status, long networkNanos) {
+        OperationMetrics metrics = operations.get(operation);
+        metrics.calls.increment();
+        if (status < 200 || status >= 300) metrics.error(status);
+        metrics.networkTime.record(networkNanos);
+    }
+
+    @Override
+    public void onFailure(NextableOperation operation, Throwable failure, long networkNanos) {
+        OperationMetrics metrics = operations.get(operation);
+        metrics.calls.increment();
+        metrics.error(NO_RESPONSE);
+        metrics.networkTime.record(networkNanos);
+    }
+
+    @Override
+    public void onRejected(NextableOperation operation, NextableException e) {
+        operations.get(operation).rejected.increment();
+    }
+
+    @Override
+    public void onHedged(NextableOperation operation) {
+        operations.get(operation).hedged.increment();
+    }
+
+    @Override
+    public void onRead(NextableOperation operation, long nanos) {
+        operations.get(operation).readTime.record(nanos);
+    }
+
+    @Override
+    public void onMapping(NextableOperation operation, long nanos) {
+        operations.get(operation).mappingTime.record(nanos);
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder("NextableInMemoryMetrics{");
+        operations.forEach((operation, metrics) -> sb.append("\n  ").append(operation).append("=").append(metrics));
+        return sb.append("\n}").toString();
+    }
+
+    public static final class OperationMetrics {
+
+        private final LongAdder calls = new LongAdder();
+        private final LongAdder rejected = new LongAdder();
+        private final LongAdder hedged = new LongAdder();
+        private final ConcurrentMap<Integer, LongAdder> errors = new ConcurrentHashMap<>();
+        private final NextableLatencyHistogram networkTime = new NextableLatencyHistogram();
+        private final NextableLatencyHistogram readTime = new NextableLatencyHistogram();
+        private final NextableLatencyHistogram mappingTime = new NextableLatencyHistogram();
+
+        private OperationMetrics() {
+        }
+
+        /**
+         * @return the number of calls sent to Nextable, successful or not, except the ones cancelled before their
+         * outcome, i.e. the slowest request of a hedged call
+         */
+        public long getCalls() {
+            return calls.sum();
+        }
+
+        /**
+         * @return the number of calls rejected on the client side and never sent
+         */
+        public long getRejected() {
+            return rejected.sum();
+        }
+
+        /**
+         * @return the number of hedges sent, also counted in the calls when not cancelled
+         */
+        public long getHedged() {
+            return hedged.sum();
+        }
+
+        /**
+         * @return the number of errors by HTTP status, {@link #NO_RESPONSE} counting the calls without any response
+         */
+        public Map<Integer, Long> getErrors() {
+            Map<Integer, Long> copy = new TreeMap<>();
+            errors.forEach((status, count) -> copy.put(status, count.sum()));
+            return copy;
+        }
+
+        public long getErrorCount() {
+            return errors.values().stream().mapToLong(LongAdder::sum).sum();
+        }
+
+        public NextableLatencyHistogram getNetworkTime() {
+            return networkTime;
+        }
+
+        public NextableLatencyHistogram getReadTime() {
+            return readTime;
+        }
+
+        public NextableLatencyHistogram getMappingTime() {
+            return mappingTime;
+        }
+
+        void error(int status) {
+            errors.computeIfAbsent(status, s -> new LongAdder()).increment();
+        }
+
+        void reset() {
+            calls.reset();
+            rejected.reset();
+            hedged.reset();
+            errors.clear();
+            networkTime.reset();
+            readTime.reset();
+            mappingTime.reset();
+        }
+
+        @Override
+        public String toString() {
+            return "{" +
+                "calls=" + getCalls() +
+                ", rejected=" + getRejected() +
+                ", hedged=" + getHedged() +
+                ", errors=" + getErrors() +
+                ", network=" + networkTime.getSnapshot() +
+                ", read=" + readTime.getSnapshot() +
+                ", mapping=" + mappingTime.getSnapshot() +
+                '}';
+        }
+    }
+
+}
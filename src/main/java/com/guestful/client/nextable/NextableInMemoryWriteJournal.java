@@ -0,0 +1,48 @@
+/**
+ * Copyright (C) 2013 Guestful (info@guestful.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.guestful.client.nextable;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * {@link NextableWriteJournal} kept in memory: covers lost responses and timeouts, but not a restart of the JVM.
+ *
+ * @author Mathieu Carbou (mathieu.carbou@gmail.com)
+ */
+public class NextableInMemoryWriteJournal implements NextableWriteJournal {
+
+    private final Map<String, NextablePendingWrite> writes = new LinkedHashMap<>();
+
+    @Override
+    public synchronized void add(NextablePendingWrite write) {
+        writes.remove(write.getIdempotencyKey());
+        writes.put(write.getIdempotencyKey(), write);
+    }
+
+    @Override
+    public synchronized void remove(String idempotencyKey) {
+        writes.remove(idempotencyKey);
+    }
+
+    @Override
+    public synchronized List<NextablePendingWrite> getPendingWrites() {
+        return new ArrayList<>(writes.values());
+    }
+
+}
@@ -0,0 +1,111 @@
+/**
+ * Copyright (C) 2013 Guestful (info@guestful.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.guestful.client.nextable;
+
+import javax.json.JsonArrayBuilder;
+import javax.json.JsonBuilderFactory;
+import javax.json.JsonObjectBuilder;
+import javax.json.JsonReader;
+import javax.json.JsonReaderFactory;
+import javax.json.spi.JsonProvider;
+import javax.json.stream.JsonGenerator;
+import javax.json.stream.JsonGeneratorFactory;
+import javax.json.stream.JsonParser;
+import javax.json.stream.JsonParserFactory;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.charset.Charset;
+
+/**
+ * JSON-P entry point of the client. Every static method of {@link javax.json.Json} looks up the provider through the
+ * service loader; the provider and its factories are resolved here once and shared by all the threads.
+ *
+ * @author Mathieu Carbou (mathieu.carbou@gmail.com)
+ */
+public final class NextableJson {
+
+    private static volatile Factories factories;
+
+    private NextableJson() {
+    }
+
+    public static JsonProvider getProvider() {
+        return factories().provider;
+    }
+
+    /**
+     * Replaces the provider used by the client, for instance to use a faster implementation than the one found on the
+     * classpath.
+     *
+     * @param provider the provider to use, or null to go back to {@link JsonProvider#provider()}
+     */
+    public static void setProvider(JsonProvider provider) {
+        factories = provider == null ? null : new Factories(provider);
+    }
+
+    static JsonObjectBuilder createObjectBuilder() {
+        return factories().builders.createObjectBuilder();
+    }
+
+    static JsonArrayBuilder createArrayBuilder() {
+        return factories().builders.createArrayBuilder();
+    }
+
+    static JsonReader createReader(Reader reader) {
+        return factories().readers.createReader(reader);
+    }
+
+    static JsonParser createParser(InputStream in) {
+        return factories().parsers.createParser(in);
+    }
+
+    static JsonGenerator createGenerator(OutputStream out, Charset charset) {
+        return factories().generators.createGenerator(out, charset);
+    }
+
+    static JsonGenerator createGenerator(Writer writer) {
+        return factories().generators.createGenerator(writer);
+    }
+
+    private static Factories factories() {
+        Factories f = factories;
+        if (f == null) {
+            // racing threads may both look the provider up, which is harmless
+            factories = f = new Factories(JsonProvider.provider());
+        }
+        return f;
+    }
+
+    private static final class Factories {
+
+        final JsonProvider provider;
+        final JsonBuilderFactory builders;
+        final JsonReaderFactory readers;
+        final JsonParserFactory parsers;
+        final JsonGeneratorFactory generators;
+
+        Factories(JsonProvider provider) {
+            this.provider = provider;
+            this.builders = provider.createBuilderFactory(null);
+            this.readers = provider.createReaderFactory(null);
+            this.parsers = provider.createParserFactory(null);
+            this.generators = provider.createGeneratorFactory(null);
+        }
+    }
+
+}
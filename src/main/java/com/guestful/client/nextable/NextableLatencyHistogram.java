@@ -0,0 +1,149 @@
+/**
+ * Copyright (C) 2013 Guestful (info@guestful.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.guestful.client.nextable;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Lock free log-linear histogram of durations in nanoseconds, in the spirit of HdrHistogram: each power of two range is
+ * split into 16 buckets, so recorded values are kept with a relative error under 1/16 (about 6%), up to 2^40 ns (about
+ * 18 minutes). Larger values are counted in the last bucket.
+ *
+ * @author Mathieu Carbou (mathieu.carbou@gmail.com)
+ */
+public class NextableLatencyHistogram {
+
+    private static final int SUB_BUCKET_BITS = 5;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    private static final int HALF_SUB_BUCKETS = SUB_BUCKETS >> 1;
+    private static final long MAX_VALUE = (1L << 40) - 1;
+    private static final int BUCKETS = index(MAX_VALUE) + 1;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+    private final LongAdder total = new LongAdder();
+    private final LongAccumulator min = new LongAccumulator(Math::min, Long.MAX_VALUE);
+    private final LongAccumulator max = new LongAccumulator(Math::max, 0);
+
+    public void record(long nanos) {
+        long value = Math.min(Math.max(nanos, 0), MAX_VALUE);
+        counts.incrementAndGet(index(value));
+        total.add(value);
+        min.accumulate(value);
+        max.accumulate(value);
+    }
+
+    public void reset() {
+        for (int i = 0; i < BUCKETS; i++) {
+            counts.set(i, 0);
+        }
+        total.reset();
+        min.reset();
+        max.reset();
+    }
+
+    /**
+     * Reads the buckets, total, min and max one after the other, without stopping the writers: under concurrent records,
+     * the copy may hold a value in some of them and not in the others, so its count, mean and extremes are approximate.
+     *
+     * @return a copy of the recorded values, on which percentiles are computed
+     */
+    public Snapshot getSnapshot() {
+        long[] copy = new long[BUCKETS];
+        long count = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            copy[i] = counts.get(i);
+            count += copy[i];
+        }
+        return new Snapshot(copy, count, total.sum(), count == 0 ? 0 : min.get(), max.get());
+    }
+
+    static int index(long value) {
+        if (value < SUB_BUCKETS) return (int) value;
+        int shift = 64 - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS;
+        return shift * HALF_SUB_BUCKETS + (int) (value >>> shift);
+    }
+
+    static long highestValue(int index) {
+        if (index < SUB_BUCKETS) return index;
+        int shift = index / HALF_SUB_BUCKETS - 1;
+        long sub = index - shift * HALF_SUB_BUCKETS;
+        return ((sub + 1) << shift) - 1;
+    }
+
+    public static final class Snapshot {
+
+        private final long[] counts;
+        private final long count;
+        private final long total;
+        private final long min;
+        private final long max;
+
+        private Snapshot(long[] counts, long count, long total, long min, long max) {
+            this.counts = counts;
+            this.count = count;
+            this.total = total;
+            this.min = min;
+            this.max = max;
+        }
+
+        public long getCount() {
+            return count;
+        }
+
+        public long getMin() {
+            return min;
+        }
+
+        public long getMax() {
+            return max;
+        }
+
+        public double getMean() {
+            return count == 0 ? 0 : (double) total / count;
+        }
+
+        /**
+         * @param percentile between 0 and 100
+         * @return the highest value equivalent to the one at the percentile, or 0 if nothing was recorded
+         */
+        public long getPercentile(double percentile) {
+            if (percentile < 0 || percentile > 100) throw new IllegalArgumentException("Bad percentile: " + percentile);
+            if (count == 0) return 0;
+            long rank = Math.max(1, (long) Math.ceil(percentile / 100 * count));
+            long seen = 0;
+            for (int i = 0; i < counts.length; i++) {
+                seen += counts[i];
+                if (seen >= rank) return Math.max(min, Math.min(max, highestValue(i)));
+            }
+            return max;
+        }
+
+        @Override
+        public String toString() {
+            return "Snapshot{" +
+                "count=" + count +
+                ", mean=" + TimeUnit.NANOSECONDS.toMicros((long) getMean()) + "us" +
+                ", p50=" + TimeUnit.NANOSECONDS.toMicros(getPercentile(50)) + "us" +
+                ", p99=" + TimeUnit.NANOSECONDS.toMicros(getPercentile(99)) + "us" +
+                ", max=" + TimeUnit.NANOSECONDS.toMicros(max) + "us" +
+                '}';
+        }
+    }
+
+}
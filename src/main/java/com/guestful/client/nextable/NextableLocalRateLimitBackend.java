@@ -0,0 +1,47 @@
+/**
+ * Copyright (C) 2013 Guestful (info@guestful.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.guestful.client.nextable;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * In-memory {@link NextableRateLimitBackend}, local to the JVM.
+ *
+ * @author Mathieu Carbou (mathieu.carbou@gmail.com)
+ */
+public class NextableLocalRateLimitBackend implements NextableRateLimitBackend {
+
+    private final ConcurrentMap<String, AtomicLong> buckets = new ConcurrentHashMap<>();
+    // System.nanoTime() has an arbitrary origin, possibly negative: times are counted from the creation of the backend
+    private final long origin = System.nanoTime();
+
+    @Override
+    public long reserve(String key, double permitsPerSecond, double burst, long maxWaitMicros) {
+        AtomicLong bucket = buckets.computeIfAbsent(key, k -> new AtomicLong());
+        while (true) {
+            long now = (System.nanoTime() - origin) / 1000;
+            long tat = bucket.get();
+            long next = NextableRateLimitBackend.gcra(tat, now, permitsPerSecond, burst, maxWaitMicros);
+            if (next < 0) return -1;
+            if (bucket.compareAndSet(tat, next)) {
+                return Math.max(0, next - (long) (burst * (1_000_000 / permitsPerSecond)) - now);
+            }
+        }
+    }
+
+}
@@ -0,0 +1,68 @@
+/**
+ * Copyright (C) 2013 Guestful (info@guestful.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.guestful.client.nextable;
+
+/**
+ * Receives the measures of every Nextable call. Callbacks are invoked on the calling or I/O threads and must be fast
+ * and thread safe.
+ *
+ * @author Mathieu Carbou (mathieu.carbou@gmail.com)
+ */
+public interface NextableMetrics {
+
+    NextableMetrics NOOP = new NextableMetrics() {
+    };
+
+    /**
+     * A response was received.
+     *
+     * @param networkNanos time from sending the request to receiving the response status and headers
+     */
+    default void onResponse(NextableOperation operation, int status, long networkNanos) {
+    }
+
+    /**
+     * The call failed without any response (connection error, timeout...).
+     */
+    default void onFailure(NextableOperation operation, Throwable failure, long networkNanos) {
+    }
+
+    /**
+     * The call was not sent because of an open circuit breaker, a rate limiter or a bulkhead.
+     */
+    default void onRejected(NextableOperation operation, NextableException e) {
+    }
+
+    /**
+     * A second request was sent because the first one was slow to answer.
+     */
+    default void onHedged(NextableOperation operation) {
+    }
+
+    /**
+     * Time spent reading and parsing the response body. For availability searches the body is streamed into the
+     * restaurants, so this time includes the mapping.
+     */
+    default void onRead(NextableOperation operation, long nanos) {
+    }
+
+    /**
+     * Time spent mapping the parsed body to the client objects.
+     */
+    default void onMapping(NextableOperation operation, long nanos) {
+    }
+
+}
@@ -0,0 +1,52 @@
+/**
+ * Copyright (C) 2013 Guestful (info@guestful.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.guestful.client.nextable;
+
+/**
+ * @author Mathieu Carbou (mathieu.carbou@gmail.com)
+ */
+public enum NextableOperation {
+
+    GET_RESTAURANT(true, true),
+    GET_RESERVATION(true, true),
+    SEARCH_AVAILABILITIES(true, true),
+    CREATE_RESERVATION(false, false),
+    EDIT_RESERVATION(false, false),
+    CANCEL_RESERVATION(true, false);
+
+    private final boolean idempotent;
+    private final boolean readOnly;
+
+    NextableOperation(boolean idempotent, boolean readOnly) {
+        this.idempotent = idempotent;
+        this.readOnly = readOnly;
+    }
+
+    /**
+     * @return true if sending the request twice has the same effect as sending it once, so that it can be retried
+     */
+    public boolean isIdempotent() {
+        return idempotent;
+    }
+
+    /**
+     * @return true if the request does not change anything on Nextable, so that it can be sent several times concurrently
+     */
+    public boolean isReadOnly() {
+        return readOnly;
+    }
+
+}
@@ -0,0 +1,90 @@
+/**
+ * Copyright (C) 2013 Guestful (info@guestful.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.guestful.client.nextable;
+
+import javax.json.JsonObject;
+import java.time.Instant;
+
+/**
+ * Reservation write sent to Nextable whose outcome is not known yet, as recorded in a {@link NextableWriteJournal}.
+ * Each write has its own idempotency key, so that Nextable only recognizes the replays of this very write.
+ *
+ * @author Mathieu Carbou (mathieu.carbou@gmail.com)
+ */
+public class NextablePendingWrite {
+
+    private final NextableOperation operation;
+    private final String idempotencyKey;
+    private final JsonObject reservation;
+    private final Instant created;
+
+    NextablePendingWrite(NextableOperation operation, String idempotencyKey, NextableReservation reservation) {
+        this(operation, idempotencyKey, reservation.toJson(), Instant.now());
+    }
+
+    private NextablePendingWrite(NextableOperation operation, String idempotencyKey, JsonObject reservation, Instant created) {
+        if (idempotencyKey == null) throw new NullPointerException("idempotencyKey");
+        this.operation = operation;
+        this.idempotencyKey = idempotencyKey;
+        this.reservation = reservation;
+        this.created = created;
+    }
+
+    /**
+     * @return {@link NextableOperation#CREATE_RESERVATION} or {@link NextableOperation#EDIT_RESERVATION}
+     */
+    public NextableOperation getOperation() {
+        return operation;
+    }
+
+    public String getIdempotencyKey() {
+        return idempotencyKey;
+    }
+
+    /**
+     * @return a copy of the reservation as it was sent
+     */
+    public NextableReservation getReservation() {
+        return NextableReservation.fromJson(reservation);
+    }
+
+    public Instant getCreated() {
+        return created;
+    }
+
+    JsonObject toJson() {
+        return NextableJson.createObjectBuilder()
+            .add("operation", operation.name())
+            .add("idempotencyKey", idempotencyKey)
+            .add("created", created.toString())
+            .add("reservation", reservation)
+            .build();
+    }
+
+    static NextablePendingWrite fromJson(JsonObject json) {
+        return new NextablePendingWrite(
+            NextableOperation.valueOf(json.getString("operation")),
+            json.getString("idempotencyKey"),
+            json.getJsonObject("reservation"),
+            Instant.parse(json.getString("created")));
+    }
+
+    @Override
+    public String toString() {
+        return toJson().toString();
+    }
+
+}
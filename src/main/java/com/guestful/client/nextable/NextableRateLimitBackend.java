@@ -0,0 +1,48 @@
+/**
+ * Copyright (C) 2013 Guestful (info@guestful.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.guestful.client.nextable;
+
+/**
+ * Stores the state of the rate limiter buckets. Several JVMs sharing a backend share the same budget per key.
+ *
+ * @author Mathieu Carbou (mathieu.carbou@gmail.com)
+ */
+public interface NextableRateLimitBackend {
+
+    /**
+     * Reserves one permit of the bucket identified by the key, the bucket refilling at {@code permitsPerSecond} up to
+     * {@code burst} permits.
+     *
+     * @param maxWaitMicros the longest wait accepted for the permit
+     * @return the wait in microseconds before using the reserved permit, or -1 if it would exceed {@code maxWaitMicros},
+     * in which case nothing is reserved
+     */
+    long reserve(String key, double permitsPerSecond, double burst, long maxWaitMicros);
+
+    /**
+     * Generic cell rate algorithm shared by the backends: the state of a bucket is its theoretical arrival time, the
+     * time at which it will be full again, in microseconds.
+     *
+     * @return the new theoretical arrival time, or -1 if the permit cannot be reserved
+     */
+    static long gcra(long tat, long now, double permitsPerSecond, double burst, long maxWaitMicros) {
+        long interval = (long) (1_000_000 / permitsPerSecond);
+        long next = Math.max(tat, now) + interval;
+        long wait = next - (long) (burst * interval) - now;
+        return wait > maxWaitMicros ? -1 : next;
+    }
+
+}
@@ -0,0 +1,76 @@
+/**
+ * Copyright (C) 2013 Guestful (info@guestful.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.guestful.client.nextable;
+
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Token bucket rate limiter. A call waits for its permit up to {@code maxWait}, or is rejected at once when
+ * {@code maxWait} is zero.
+ *
+ * @author Mathieu Carbou (mathieu.carbou@gmail.com)
+ */
+public class NextableRateLimiter {
+
+    private final double permitsPerSecond;
+    private final double burst;
+    private final NextableRateLimitBackend backend;
+
+    private volatile long maxWait = Duration.ofSeconds(1).toNanos();
+
+    public NextableRateLimiter(double permitsPerSecond, double burst) {
+        this(permitsPerSecond, burst, new NextableLocalRateLimitBackend());
+    }
+
+    public NextableRateLimiter(double permitsPerSecond, double burst, NextableRateLimitBackend backend) {
+        if (permitsPerSecond <= 0) throw new IllegalArgumentException("Bad rate: " + permitsPerSecond);
+        if (burst < 1) throw new IllegalArgumentException("Bad burst: " + burst);
+        this.permitsPerSecond = permitsPerSecond;
+        this.burst = burst;
+        this.backend = backend;
+    }
+
+    public double getPermitsPerSecond() {
+        return permitsPerSecond;
+    }
+
+    public double getBurst() {
+        return burst;
+    }
+
+    public NextableRateLimitBackend getBackend() {
+        return backend;
+    }
+
+    public Duration getMaxWait() {
+        return Duration.ofNanos(maxWait);
+    }
+
+    public NextableRateLimiter setMaxWait(Duration maxWait) {
+        this.maxWait = maxWait.toNanos();
+        return this;
+    }
+
+    /**
+     * @return the wait in nanoseconds before using the reserved permit, or -1 if the call is rejected
+     */
+    public long reserve(String key) {
+        long wait = backend.reserve(key, permitsPerSecond, burst, TimeUnit.NANOSECONDS.toMicros(maxWait));
+        return wait < 0 ? -1 : TimeUnit.MICROSECONDS.toNanos(wait);
+    }
+
+}
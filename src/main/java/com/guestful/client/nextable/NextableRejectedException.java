@@ -0,0 +1,57 @@
+/**
+ * Copyright (C) 2013 Guestful (info@guestful.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.guestful.client.nextable;
+
+import javax.ws.rs.core.Response;
+
+/**
+ * Thrown without calling Nextable when a call is rejected by the client side rate limiter or bulkhead.
+ *
+ * @author Mathieu Carbou (mathieu.carbou@gmail.com)
+ */
+public class NextableRejectedException extends NextableException {
+
+    private static final long serialVersionUID = 1L;
+
+    private static final Response.StatusType TOO_MANY_REQUESTS = new Response.StatusType() {
+        @Override
+        public int getStatusCode() {
+            return 429;
+        }
+
+        @Override
+        public Response.Status.Family getFamily() {
+            return Response.Status.Family.CLIENT_ERROR;
+        }
+
+        @Override
+        public String getReasonPhrase() {
+            return "Too Many Requests";
+        }
+    };
+
+    private final NextableOperation operation;
+
+    NextableRejectedException(NextableOperation operation, String reason) {
+        super(TOO_MANY_REQUESTS, NextableJson.createObjectBuilder().add("error", operation + " rejected: " + reason).build(), null, null);
+        this.operation = operation;
+    }
+
+    public NextableOperation getOperation() {
+        return operation;
+    }
+
+}
@@ -0,0 +1,111 @@
+/**
+ * Copyright (C) 2013 Guestful (info@guestful.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.guestful.client.nextable;
+
+import javax.json.JsonObject;
+import javax.json.JsonReader;
+import javax.json.stream.JsonGenerator;
+import javax.ws.rs.core.StreamingOutput;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.function.Consumer;
+
+/**
+ * Request entity written field by field to the connection output stream, without building any {@link JsonObject}.
+ * The tree is only built on demand, to log the request or to report it in a {@link NextableException}.
+ *
+ * @author Mathieu Carbou (mathieu.carbou@gmail.com)
+ */
+final class NextableRequestBody implements StreamingOutput {
+
+    private final Consumer<JsonGenerator> fields;
+    private final String apiKey;
+    private final String idempotencyKey;
+
+    /**
+     * @param fields writes the fields of the body object, if any
+     * @param apiKey added to the body object, if not null
+     */
+    NextableRequestBody(Consumer<JsonGenerator> fields, String apiKey) {
+        this(fields, apiKey, null);
+    }
+
+    /**
+     * @param idempotencyKey sent in the {@value NextableClient#IDEMPOTENCY_KEY} header, if not null
+     */
+    NextableRequestBody(Consumer<JsonGenerator> fields, String apiKey, String idempotencyKey) {
+        this.fields = fields;
+        this.apiKey = apiKey;
+        this.idempotencyKey = idempotencyKey;
+    }
+
+    String getIdempotencyKey() {
+        return idempotencyKey;
+    }
+
+    @Override
+    public void write(OutputStream out) {
+        // the entity stream is closed by JAX-RS, but the generator must be closed to release its buffer
+        try (JsonGenerator generator = NextableJson.createGenerator(new NonClosingOutputStream(out), StandardCharsets.UTF_8)) {
+            write(generator);
+        }
+    }
+
+    JsonObject toJson() {
+        Writer writer = new StringWriter();
+        try (JsonGenerator generator = NextableJson.createGenerator(writer)) {
+            write(generator);
+        }
+        try (JsonReader reader = NextableJson.createReader(new StringReader(writer.toString()))) {
+            return reader.readObject();
+        }
+    }
+
+    @Override
+    public String toString() {
+        return toJson().toString();
+    }
+
+    private void write(JsonGenerator generator) {
+        generator.writeStartObject();
+        if (fields != null) fields.accept(generator);
+        if (apiKey != null) generator.write("apiKey", apiKey);
+        generator.writeEnd();
+    }
+
+    private static final class NonClosingOutputStream extends FilterOutputStream {
+
+        NonClosingOutputStream(OutputStream out) {
+            super(out);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+        }
+
+        @Override
+        public void close() throws IOException {
+            out.flush();
+        }
+    }
+
+}
@@ -15,9 +15,9 @@
  */
 package com.guestful.client.nextable;
 
-import javax.json.Json;
 import javax.json.JsonObject;
 import javax.json.JsonObjectBuilder;
+import javax.json.stream.JsonGenerator;
 import java.time.LocalDateTime;
 
 /**
@@ -134,8 +134,24 @@ public class NextableReservation {
         return this;
     }
 
+    /**
+     * Writes the fields of the reservation into the current object of the generator, as {@link #toJson()} would.
+     */
+    public void writeJson(JsonGenerator generator) {
+        if (start != null) generator.write("dateAndTime", start.format(NextableClient.DATE_TIME_FORMATTER));
+        if (email != null) generator.write("email", email);
+        if (firstName != null) generator.write("firstName", firstName);
+        if (lastName != null) generator.write("lastName", lastName);
+        if (phoneNumber != null) generator.write("phone", phoneNumber);
+        if (phoneCode != null) generator.write("phoneCode", phoneCode);
+        if (partySize > 0) generator.write("partySize", partySize);
+        if (restaurantId != null) generator.write("restaurantId", restaurantId);
+        if (specialRequest != null) generator.write("note", specialRequest);
+        if (id != null) generator.write("reservationId", id);
+    }
+
     public JsonObject toJson() {
-        JsonObjectBuilder builder = Json.createObjectBuilder();
+        JsonObjectBuilder builder = NextableJson.createObjectBuilder();
         if (start != null) builder.add("dateAndTime", start.format(NextableClient.DATE_TIME_FORMATTER));
         if (email != null) builder.add("email", email);
         if (firstName != null) builder.add("firstName", firstName);
@@ -149,6 +165,23 @@ public class NextableReservation {
         return builder.build();
     }
 
+    /**
+     * Reads back the result of {@link #toJson()}.
+     */
+    static NextableReservation fromJson(JsonObject json) {
+        return new NextableReservation()
+            .setId(json.getString("reservationId", null))
+            .setRestaurantId(json.getString("restaurantId", null))
+            .setStart(json.containsKey("dateAndTime") ? LocalDateTime.parse(json.getString("dateAndTime"), NextableClient.DATE_TIME_FORMATTER) : null)
+            .setPartySize(json.getInt("partySize", 0))
+            .setSpecialRequest(json.getString("note", null))
+            .setEmail(json.getString("email", null))
+            .setFirstName(json.getString("firstName", null))
+            .setLastName(json.getString("lastName", null))
+            .setPhoneNumber(json.getString("phone", null))
+            .setPhoneCode(json.getString("phoneCode", null));
+    }
+
     @Override
     public String toString() {
         return toJson().toString();
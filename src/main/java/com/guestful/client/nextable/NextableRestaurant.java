@@ -15,7 +15,6 @@
  */
 package com.guestful.client.nextable;
 
-import javax.json.Json;
 import javax.json.JsonArrayBuilder;
 import javax.json.JsonObject;
 import javax.json.JsonObjectBuilder;
@@ -24,6 +23,7 @@ import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.List;
+import java.util.Optional;
 
 /**
  * @author Mathieu Carbou (mathieu.carbou@gmail.com)
@@ -33,6 +33,10 @@ public class NextableRestaurant {
     final String id;
     final ZoneId timeZone;
     private List<NextableDailyAvailability> availabilities;
+    // bumped on any change of the availabilities, days or slots to rebuild the index
+    int modCount;
+    private NextableAvailabilityIndex index;
+    private int indexModCount;
 
     private Duration granularity = Duration.ofMinutes(15);
     private String name;
@@ -187,24 +191,25 @@ public class NextableRestaurant {
         if (availabilities == null) availabilities = new ArrayList<>();
         NextableDailyAvailability availability = new NextableDailyAvailability(this, day);
         availabilities.add(availability);
+        modCount++;
         return availability;
     }
 
     public JsonObject toJson() {
-        JsonObjectBuilder builder = Json.createObjectBuilder()
+        JsonObjectBuilder builder = NextableJson.createObjectBuilder()
             .add("id", id)
             .add("granularity", granularity.toMinutes())
             .add("timeZone", timeZone.getId())
             .add("pricingScale", pricingScale);
 
         if (availabilities != null) {
-            JsonArrayBuilder availabilities = Json.createArrayBuilder();
+            JsonArrayBuilder availabilities = NextableJson.createArrayBuilder();
             this.availabilities.stream().map(NextableDailyAvailability::toJson).forEach(availabilities::add);
             builder.add("availabilities", availabilities);
         }
 
         if (cuisines != null) {
-            JsonArrayBuilder cuisines = Json.createArrayBuilder();
+            JsonArrayBuilder cuisines = NextableJson.createArrayBuilder();
             this.cuisines.forEach(cuisines::add);
             builder.add("cuisines", cuisines);
         }
@@ -227,21 +232,42 @@ public class NextableRestaurant {
     }
 
     public boolean hasAvailability() {
-        return availabilities.stream().filter(NextableDailyAvailability::hasAvailability).findFirst().isPresent();
+        if (availabilities != null) {
+            for (NextableDailyAvailability availability : availabilities) {
+                if (availability.hasAvailability()) return true;
+            }
+        }
+        return false;
+    }
+
+    public boolean hasAvailability(LocalDateTime dateTime, int partySize) {
+        return getAvailabilityIndex().hasAvailability(dateTime, partySize);
+    }
+
+    public Optional<NextableTimeSlot> findFirstAvailability(LocalDateTime dateTime, int partySize) {
+        return getAvailabilityIndex().findFirstAvailability(dateTime, partySize);
     }
 
-    public boolean hasAvailability(final LocalDateTime dateTime, int partySize) {
-        ZonedDateTime zdt = ZonedDateTime.of(dateTime, getTimeZone());
-        final LocalDate day = dateTime.toLocalDate();
-        return availabilities.stream()
-            .filter(a -> a.getDay().equals(day))
-            .flatMap(a -> a.getTimeSlots().stream())
-            .filter(t -> t.getPartySizes().contains(partySize) && (zdt.equals(t.getStart()) || zdt.isAfter(t.getStart()) && zdt.isBefore(t.getEnd())))
-            .findFirst()
-            .isPresent();
+    public List<NextableTimeSlot> getTimeSlots(LocalDateTime from, LocalDateTime to, int partySize) {
+        return getAvailabilityIndex().getTimeSlots(from, to, partySize);
+    }
+
+    public NextableAvailabilityIndex getAvailabilityIndex() {
+        if (index == null || indexModCount != modCount) {
+            index = new NextableAvailabilityIndex(this);
+            indexModCount = modCount;
+        }
+        return index;
+    }
+
+    void clearAvailabilities() {
+        if (availabilities != null && !availabilities.isEmpty()) {
+            availabilities.clear();
+            modCount++;
+        }
     }
 
     void removeAvailabilities(NextableDailyAvailability availability) {
-        if (availabilities != null) availabilities.remove(availability);
+        if (availabilities != null && availabilities.remove(availability)) modCount++;
     }
 }
@@ -0,0 +1,41 @@
+/**
+ * Copyright (C) 2013 Guestful (info@guestful.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.guestful.client.nextable;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Function;
+
+/**
+ * Cache consulted by {@link NextableClient#getRestaurant(String)} when set with
+ * {@link NextableClient#setRestaurantCache(NextableRestaurantCache)}. Restaurants returned from the cache are shared
+ * between callers and must not be modified.
+ *
+ * @author Mathieu Carbou (mathieu.carbou@gmail.com)
+ */
+public interface NextableRestaurantCache {
+
+    /**
+     * @param loader fetches the restaurant from Nextable, bypassing the cache
+     */
+    CompletableFuture<NextableRestaurant> get(String restaurantId, Function<String, CompletableFuture<NextableRestaurant>> loader);
+
+    void invalidate(String restaurantId);
+
+    void invalidateAll();
+
+    NextableCacheStats getStats();
+
+}
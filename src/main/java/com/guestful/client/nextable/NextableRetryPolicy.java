@@ -0,0 +1,151 @@
+/**
+ * Copyright (C) 2013 Guestful (info@guestful.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.guestful.client.nextable;
+
+import javax.ws.rs.ProcessingException;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Retry policy of idempotent operations: exponential backoff with full jitter, retryable status codes and a retry
+ * budget. Each request deposits {@code budgetRatio} tokens in the budget (up to {@code budgetCapacity}) and each retry
+ * takes one, so that retries stay a bounded fraction of the traffic when Nextable is down.
+ *
+ * @author Mathieu Carbou (mathieu.carbou@gmail.com)
+ */
+public class NextableRetryPolicy {
+
+    private final Set<Integer> retryableStatusCodes = new HashSet<>(Arrays.asList(408, 429, 500, 502, 503, 504));
+
+    private volatile int maxAttempts = 3;
+    private volatile long baseDelay = Duration.ofMillis(100).toNanos();
+    private volatile long maxDelay = Duration.ofSeconds(2).toNanos();
+    private volatile boolean retryOnProcessingError = true;
+    private volatile double budgetRatio = 0.2;
+    private volatile double budgetCapacity = 10;
+
+    private double budget = budgetCapacity;
+
+    public int getMaxAttempts() {
+        return maxAttempts;
+    }
+
+    /**
+     * @param maxAttempts total number of attempts, including the first one
+     */
+    public NextableRetryPolicy setMaxAttempts(int maxAttempts) {
+        if (maxAttempts < 1) throw new IllegalArgumentException("Bad attempt count: " + maxAttempts);
+        this.maxAttempts = maxAttempts;
+        return this;
+    }
+
+    public Duration getBaseDelay() {
+        return Duration.ofNanos(baseDelay);
+    }
+
+    public NextableRetryPolicy setBaseDelay(Duration baseDelay) {
+        if (baseDelay.isNegative()) throw new IllegalArgumentException("Bad delay: " + baseDelay);
+        this.baseDelay = baseDelay.toNanos();
+        return this;
+    }
+
+    public Duration getMaxDelay() {
+        return Duration.ofNanos(maxDelay);
+    }
+
+    public NextableRetryPolicy setMaxDelay(Duration maxDelay) {
+        if (maxDelay.isNegative()) throw new IllegalArgumentException("Bad delay: " + maxDelay);
+        this.maxDelay = maxDelay.toNanos();
+        return this;
+    }
+
+    public synchronized Set<Integer> getRetryableStatusCodes() {
+        return new HashSet<>(retryableStatusCodes);
+    }
+
+    public synchronized NextableRetryPolicy setRetryableStatusCodes(Collection<Integer> statusCodes) {
+        retryableStatusCodes.clear();
+        retryableStatusCodes.addAll(statusCodes);
+        return this;
+    }
+
+    public boolean isRetryOnProcessingError() {
+        return retryOnProcessingError;
+    }
+
+    /**
+     * @param retryOnProcessingError whether connection errors, timeouts and other transport failures are retried
+     */
+    public NextableRetryPolicy setRetryOnProcessingError(boolean retryOnProcessingError) {
+        this.retryOnProcessingError = retryOnProcessingError;
+        return this;
+    }
+
+    public double getBudgetRatio() {
+        return budgetRatio;
+    }
+
+    public NextableRetryPolicy setBudgetRatio(double budgetRatio) {
+        if (budgetRatio < 0) throw new IllegalArgumentException("Bad budget ratio: " + budgetRatio);
+        this.budgetRatio = budgetRatio;
+        return this;
+    }
+
+    public double getBudgetCapacity() {
+        return budgetCapacity;
+    }
+
+    public synchronized NextableRetryPolicy setBudgetCapacity(double budgetCapacity) {
+        if (budgetCapacity < 1) throw new IllegalArgumentException("Bad budget capacity: " + budgetCapacity);
+        this.budgetCapacity = budgetCapacity;
+        this.budget = Math.min(budget, budgetCapacity);
+        return this;
+    }
+
+    public synchronized boolean isRetryable(Throwable failure) {
+        if (failure instanceof NextableCircuitOpenException || failure instanceof NextableRejectedException) {
+            return false;
+        }
+        if (failure instanceof NextableException) {
+            return retryableStatusCodes.contains(((NextableException) failure).getStatusType().getStatusCode());
+        }
+        return failure instanceof ProcessingException && retryOnProcessingError;
+    }
+
+    synchronized void onRequest() {
+        budget = Math.min(budgetCapacity, budget + budgetRatio);
+    }
+
+    /**
+     * @return the delay in nanoseconds before the next attempt, or -1 if the failure must not be retried
+     */
+    synchronized long nextDelay(int attempt, Throwable failure) {
+        if (attempt >= maxAttempts || !isRetryable(failure) || budget < 1) return -1;
+        budget--;
+        long max = maxDelay;
+        long cap = Math.min(baseDelay, max);
+        for (int i = 1; i < attempt && cap < max; i++) {
+            // doubled without overflowing
+            cap = cap > max / 2 ? max : cap * 2;
+        }
+        return ThreadLocalRandom.current().nextLong(cap == Long.MAX_VALUE ? cap : cap + 1);
+    }
+
+}
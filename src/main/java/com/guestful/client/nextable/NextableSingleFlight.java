@@ -0,0 +1,145 @@
+/**
+ * Copyright (C) 2013 Guestful (info@guestful.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.guestful.client.nextable;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+/**
+ * Deduplicates concurrent calls sharing the same key: while a call is in flight, callers asking for the same key wait
+ * for it and receive the same result (or failure) instead of starting their own.
+ * <p>
+ * Each async caller gets its own future: cancelling it only gives up this caller, and the shared call is cancelled
+ * once all its callers gave up.
+ *
+ * @author Mathieu Carbou (mathieu.carbou@gmail.com)
+ */
+public class NextableSingleFlight<K, V> {
+
+    private final ConcurrentMap<K, Flight<V>> inFlight = new ConcurrentHashMap<>();
+
+    public V execute(K key, Supplier<V> call) {
+        for (; ; ) {
+            Flight<V> flight = new Flight<>();
+            Flight<V> running = inFlight.putIfAbsent(key, flight);
+            if (running != null) {
+                CompletableFuture<V> joined = running.join();
+                if (joined != null) return NextableFutures.join(joined);
+                // given up by all its callers: start a new one
+                inFlight.remove(key, running);
+                continue;
+            }
+            // the leader is counted as a caller which never gives up
+            flight.join();
+            try {
+                V value = call.get();
+                flight.result.complete(value);
+                return value;
+            } catch (RuntimeException | Error e) {
+                flight.result.completeExceptionally(e);
+                throw e;
+            } finally {
+                inFlight.remove(key, flight);
+            }
+        }
+    }
+
+    public CompletableFuture<V> executeAsync(K key, Supplier<? extends CompletableFuture<V>> call) {
+        for (; ; ) {
+            Flight<V> flight = new Flight<>();
+            Flight<V> running = inFlight.putIfAbsent(key, flight);
+            if (running != null) {
+                CompletableFuture<V> joined = running.join();
+                if (joined != null) return joined;
+                inFlight.remove(key, running);
+                continue;
+            }
+            CompletableFuture<V> mine = flight.join();
+            CompletableFuture<V> started;
+            try {
+                started = call.get();
+            } catch (RuntimeException | Error e) {
+                started = new CompletableFuture<>();
+                started.completeExceptionally(e);
+            }
+            started.whenComplete((value, throwable) -> {
+                inFlight.remove(key, flight);
+                if (throwable == null) {
+                    flight.result.complete(value);
+                } else {
+                    flight.result.completeExceptionally(NextableFutures.unwrap(throwable));
+                }
+            });
+            flight.started(started);
+            return mine;
+        }
+    }
+
+    /**
+     * Lets the next call for the key start a new flight, i.e. once the value in flight is known to be outdated. The
+     * callers of the current flight still get its result.
+     */
+    public void forget(K key) {
+        inFlight.remove(key);
+    }
+
+    public int size() {
+        return inFlight.size();
+    }
+
+    private static final class Flight<V> {
+
+        final CompletableFuture<V> result = new CompletableFuture<>();
+        private CompletableFuture<V> call;
+        private int callers;
+        private boolean abandoned;
+
+        /**
+         * @return a future of the result for a new caller, or null if the flight was given up
+         */
+        synchronized CompletableFuture<V> join() {
+            if (abandoned) return null;
+            callers++;
+            CompletableFuture<V> caller = result.thenApply(Function.identity());
+            caller.whenComplete((value, throwable) -> {
+                if (caller.isCancelled()) leave();
+            });
+            return caller;
+        }
+
+        void started(CompletableFuture<V> call) {
+            synchronized (this) {
+                this.call = call;
+                if (!abandoned) return;
+            }
+            call.cancel(true);
+        }
+
+        private void leave() {
+            CompletableFuture<V> c;
+            synchronized (this) {
+                if (--callers > 0 || result.isDone()) return;
+                abandoned = true;
+                c = call;
+            }
+            if (c != null) c.cancel(true);
+        }
+    }
+
+}
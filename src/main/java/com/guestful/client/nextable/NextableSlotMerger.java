@@ -0,0 +1,208 @@
+/**
+ * Copyright (C) 2013 Guestful (info@guestful.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.guestful.client.nextable;
+
+import java.time.Duration;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Builds the time slots of a restaurant by absorbing slots one by one, merging each one into the previous slot when it
+ * starts where the previous one ends and accepts the same party sizes. Merged slots may span midnight: they then belong
+ * to the day they start.
+ * <p>
+ * Slots received in chronological order, within a response or from successive pages or responses, are merged in
+ * constant time each. A slot starting before the end of the last one is absorbed by re-merging the whole restaurant,
+ * the latest slot received for a given time replacing the previous one: this is correct but slower, so callers should
+ * feed slots in order when they can.
+ *
+ * @author Mathieu Carbou (mathieu.carbou@gmail.com)
+ */
+public class NextableSlotMerger {
+
+    private final NextableRestaurant restaurant;
+
+    // last slot of the restaurant, extended in place by the next adjacent slot
+    private NextableTimeSlot tail;
+    private LocalDateTime tailEnd;
+
+    /**
+     * @param restaurant the restaurant receiving the slots, which may already have some
+     */
+    public NextableSlotMerger(NextableRestaurant restaurant) {
+        this.restaurant = restaurant;
+        for (NextableDailyAvailability availability : restaurant.getAvailabilities()) {
+            for (NextableTimeSlot slot : availability.getTimeSlots()) {
+                LocalDateTime end = start(slot).plus(slot.getDuration());
+                if (tailEnd == null || !end.isBefore(tailEnd)) {
+                    tail = slot;
+                    tailEnd = end;
+                }
+            }
+        }
+    }
+
+    public NextableRestaurant getRestaurant() {
+        return restaurant;
+    }
+
+    /**
+     * Absorbs a slot of the restaurant granularity. A slot without party sizes makes the time unavailable.
+     */
+    public NextableSlotMerger add(LocalDateTime start, Collection<Integer> partySizes) {
+        long mask = 0;
+        for (int n : partySizes) {
+            if (n < 1 || n > NextableTimeSlot.MAX_PARTY_SIZE) throw new IllegalArgumentException("Bad party size: " + n);
+            mask |= 1L << n;
+        }
+        add(start, restaurant.getGranularity(), mask);
+        return this;
+    }
+
+    /**
+     * Absorbs all the slots of another instance of the same restaurant, for instance received in a later page.
+     */
+    public NextableSlotMerger addAll(NextableRestaurant other) {
+        List<Range> slots = new ArrayList<>();
+        for (NextableDailyAvailability availability : other.getAvailabilities()) {
+            for (NextableTimeSlot slot : availability.getTimeSlots()) {
+                slots.add(new Range(start(slot), slot.getDuration(), slot.partySizes));
+            }
+        }
+        slots.sort((a, b) -> a.start.compareTo(b.start));
+        if (!slots.isEmpty() && !inOrder(slots.get(0).start)) {
+            remerge(slots);
+        } else {
+            for (Range slot : slots) {
+                append(slot.start, slot.duration, slot.partySizes);
+            }
+        }
+        return this;
+    }
+
+    /**
+     * Splits back every slot of the restaurant into slots of the restaurant granularity. Parts of a slot after
+     * midnight go to the next day. Slots added afterwards are still merged.
+     */
+    public NextableSlotMerger split() {
+        Duration granularity = restaurant.getGranularity();
+        List<Range> granules = new ArrayList<>();
+        for (NextableDailyAvailability availability : restaurant.getAvailabilities()) {
+            for (NextableTimeSlot slot : availability.getTimeSlots()) {
+                LocalDateTime end = start(slot).plus(slot.getDuration());
+                for (LocalDateTime t = start(slot); t.isBefore(end); t = t.plus(granularity)) {
+                    granules.add(new Range(t, granularity, slot.partySizes));
+                }
+            }
+        }
+        granules.sort((a, b) -> a.start.compareTo(b.start));
+        reset();
+        for (Range granule : granules) {
+            LocalDate day = granule.start.toLocalDate();
+            tail = availability(day).addTimeSlot(granule.start.toLocalTime()).setPartySizeMask(granule.partySizes);
+            tailEnd = granule.start.plus(granularity);
+        }
+        return this;
+    }
+
+    void add(LocalDateTime start, Duration duration, long partySizes) {
+        if (inOrder(start)) {
+            append(start, duration, partySizes);
+        } else {
+            List<Range> slots = new ArrayList<>(1);
+            slots.add(new Range(start, duration, partySizes));
+            remerge(slots);
+        }
+    }
+
+    private boolean inOrder(LocalDateTime start) {
+        if (tailEnd != null && start.isBefore(tailEnd)) return false;
+        // days are kept sorted: a slot of a day before the last one, even if empty, needs a re-merge
+        List<NextableDailyAvailability> days = restaurant.getAvailabilities();
+        return days.isEmpty() || !start.toLocalDate().isBefore(days.get(days.size() - 1).getDay());
+    }
+
+    private void append(LocalDateTime start, Duration duration, long partySizes) {
+        if (partySizes == 0) return;
+        if (tail != null && start.equals(tailEnd) && tail.partySizes == partySizes) {
+            tail.setDuration(tail.getDuration().plus(duration));
+        } else {
+            tail = availability(start.toLocalDate()).addTimeSlot(start.toLocalTime()).setPartySizeMask(partySizes);
+            if (!duration.equals(restaurant.getGranularity())) tail.setDuration(duration);
+        }
+        tailEnd = start.plus(duration);
+    }
+
+    // returns the last day if it is the requested one, or appends it
+    private NextableDailyAvailability availability(LocalDate day) {
+        List<NextableDailyAvailability> days = restaurant.getAvailabilities();
+        NextableDailyAvailability last = days.isEmpty() ? null : days.get(days.size() - 1);
+        return last != null && last.getDay().equals(day) ? last : restaurant.addAvailability(day);
+    }
+
+    // slow path: cuts all the slots into granules, the new ones overriding the existing ones, and merges them again
+    private void remerge(List<Range> slots) {
+        Duration granularity = restaurant.getGranularity();
+        Map<LocalDateTime, Long> granules = new TreeMap<>();
+        for (NextableDailyAvailability availability : restaurant.getAvailabilities()) {
+            for (NextableTimeSlot slot : availability.getTimeSlots()) {
+                cut(granules, start(slot), slot.getDuration(), slot.partySizes, granularity);
+            }
+        }
+        for (Range slot : slots) {
+            cut(granules, slot.start, slot.duration, slot.partySizes, granularity);
+        }
+        reset();
+        for (Map.Entry<LocalDateTime, Long> granule : granules.entrySet()) {
+            append(granule.getKey(), granularity, granule.getValue());
+        }
+    }
+
+    private void reset() {
+        restaurant.clearAvailabilities();
+        tail = null;
+        tailEnd = null;
+    }
+
+    private static void cut(Map<LocalDateTime, Long> granules, LocalDateTime start, Duration duration, long partySizes, Duration granularity) {
+        LocalDateTime end = start.plus(duration);
+        for (LocalDateTime t = start; t.isBefore(end); t = t.plus(granularity)) {
+            granules.put(t, partySizes);
+        }
+    }
+
+    private static LocalDateTime start(NextableTimeSlot slot) {
+        return LocalDateTime.of(slot.availability.day, slot.getStartTime());
+    }
+
+    private static final class Range {
+        final LocalDateTime start;
+        final Duration duration;
+        final long partySizes;
+
+        Range(LocalDateTime start, Duration duration, long partySizes) {
+            this.start = start;
+            this.duration = duration;
+            this.partySizes = partySizes;
+        }
+    }
+
+}
@@ -15,23 +15,34 @@
  */
 package com.guestful.client.nextable;
 
-import javax.json.Json;
 import javax.json.JsonArrayBuilder;
 import javax.json.JsonObject;
 import java.time.Duration;
 import java.time.LocalTime;
 import java.time.ZonedDateTime;
-import java.util.ArrayList;
-import java.util.Collections;
+import java.util.AbstractList;
 import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Objects;
+import java.util.RandomAccess;
+import java.util.TreeSet;
 
 /**
+ * Party sizes from 1 to {@link #MAX_PARTY_SIZE} are held in a bit mask, which is what slot merging, indexes and
+ * snapshots work on. Other sizes added with {@link #addPartySize(int)} are kept aside and only seen by the accessors of
+ * this class; the availability responses of Nextable are read within the mask and the sizes outside of it are logged.
+ *
  * @author Mathieu Carbou (mathieu.carbou@gmail.com)
  */
 public class NextableTimeSlot {
 
+    public static final int MAX_PARTY_SIZE = 63;
+
     final NextableDailyAvailability availability;
-    final List<Integer> partySizes = new ArrayList<>();
+    // bit n is set when party size n is accepted
+    long partySizes;
+    // accepted party sizes out of the mask, rarely any
+    private TreeSet<Integer> otherPartySizes;
 
     private ZonedDateTime start;
     private Duration duration;
@@ -52,6 +63,7 @@ public class NextableTimeSlot {
 
     public NextableTimeSlot setStartTime(LocalTime startTime) {
         this.start = ZonedDateTime.of(availability.day, startTime, availability.restaurant.timeZone);
+        availability.restaurant.modCount++;
         return this;
     }
 
@@ -71,42 +83,76 @@ public class NextableTimeSlot {
         return duration;
     }
 
+    NextableTimeSlot setDuration(Duration duration) {
+        this.duration = duration;
+        availability.restaurant.modCount++;
+        return this;
+    }
+
+    /**
+     * @return a read-only, sorted view of the accepted party sizes
+     */
     public List<Integer> getPartySizes() {
-        return partySizes;
+        return new PartySizes();
+    }
+
+    public boolean hasPartySize(int n) {
+        if (inMask(n)) return (partySizes & (1L << n)) != 0;
+        return otherPartySizes != null && otherPartySizes.contains(n);
     }
 
     public int getMinPartySize() {
-        return partySizes.get(0);
+        if (otherPartySizes != null && otherPartySizes.first() < 1) return otherPartySizes.first();
+        if (partySizes != 0) return Long.numberOfTrailingZeros(partySizes);
+        if (otherPartySizes != null) return otherPartySizes.first();
+        throw new NoSuchElementException();
     }
 
     public int getMaxPartySize() {
-        return partySizes.get(partySizes.size() - 1);
+        if (otherPartySizes != null && otherPartySizes.last() > MAX_PARTY_SIZE) return otherPartySizes.last();
+        if (partySizes != 0) return 63 - Long.numberOfLeadingZeros(partySizes);
+        if (otherPartySizes != null) return otherPartySizes.last();
+        throw new NoSuchElementException();
     }
 
     public void addPartySize(int n) {
-        if (!partySizes.contains(n)) {
-            partySizes.add(n);
-            Collections.sort(partySizes);
+        if (inMask(n)) {
+            partySizes |= 1L << n;
+        } else {
+            if (otherPartySizes == null) otherPartySizes = new TreeSet<>();
+            otherPartySizes.add(n);
         }
+        availability.restaurant.modCount++;
+    }
+
+    long getPartySizeMask() {
+        return partySizes;
+    }
+
+    NextableTimeSlot setPartySizeMask(long partySizes) {
+        this.partySizes = partySizes;
+        availability.restaurant.modCount++;
+        return this;
     }
 
     public NextableTimeSlot expand() {
         this.duration = this.duration.plus(availability.getRestaurant().getGranularity());
+        availability.restaurant.modCount++;
         return this;
     }
 
     public boolean hasSameProperties(NextableTimeSlot slot) {
-        return partySizes.equals(slot.partySizes);
+        return partySizes == slot.partySizes && Objects.equals(otherPartySizes, slot.otherPartySizes);
     }
 
     public void remove() {
-        availability.timeSlots.remove(this);
+        if (availability.timeSlots.remove(this)) availability.restaurant.modCount++;
     }
 
     public JsonObject toJson() {
-        JsonArrayBuilder sizes = Json.createArrayBuilder();
-        partySizes.forEach(sizes::add);
-        return Json.createObjectBuilder()
+        JsonArrayBuilder sizes = NextableJson.createArrayBuilder();
+        getPartySizes().forEach(sizes::add);
+        return NextableJson.createObjectBuilder()
             .add("start", getStartTime().toString())
             .add("duration", duration.toMinutes())
             .add("end", getEndTime().toString())
@@ -121,9 +167,47 @@ public class NextableTimeSlot {
 
     public NextableTimeSlot copy() {
         NextableTimeSlot ts = new NextableTimeSlot(availability, getStartTime());
-        ts.partySizes.addAll(this.partySizes);
+        ts.partySizes = this.partySizes;
+        if (otherPartySizes != null) ts.otherPartySizes = new TreeSet<>(otherPartySizes);
         ts.duration = this.duration;
         return ts;
     }
 
+    private static boolean inMask(int n) {
+        return n >= 1 && n <= MAX_PARTY_SIZE;
+    }
+
+    private static int nth(long mask, int index) {
+        for (int i = 0; i < index; i++) {
+            mask &= mask - 1;
+        }
+        return Long.numberOfTrailingZeros(mask);
+    }
+
+    private final class PartySizes extends AbstractList<Integer> implements RandomAccess {
+
+        @Override
+        public Integer get(int index) {
+            if (index < 0 || index >= size()) throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size());
+            if (otherPartySizes == null) return nth(partySizes, index);
+            // sizes below the mask, then the mask, then the sizes above it
+            int below = otherPartySizes.headSet(1).size();
+            if (index < below) return otherPartySizes.headSet(1).toArray(new Integer[below])[index];
+            index -= below;
+            if (index < Long.bitCount(partySizes)) return nth(partySizes, index);
+            index -= Long.bitCount(partySizes);
+            return otherPartySizes.tailSet(MAX_PARTY_SIZE, false).toArray(new Integer[0])[index];
+        }
+
+        @Override
+        public int size() {
+            return Long.bitCount(partySizes) + (otherPartySizes == null ? 0 : otherPartySizes.size());
+        }
+
+        @Override
+        public boolean contains(Object o) {
+            return o instanceof Integer && hasPartySize((Integer) o);
+        }
+    }
+
 }
@@ -0,0 +1,173 @@
+/**
+ * Copyright (C) 2013 Guestful (info@guestful.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.guestful.client.nextable;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+
+/**
+ * Size bounded LRU {@link NextableRestaurantCache}. Entries are fresh for {@code timeToLive}, then served stale for
+ * {@code staleWhileRevalidate} while a single background reload runs. Concurrent misses on the same restaurant share
+ * one request. A load running while its restaurant is invalidated still answers its callers but is not cached.
+ *
+ * @author Mathieu Carbou (mathieu.carbou@gmail.com)
+ */
+public class NextableTtlRestaurantCache implements NextableRestaurantCache {
+
+    private final Map<String, Cached> entries = new LinkedHashMap<String, Cached>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Cached> eldest) {
+            if (size() > maximumSize) {
+                evictions.incrementAndGet();
+                return true;
+            }
+            return false;
+        }
+    };
+    private final NextableSingleFlight<String, NextableRestaurant> loading = new NextableSingleFlight<>();
+    // version of the load allowed to store its restaurant, dropped by the invalidations. Guarded by entries.
+    private final Map<String, Long> loadVersions = new HashMap<>();
+    private final AtomicLong versions = new AtomicLong();
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong staleHits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+    private final AtomicLong loadFailures = new AtomicLong();
+
+    private volatile int maximumSize = 1000;
+    private volatile long timeToLive = Duration.ofHours(1).toNanos();
+    private volatile long staleWhileRevalidate = Duration.ofDays(1).toNanos();
+
+    public int getMaximumSize() {
+        return maximumSize;
+    }
+
+    public NextableTtlRestaurantCache setMaximumSize(int maximumSize) {
+        if (maximumSize < 1) throw new IllegalArgumentException("Bad maximum size: " + maximumSize);
+        this.maximumSize = maximumSize;
+        return this;
+    }
+
+    public Duration getTimeToLive() {
+        return Duration.ofNanos(timeToLive);
+    }
+
+    public NextableTtlRestaurantCache setTimeToLive(Duration timeToLive) {
+        if (timeToLive.isNegative()) throw new IllegalArgumentException("Bad time to live: " + timeToLive);
+        this.timeToLive = timeToLive.toNanos();
+        return this;
+    }
+
+    public Duration getStaleWhileRevalidate() {
+        return Duration.ofNanos(staleWhileRevalidate);
+    }
+
+    public NextableTtlRestaurantCache setStaleWhileRevalidate(Duration staleWhileRevalidate) {
+        if (staleWhileRevalidate.isNegative()) throw new IllegalArgumentException("Bad stale duration: " + staleWhileRevalidate);
+        this.staleWhileRevalidate = staleWhileRevalidate.toNanos();
+        return this;
+    }
+
+    @Override
+    public CompletableFuture<NextableRestaurant> get(String restaurantId, Function<String, CompletableFuture<NextableRestaurant>> loader) {
+        Cached entry;
+        synchronized (entries) {
+            entry = entries.get(restaurantId);
+        }
+        if (entry != null) {
+            long age = System.nanoTime() - entry.loadedAt;
+            if (age < timeToLive) {
+                hits.incrementAndGet();
+                return CompletableFuture.completedFuture(entry.restaurant);
+            }
+            if (age < timeToLive + staleWhileRevalidate) {
+                staleHits.incrementAndGet();
+                load(restaurantId, loader);
+                return CompletableFuture.completedFuture(entry.restaurant);
+            }
+        }
+        misses.incrementAndGet();
+        return load(restaurantId, loader);
+    }
+
+    @Override
+    public void invalidate(String restaurantId) {
+        synchronized (entries) {
+            entries.remove(restaurantId);
+            loadVersions.remove(restaurantId);
+        }
+        loading.forget(restaurantId);
+    }
+
+    @Override
+    public void invalidateAll() {
+        List<String> loads;
+        synchronized (entries) {
+            entries.clear();
+            loads = new ArrayList<>(loadVersions.keySet());
+            loadVersions.clear();
+        }
+        loads.forEach(loading::forget);
+    }
+
+    public int size() {
+        synchronized (entries) {
+            return entries.size();
+        }
+    }
+
+    @Override
+    public NextableCacheStats getStats() {
+        return new NextableCacheStats(hits.get(), staleHits.get(), misses.get(), evictions.get(), loadFailures.get());
+    }
+
+    private CompletableFuture<NextableRestaurant> load(String restaurantId, Function<String, CompletableFuture<NextableRestaurant>> loader) {
+        return loading.executeAsync(restaurantId, () -> {
+            Long version = versions.incrementAndGet();
+            synchronized (entries) {
+                loadVersions.put(restaurantId, version);
+            }
+            return loader.apply(restaurantId).whenComplete((restaurant, throwable) -> {
+                synchronized (entries) {
+                    // not stored if invalidated meanwhile
+                    if (loadVersions.remove(restaurantId, version) && throwable == null) {
+                        entries.put(restaurantId, new Cached(restaurant, System.nanoTime()));
+                    }
+                }
+                if (throwable != null) loadFailures.incrementAndGet();
+            });
+        });
+    }
+
+    private static final class Cached {
+        final NextableRestaurant restaurant;
+        final long loadedAt;
+
+        Cached(NextableRestaurant restaurant, long loadedAt) {
+            this.restaurant = restaurant;
+            this.loadedAt = loadedAt;
+        }
+    }
+
+}
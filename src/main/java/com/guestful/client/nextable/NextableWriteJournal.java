@@ -0,0 +1,45 @@
+/**
+ * Copyright (C) 2013 Guestful (info@guestful.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.guestful.client.nextable;
+
+import java.util.List;
+
+/**
+ * Records the reservation writes sent to Nextable until their outcome is known, so that a write interrupted after
+ * Nextable may have applied it (lost connection, timeout, 5xx) can be resolved later with
+ * {@link NextableClient#reconcile()} instead of being blindly sent again. Set with
+ * {@link NextableClient#setWriteJournal(NextableWriteJournal)}.
+ *
+ * @author Mathieu Carbou (mathieu.carbou@gmail.com)
+ */
+public interface NextableWriteJournal {
+
+    /**
+     * Called before sending the write. Replaces any write with the same idempotency key.
+     */
+    void add(NextablePendingWrite write);
+
+    /**
+     * Called once Nextable confirmed the write, or refused it.
+     */
+    void remove(String idempotencyKey);
+
+    /**
+     * @return the writes with an unknown outcome, oldest first
+     */
+    List<NextablePendingWrite> getPendingWrites();
+
+}
@@ -0,0 +1,181 @@
+/**
+ * Copyright (C) 2013 Guestful (info@guestful.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.guestful.client.nextable;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import javax.ws.rs.client.ClientBuilder;
+import java.time.Duration;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.stream.Collectors;
+
+import static org.junit.Assert.*;
+
+/**
+ * @author Mathieu Carbou (mathieu.carbou@gmail.com)
+ */
+@RunWith(JUnit4.class)
+public class NextableAvailabilityCacheTest {
+
+    private static final LocalDate DAY = LocalDate.parse("2014-08-26");
+
+    private final List<NextableAvailabilitySearchCriteria> searches = new ArrayList<>();
+
+    // restaurants open every day from 19:00 to 20:00 and from 23:30 to 00:30, except the closed ones, left out of the
+    // responses as Nextable does. As Nextable, only returns the slots of 15 minutes starting within the search
+    private final NextableClient client = new NextableClient(ClientBuilder.newClient(), "token", "http://127.0.0.1:1") {
+        @Override
+        public CompletableFuture<List<NextableRestaurant>> searchAvailabilitiesAsync(NextableAvailabilitySearchCriteria criteria) {
+            searches.add(criteria);
+            return CompletableFuture.completedFuture(answer(criteria));
+        }
+    };
+
+    private final NextableAvailabilityCache cache = new NextableAvailabilityCache(client);
+
+    @Test
+    public void answers_from_the_cached_days() {
+        NextableAvailabilitySearchCriteria criteria = criteria(DAY, DAY.plusDays(1), "A", "B");
+        List<NextableRestaurant> first = cache.searchAvailabilities(criteria);
+        assertEquals(1, searches.size());
+        assertEquals(4, cache.size());
+        assertEquals(json(answer(criteria)), json(first));
+
+        assertEquals(json(first), json(cache.searchAvailabilities(criteria)));
+        assertEquals(1, searches.size());
+        assertEquals(4, cache.getStats().getHits());
+        assertEquals(4, cache.getStats().getMisses());
+    }
+
+    @Test
+    public void only_fetches_what_is_missing() {
+        cache.searchAvailabilities(criteria(DAY, DAY.plusDays(1), "A"));
+        cache.searchAvailabilities(criteria(DAY.plusDays(2), DAY.plusDays(2), "B", "C"));
+        List<NextableRestaurant> restaurants = cache.searchAvailabilities(criteria(DAY, DAY.plusDays(2), "A", "B", "C"));
+        assertEquals(json(answer(criteria(DAY, DAY.plusDays(2), "A", "B", "C"))), json(restaurants));
+        // one search per run of missing days
+        assertEquals(4, searches.size());
+        assertEquals(Arrays.asList("A"), new ArrayList<>(searches.get(2).getRestaurantIds()));
+        assertEquals(DAY.plusDays(2).atStartOfDay(), searches.get(2).getFrom());
+        assertEquals(DAY.plusDays(2).atTime(23, 59, 59), searches.get(2).getTo());
+        assertEquals(Arrays.asList("B", "C"), new ArrayList<>(searches.get(3).getRestaurantIds()));
+        assertEquals(DAY.atStartOfDay(), searches.get(3).getFrom());
+        assertEquals(DAY.plusDays(1).atTime(23, 59, 59), searches.get(3).getTo());
+        assertEquals(9, cache.getStats().getMisses());
+
+        // all cached now
+        cache.searchAvailabilities(criteria(DAY.plusDays(1), DAY.plusDays(2), "B"));
+        assertEquals(4, searches.size());
+    }
+
+    @Test
+    public void answers_as_a_search_starting_and_ending_anywhere() {
+        cache.searchAvailabilities(criteria(DAY, DAY.plusDays(2), "A"));
+        List<NextableAvailabilitySearchCriteria> windows = Arrays.asList(
+            // the late service started the day before
+            criteria(DAY.plusDays(1), DAY.plusDays(1), "A"),
+            criteria(DAY, DAY, "A").setFrom(DAY.atTime(23, 40)).setTo(DAY.plusDays(1).atTime(0, 0)),
+            criteria(DAY, DAY, "A").setFrom(DAY.atTime(19, 15)).setTo(DAY.atTime(19, 30)),
+            criteria(DAY, DAY, "A").setFrom(DAY.atTime(20, 0)).setTo(DAY.atTime(23, 0)));
+        for (NextableAvailabilitySearchCriteria window : windows) {
+            assertEquals(json(answer(window)), json(cache.searchAvailabilities(window)));
+        }
+        assertEquals(1, searches.size());
+        assertEquals("00:00", cache.searchAvailabilities(windows.get(0)).get(0).getAvailabilities().get(0).getTimeSlots().get(0).getStartTime().toString());
+    }
+
+    @Test
+    public void fetches_all_the_missing_restaurants_whatever_the_page_size() {
+        List<NextableRestaurant> restaurants = cache.searchAvailabilities(criteria(DAY, DAY, "A", "B", "C").setPageSize(1));
+        assertEquals(3, searches.get(0).getPageSize());
+        assertEquals(3, restaurants.size());
+        assertEquals(3, cache.size());
+    }
+
+    @Test
+    public void caches_the_restaurants_left_out() {
+        assertEquals(1, cache.searchAvailabilities(criteria(DAY, DAY.plusDays(1), "A", "closed")).size());
+        assertEquals(4, cache.size());
+        assertEquals(1, cache.searchAvailabilities(criteria(DAY, DAY.plusDays(1), "A", "closed")).size());
+        assertEquals(1, searches.size());
+    }
+
+    @Test
+    public void invalidates_the_days_having_slots_at_the_reservation_time() {
+        cache.searchAvailabilities(criteria(DAY, DAY.plusDays(2), "A", "B"));
+        assertEquals(6, cache.size());
+
+        // the late service of the day before runs up to 00:30
+        cache.onReservationCreated(new NextableReservation().setRestaurantId("A").setStart(DAY.plusDays(1).atTime(0, 15)).setPartySize(2));
+        assertEquals(4, cache.size());
+
+        cache.onReservationCreated(new NextableReservation().setRestaurantId("B").setStart(DAY.plusDays(2).atTime(19, 0)).setPartySize(2));
+        assertEquals(3, cache.size());
+
+        List<NextableRestaurant> restaurants = cache.searchAvailabilities(criteria(DAY, DAY.plusDays(2), "A", "B"));
+        assertEquals(json(answer(criteria(DAY, DAY.plusDays(2), "A", "B"))), json(restaurants));
+        assertEquals(6, cache.size());
+
+        cache.onReservationCancelled("1", "A");
+        assertEquals(3, cache.size());
+    }
+
+    private static NextableAvailabilitySearchCriteria criteria(LocalDate from, LocalDate to, String... ids) {
+        NextableAvailabilitySearchCriteria criteria = new NextableAvailabilitySearchCriteria()
+            .setFrom(from.atStartOfDay())
+            .setTo(to.atTime(23, 59, 59))
+            .setPartySize(2);
+        for (String id : ids) {
+            criteria.addRestaurantId(id);
+        }
+        return criteria;
+    }
+
+    private static List<NextableRestaurant> answer(NextableAvailabilitySearchCriteria criteria) {
+        return criteria.getRestaurantIds().stream()
+            .limit(criteria.getPageSize())
+            .filter(id -> !id.startsWith("closed"))
+            .map(id -> restaurant(id, criteria))
+            .filter(NextableRestaurant::hasAvailability)
+            .collect(Collectors.toList());
+    }
+
+    private static NextableRestaurant restaurant(String id, NextableAvailabilitySearchCriteria criteria) {
+        NextableRestaurant restaurant = new NextableRestaurant(id, ZoneId.of("America/Montreal")).setGranularity(Duration.ofMinutes(15));
+        NextableSlotMerger merger = new NextableSlotMerger(restaurant);
+        for (LocalDate day = criteria.getFrom().toLocalDate().minusDays(1); !day.isAfter(criteria.getTo().toLocalDate()); day = day.plusDays(1)) {
+            for (LocalDateTime service : Arrays.asList(day.atTime(19, 0), day.atTime(23, 30))) {
+                for (LocalDateTime t = service; t.isBefore(service.plusHours(1)); t = t.plusMinutes(15)) {
+                    if (!t.isBefore(criteria.getFrom()) && !t.isAfter(criteria.getTo())) merger.add(t, Duration.ofMinutes(15), 0b1100);
+                }
+            }
+        }
+        return restaurant;
+    }
+
+    private static List<String> json(List<NextableRestaurant> restaurants) {
+        return restaurants.stream().map(restaurant -> restaurant.toJson().toString()).collect(Collectors.toList());
+    }
+
+}
@@ -0,0 +1,109 @@
+/**
+ * Copyright (C) 2013 Guestful (info@guestful.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.guestful.client.nextable;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * @author Mathieu Carbou (mathieu.carbou@gmail.com)
+ */
+@RunWith(JUnit4.class)
+public class NextableAvailabilityDiffTest {
+
+    private static final List<Integer> TWO = Collections.singletonList(2);
+    private static final List<Integer> TWO_FOUR = Arrays.asList(2, 4);
+
+    @Test
+    public void reports_added_removed_and_changed_slots() {
+        NextableRestaurant r1 = restaurant("R1");
+        new NextableSlotMerger(r1)
+            .add(LocalDateTime.parse("2014-08-25T19:00"), TWO)
+            .add(LocalDateTime.parse("2014-08-25T19:15"), TWO)
+            .add(LocalDateTime.parse("2014-08-25T20:00"), TWO_FOUR)
+            .add(LocalDateTime.parse("2014-08-26T12:00"), TWO);
+        NextableRestaurant r2 = restaurant("R2");
+        new NextableSlotMerger(r2).add(LocalDateTime.parse("2014-08-25T19:00"), TWO);
+
+        NextableRestaurant r1After = restaurant("R1");
+        new NextableSlotMerger(r1After)
+            // 19:15 is booked for 2: the 19:00 slot gets shorter
+            .add(LocalDateTime.parse("2014-08-25T19:00"), TWO)
+            .add(LocalDateTime.parse("2014-08-25T20:00"), TWO_FOUR)
+            .add(LocalDateTime.parse("2014-08-25T21:00"), TWO)
+            .add(LocalDateTime.parse("2014-08-26T12:00"), TWO_FOUR);
+        NextableRestaurant r3 = restaurant("R3");
+        new NextableSlotMerger(r3).add(LocalDateTime.parse("2014-08-25T18:00"), TWO);
+
+        NextableAvailabilityDiff diff = NextableAvailabilityDiff.between(Arrays.asList(r1, r2), Arrays.asList(r3, r1After));
+        List<NextableAvailabilityChange> changes = diff.getChanges();
+        assertEquals(5, changes.size());
+
+        assertChange(changes.get(0), NextableAvailabilityChange.Type.ADDED, "R3", "2014-08-25T18:00");
+        assertEquals(Duration.ZERO, changes.get(0).getPreviousDuration());
+        assertEquals(TWO, changes.get(0).getPartySizes());
+
+        assertChange(changes.get(1), NextableAvailabilityChange.Type.CHANGED, "R1", "2014-08-25T19:00");
+        assertEquals(Duration.ofMinutes(30), changes.get(1).getPreviousDuration());
+        assertEquals(Duration.ofMinutes(15), changes.get(1).getDuration());
+
+        assertChange(changes.get(2), NextableAvailabilityChange.Type.ADDED, "R1", "2014-08-25T21:00");
+
+        assertChange(changes.get(3), NextableAvailabilityChange.Type.CHANGED, "R1", "2014-08-26T12:00");
+        assertEquals(TWO, changes.get(3).getPreviousPartySizes());
+        assertEquals(TWO_FOUR, changes.get(3).getPartySizes());
+
+        assertChange(changes.get(4), NextableAvailabilityChange.Type.REMOVED, "R2", "2014-08-25T19:00");
+        assertEquals(Collections.emptyList(), changes.get(4).getPartySizes());
+        assertFalse(changes.get(4).toJson().containsKey("partySizes"));
+
+        assertEquals(Arrays.asList("R3", "R1", "R2"), Arrays.asList(diff.getRestaurantIds().toArray()));
+    }
+
+    @Test
+    public void same_availabilities_have_no_change() {
+        NextableRestaurant before = restaurant("R1");
+        NextableRestaurant after = restaurant("R1");
+        for (NextableRestaurant restaurant : Arrays.asList(before, after)) {
+            new NextableSlotMerger(restaurant)
+                .add(LocalDateTime.parse("2014-08-25T23:45"), TWO)
+                .add(LocalDateTime.parse("2014-08-26T00:00"), TWO);
+        }
+        assertTrue(NextableAvailabilityDiff.between(Collections.singletonList(before), Collections.singletonList(after)).isEmpty());
+        assertTrue(NextableAvailabilityDiff.between(NextableAvailabilitySnapshot.empty(), NextableAvailabilitySnapshot.empty()).isEmpty());
+    }
+
+    private static void assertChange(NextableAvailabilityChange change, NextableAvailabilityChange.Type type, String restaurantId, String start) {
+        assertEquals(type, change.getType());
+        assertEquals(restaurantId, change.getRestaurantId());
+        assertEquals(LocalDateTime.parse(start), change.getStart());
+    }
+
+    private static NextableRestaurant restaurant(String id) {
+        return new NextableRestaurant(id, ZoneId.of("America/Montreal")).setGranularity(Duration.ofMinutes(15));
+    }
+
+}
@@ -0,0 +1,81 @@
+/**
+ * Copyright (C) 2013 Guestful (info@guestful.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.guestful.client.nextable;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.time.LocalDate;
+import java.time.LocalTime;
+import java.util.Arrays;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * @author Mathieu Carbou (mathieu.carbou@gmail.com)
+ */
+@RunWith(JUnit4.class)
+public class NextableAvailabilityReaderTest {
+
+    @Test
+    public void merges_adjacent_slots_with_same_party_sizes() {
+        NextableAvailabilityPage page = read("[" +
+            "{\"id\":\"R1\",\"timeZone\":\"America/Montreal\",\"slotSize\":15,\"extra\":{\"a\":[1,2]},\"availability\":[" +
+            "  {\"date\":\"2014-08-25T00:00:00\",\"slots\":[" +
+            "    {\"time24\":\"17:00\",\"partySizes\":[{\"size\":2},{\"size\":4}]}," +
+            "    {\"time24\":\"17:15\",\"partySizes\":[{\"size\":4},{\"size\":2}]}," +
+            "    {\"time24\":\"17:30\",\"partySizes\":[{\"size\":2}]}," +
+            "    {\"time24\":\"17:45\",\"partySizes\":[]}," +
+            "    {\"time24\":\"18:00\",\"partySizes\":[{\"size\":2}]}" +
+            "  ]}," +
+            "  {\"date\":\"2014-08-26T00:00:00\",\"slots\":[{\"time24\":\"18:00\",\"partySizes\":[]}]}" +
+            "]}," +
+            "{\"id\":\"R2\",\"timeZone\":\"America/Montreal\",\"slotSize\":15,\"availability\":[]}" +
+            "]");
+        assertEquals(2, page.size);
+        assertEquals(1, page.restaurants.size());
+        NextableRestaurant restaurant = page.restaurants.get(0);
+        assertEquals(1, restaurant.getAvailabilities().size());
+        NextableDailyAvailability day = restaurant.getAvailabilities().get(0);
+        assertEquals(LocalDate.of(2014, 8, 25), day.getDay());
+        assertEquals(3, day.getTimeSlots().size());
+        assertEquals(LocalTime.of(17, 0), day.getTimeSlots().get(0).getStartTime());
+        assertEquals(Duration.ofMinutes(30), day.getTimeSlots().get(0).getDuration());
+        assertEquals(Arrays.asList(2, 4), day.getTimeSlots().get(0).getPartySizes());
+        assertEquals(LocalTime.of(17, 30), day.getTimeSlots().get(1).getStartTime());
+        assertEquals(LocalTime.of(18, 0), day.getTimeSlots().get(2).getStartTime());
+    }
+
+    @Test
+    public void reads_availability_sent_before_restaurant_properties() {
+        NextableAvailabilityPage page = read("[{\"availability\":[" +
+            "{\"slots\":[{\"partySizes\":[{\"size\":2}],\"time24\":\"19:00\"}],\"date\":\"2014-08-25T00:00:00\"}" +
+            "],\"slotSize\":30,\"timeZone\":\"America/Montreal\",\"id\":\"R1\"}]");
+        assertEquals(1, page.restaurants.size());
+        NextableTimeSlot slot = page.restaurants.get(0).getAvailabilities().get(0).getTimeSlots().get(0);
+        assertEquals("R1", page.restaurants.get(0).getId());
+        assertEquals(LocalTime.of(19, 30), slot.getEndTime());
+    }
+
+    private static NextableAvailabilityPage read(String json) {
+        return NextableAvailabilityReader.read(new ByteArrayInputStream(json.getBytes(StandardCharsets.UTF_8)));
+    }
+
+}
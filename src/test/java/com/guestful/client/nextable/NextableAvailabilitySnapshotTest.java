@@ -0,0 +1,161 @@
+/**
+ * Copyright (C) 2013 Guestful (info@guestful.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.guestful.client.nextable;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.LocalTime;
+import java.time.ZoneId;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @author Mathieu Carbou (mathieu.carbou@gmail.com)
+ */
+@RunWith(JUnit4.class)
+public class NextableAvailabilitySnapshotTest {
+
+    private static final String JSON = "[" +
+        "{\"id\":\"R1\",\"timeZone\":\"America/Montreal\",\"slotSize\":15,\"availability\":[" +
+        "  {\"date\":\"2014-08-25T00:00:00\",\"slots\":[" +
+        "    {\"time24\":\"17:00\",\"partySizes\":[{\"size\":2},{\"size\":4}]}," +
+        "    {\"time24\":\"17:15\",\"partySizes\":[{\"size\":4},{\"size\":2}]}," +
+        "    {\"time24\":\"17:30\",\"partySizes\":[{\"size\":2}]}," +
+        "    {\"time24\":\"17:45\",\"partySizes\":[]}," +
+        "    {\"time24\":\"18:00\",\"partySizes\":[{\"size\":2}]}" +
+        "  ]}" +
+        "]}," +
+        "{\"id\":\"R2\",\"timeZone\":\"America/Montreal\",\"slotSize\":15,\"availability\":[]}," +
+        "{\"id\":\"R3\",\"timeZone\":\"Europe/Paris\",\"slotSize\":30,\"availability\":[" +
+        "  {\"date\":\"2014-08-26T00:00:00\",\"slots\":[{\"time24\":\"20:00\",\"partySizes\":[{\"size\":6}]}]}," +
+        "  {\"date\":\"2014-08-25T00:00:00\",\"slots\":[{\"time24\":\"12:00\",\"partySizes\":[{\"size\":6}]}]}" +
+        "]}" +
+        "]";
+
+    @Test
+    public void reads_merged_columns_without_restaurants_without_availability() {
+        NextableAvailabilitySnapshot snapshot = read(JSON);
+        assertEquals(2, snapshot.getRestaurantCount());
+        assertEquals(5, snapshot.size());
+        assertEquals(-1, snapshot.indexOf("R2"));
+        assertEquals(1, snapshot.indexOf("R3"));
+        assertEquals(ZoneId.of("Europe/Paris"), snapshot.getTimeZone(1));
+        assertEquals(Duration.ofMinutes(30), snapshot.getGranularity(1));
+
+        NextableAvailabilitySnapshot.Cursor cursor = snapshot.cursor(0);
+        assertTrue(cursor.next());
+        assertEquals("R1", cursor.getRestaurantId());
+        assertEquals(LocalDateTime.of(2014, 8, 25, 17, 0), cursor.getStart());
+        assertEquals(30, cursor.getDurationMinutes());
+        assertEquals((1L << 2) | (1L << 4), cursor.getPartySizeMask());
+        assertTrue(cursor.next());
+        assertEquals(LocalTime.of(17, 30), cursor.getStartTime());
+        assertTrue(cursor.next());
+        assertEquals(18 * 60, cursor.getStartMinute());
+        assertFalse(cursor.next());
+
+        // days received out of order are sorted
+        cursor = snapshot.cursor(1);
+        assertTrue(cursor.next());
+        assertEquals(LocalDate.of(2014, 8, 25), cursor.getDay());
+        assertTrue(cursor.next());
+        assertEquals(LocalDate.of(2014, 8, 26), cursor.getDay());
+        assertTrue(cursor.hasPartySize(6));
+        assertFalse(cursor.next());
+    }
+
+    @Test
+    public void finds_availability() {
+        NextableAvailabilitySnapshot snapshot = read(JSON);
+        assertTrue(snapshot.hasAvailability("R1", LocalDateTime.of(2014, 8, 25, 17, 20), 4));
+        assertFalse(snapshot.hasAvailability("R1", LocalDateTime.of(2014, 8, 25, 17, 30), 4));
+        assertTrue(snapshot.hasAvailability("R1", LocalDateTime.of(2014, 8, 25, 17, 44), 2));
+        assertFalse(snapshot.hasAvailability("R1", LocalDateTime.of(2014, 8, 25, 17, 45), 2));
+        assertFalse(snapshot.hasAvailability("R1", LocalDateTime.of(2014, 8, 25, 16, 59), 2));
+        assertFalse(snapshot.hasAvailability("R2", LocalDateTime.of(2014, 8, 25, 17, 0), 2));
+        assertTrue(snapshot.hasAvailability("R3", LocalDateTime.of(2014, 8, 26, 20, 29), 6));
+        assertFalse(snapshot.hasAvailability("R3", LocalDateTime.of(2014, 8, 26, 20, 0), 64));
+    }
+
+    @Test
+    public void converts_back_to_restaurants() {
+        List<NextableRestaurant> expected = NextableAvailabilityReader.read(new ByteArrayInputStream(JSON.getBytes(StandardCharsets.UTF_8))).restaurants;
+        NextableAvailabilitySnapshot snapshot = read(JSON);
+        List<NextableRestaurant> restaurants = snapshot.toRestaurants();
+        assertEquals(expected.size(), restaurants.size());
+        assertEquals(expected.get(0).toJson(), restaurants.get(0).toJson());
+        assertEquals(expected.get(0).getAvailabilities().get(0).getTimeSlots().get(0).getDuration(), restaurants.get(0).getAvailabilities().get(0).getTimeSlots().get(0).getDuration());
+        assertEquals(Arrays.asList(6), restaurants.get(1).getAvailabilities().get(1).getTimeSlots().get(0).getPartySizes());
+
+        NextableAvailabilitySnapshot copy = NextableAvailabilitySnapshot.of(restaurants);
+        assertEquals(snapshot.size(), copy.size());
+        assertTrue(copy.hasAvailability("R1", LocalDateTime.of(2014, 8, 25, 17, 15), 2));
+        assertEquals(0, NextableAvailabilitySnapshot.of(Collections.emptyList()).size());
+    }
+
+    @Test
+    public void merges_slots_received_out_of_order() {
+        String json = "[" +
+            "{\"id\":\"R1\",\"timeZone\":\"America/Montreal\",\"slotSize\":15,\"availability\":[" +
+            "  {\"date\":\"2014-08-25T00:00:00\",\"slots\":[" +
+            "    {\"time24\":\"18:00\",\"partySizes\":[{\"size\":2}]}," +
+            "    {\"time24\":\"18:15\",\"partySizes\":[{\"size\":2}]}," +
+            "    {\"time24\":\"18:30\",\"partySizes\":[{\"size\":2}]}," +
+            "    {\"time24\":\"17:45\",\"partySizes\":[{\"size\":2}]}," +
+            "    {\"time24\":\"18:15\",\"partySizes\":[{\"size\":4}]}" +
+            "  ]}," +
+            "  {\"date\":\"2014-08-24T00:00:00\",\"slots\":[{\"time24\":\"23:45\",\"partySizes\":[{\"size\":2}]}]}" +
+            "]}" +
+            "]";
+        NextableAvailabilitySnapshot snapshot = read(json);
+        // 23:45 and 17:45 to 18:15 for 2, 18:15 for 4 overriding the first 18:15, 18:30 for 2
+        assertEquals(4, snapshot.size());
+        NextableAvailabilitySnapshot.Cursor cursor = snapshot.cursor();
+        assertTrue(cursor.next());
+        assertEquals(LocalDateTime.of(2014, 8, 24, 23, 45), cursor.getStart());
+        assertTrue(cursor.next());
+        assertEquals(LocalDateTime.of(2014, 8, 25, 17, 45), cursor.getStart());
+        assertEquals(30, cursor.getDurationMinutes());
+        assertTrue(cursor.next());
+        assertEquals(LocalTime.of(18, 15), cursor.getStartTime());
+        assertTrue(cursor.hasPartySize(4));
+        assertFalse(cursor.hasPartySize(2));
+        assertTrue(cursor.next());
+        assertEquals(LocalTime.of(18, 30), cursor.getStartTime());
+        assertFalse(cursor.next());
+
+        // same slots as the object graph
+        List<NextableRestaurant> expected = NextableAvailabilityReader.read(new ByteArrayInputStream(json.getBytes(StandardCharsets.UTF_8))).restaurants;
+        assertEquals(expected.get(0).toJson(), snapshot.toRestaurant(0).toJson());
+    }
+
+    private static NextableAvailabilitySnapshot read(String json) {
+        return NextableAvailabilityReader.readSnapshot(new ByteArrayInputStream(json.getBytes(StandardCharsets.UTF_8)));
+    }
+
+}
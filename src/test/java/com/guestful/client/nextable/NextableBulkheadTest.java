@@ -0,0 +1,110 @@
+/**
+ * Copyright (C) 2013 Guestful (info@guestful.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.guestful.client.nextable;
+
+import org.junit.After;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+/**
+ * @author Mathieu Carbou (mathieu.carbou@gmail.com)
+ */
+@RunWith(JUnit4.class)
+public class NextableBulkheadTest {
+
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor();
+    private final List<String> acquired = new CopyOnWriteArrayList<>();
+
+    @After
+    public void shutdown() {
+        scheduler.shutdownNow();
+    }
+
+    @Test
+    public void rejects_at_once_without_max_wait() {
+        NextableBulkhead bulkhead = new NextableBulkhead(2);
+        assertTrue(bulkhead.acquire());
+        assertTrue(bulkhead.acquire());
+        assertFalse(bulkhead.acquire());
+        bulkhead.acquireAsync(() -> acquired.add("async"), () -> acquired.add("rejected"), scheduler);
+        assertEquals(2, bulkhead.getInFlight());
+        bulkhead.release();
+        assertTrue(bulkhead.acquire());
+        assertEquals("[rejected]", acquired.toString());
+    }
+
+    @Test
+    public void rejects_after_max_wait() throws Exception {
+        NextableBulkhead bulkhead = new NextableBulkhead(1).setMaxWait(Duration.ofMillis(20));
+        assertTrue(bulkhead.acquire());
+        assertFalse(bulkhead.acquire());
+        CompletableFuture<Void> rejected = new CompletableFuture<>();
+        bulkhead.acquireAsync(() -> acquired.add("async"), () -> rejected.complete(null), scheduler);
+        rejected.get(5, TimeUnit.SECONDS);
+        bulkhead.release();
+        assertEquals(0, bulkhead.getInFlight());
+        assertTrue(acquired.isEmpty());
+    }
+
+    @Test
+    public void serves_blocking_and_async_waiters_in_order() throws Exception {
+        NextableBulkhead bulkhead = new NextableBulkhead(1).setMaxWait(Duration.ofSeconds(5));
+        assertTrue(bulkhead.acquire());
+
+        bulkhead.acquireAsync(() -> acquired.add("async 1"), () -> acquired.add("rejected"), scheduler);
+        CompletableFuture<Boolean> blocked = CompletableFuture.supplyAsync(() -> {
+            boolean ok = bulkhead.acquire();
+            acquired.add("blocking");
+            return ok;
+        });
+        awaitWaiters(bulkhead, 2);
+        bulkhead.acquireAsync(() -> acquired.add("async 2"), () -> acquired.add("rejected"), scheduler);
+
+        // a new caller does not jump the queue
+        assertFalse(bulkhead.setMaxWait(Duration.ZERO).acquire());
+        bulkhead.setMaxWait(Duration.ofSeconds(5));
+
+        bulkhead.release();
+        assertEquals("[async 1]", acquired.toString());
+        bulkhead.release();
+        assertTrue(blocked.get(5, TimeUnit.SECONDS));
+        assertEquals("[async 1, blocking]", acquired.toString());
+        bulkhead.release();
+        assertEquals("[async 1, blocking, async 2]", acquired.toString());
+        bulkhead.release();
+        assertEquals(0, bulkhead.getInFlight());
+    }
+
+    private static void awaitWaiters(NextableBulkhead bulkhead, int count) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (bulkhead.getWaiting() < count && System.nanoTime() < deadline) {
+            Thread.sleep(1);
+        }
+        assertEquals(count, bulkhead.getWaiting());
+    }
+
+}
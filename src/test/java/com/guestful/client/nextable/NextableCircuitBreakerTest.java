@@ -0,0 +1,88 @@
+/**
+ * Copyright (C) 2013 Guestful (info@guestful.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.guestful.client.nextable;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import javax.ws.rs.ProcessingException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * @author Mathieu Carbou (mathieu.carbou@gmail.com)
+ */
+@RunWith(JUnit4.class)
+public class NextableCircuitBreakerTest {
+
+    @Test
+    public void opens_on_failure_rate_and_closes_after_probes() {
+        List<String> transitions = new ArrayList<>();
+        NextableCircuitBreaker breaker = new NextableCircuitBreaker("search")
+            .setWindowSize(4)
+            .setMinimumCalls(4)
+            .setFailureRateThreshold(0.5)
+            .setOpenDuration(Duration.ZERO)
+            .setHalfOpenCalls(2);
+        breaker.addListener((cb, from, to) -> transitions.add(from + "->" + to));
+
+        for (int i = 0; i < 2; i++) {
+            assertTrue(breaker.tryAcquire());
+            breaker.onResult(0, null);
+        }
+        assertTrue(breaker.tryAcquire());
+        breaker.onResult(0, new ProcessingException("reset"));
+        assertEquals(NextableCircuitBreaker.State.CLOSED, breaker.getState());
+        assertTrue(breaker.tryAcquire());
+        breaker.onResult(0, new ProcessingException("reset"));
+        assertEquals(NextableCircuitBreaker.State.OPEN, breaker.getState());
+
+        // open duration elapsed: only 2 probes let through
+        assertTrue(breaker.tryAcquire());
+        assertTrue(breaker.tryAcquire());
+        assertFalse(breaker.tryAcquire());
+        breaker.onResult(0, null);
+        breaker.onResult(0, null);
+        assertEquals(NextableCircuitBreaker.State.CLOSED, breaker.getState());
+        assertEquals(Arrays.asList("CLOSED->OPEN", "OPEN->HALF_OPEN", "HALF_OPEN->CLOSED"), transitions);
+    }
+
+    @Test
+    public void released_probes_let_another_one_through() {
+        NextableCircuitBreaker breaker = new NextableCircuitBreaker("search")
+            .setMinimumCalls(1)
+            .setOpenDuration(Duration.ZERO)
+            .setHalfOpenCalls(1);
+        assertTrue(breaker.tryAcquire());
+        breaker.onResult(0, new ProcessingException("reset"));
+        assertEquals(NextableCircuitBreaker.State.OPEN, breaker.getState());
+
+        assertTrue(breaker.tryAcquire());
+        assertFalse(breaker.tryAcquire());
+        // the probe was cancelled
+        breaker.release();
+        assertEquals(NextableCircuitBreaker.State.HALF_OPEN, breaker.getState());
+        assertTrue(breaker.tryAcquire());
+        breaker.onResult(0, null);
+        assertEquals(NextableCircuitBreaker.State.CLOSED, breaker.getState());
+    }
+
+}
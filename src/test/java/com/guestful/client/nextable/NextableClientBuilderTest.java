@@ -0,0 +1,83 @@
+/**
+ * Copyright (C) 2013 Guestful (info@guestful.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.guestful.client.nextable;
+
+import org.glassfish.jersey.jsonp.JsonProcessingFeature;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import javax.ws.rs.client.Client;
+import java.time.Duration;
+
+import static org.junit.Assert.*;
+
+/**
+ * @author Mathieu Carbou (mathieu.carbou@gmail.com)
+ */
+@RunWith(JUnit4.class)
+public class NextableClientBuilderTest {
+
+    private NextableStubServer server;
+
+    @Before
+    public void start() {
+        server = new NextableStubServer().start();
+    }
+
+    @After
+    public void stop() {
+        server.close();
+    }
+
+    @Test
+    public void builds_a_tuned_client() {
+        Client client = new NextableClientBuilder()
+            .setConnectTimeout(Duration.ofSeconds(1))
+            .setReadTimeout(Duration.ofSeconds(2))
+            .setAsyncThreadPoolSize(4)
+            .register(JsonProcessingFeature.class)
+            .buildClient();
+        try {
+            assertEquals(1000, client.getConfiguration().getProperty(NextableClientBuilder.CONNECT_TIMEOUT));
+            assertEquals(2000, client.getConfiguration().getProperty(NextableClientBuilder.READ_TIMEOUT));
+            assertEquals(4, client.getConfiguration().getProperty(NextableClientBuilder.ASYNC_THREAD_POOL_SIZE));
+            assertTrue(client.getConfiguration().isRegistered(JsonProcessingFeature.class));
+            assertTrue(client.getConfiguration().isRegistered(NextableGzipSupport.class));
+        } finally {
+            client.close();
+        }
+    }
+
+    @Test
+    public void builds_a_working_nextable_client() {
+        NextableClient nextable = new NextableClientBuilder()
+            .setToken("token")
+            .setUri(server.getUri())
+            .register(JsonProcessingFeature.class)
+            .build();
+        assertEquals("Restaurant 17856R898", nextable.getRestaurant("17856R898").getName());
+        assertEquals("Restaurant CRD9H5807", nextable.getRestaurantAsync("CRD9H5807").join().getName());
+    }
+
+    @Test(expected = NullPointerException.class)
+    public void requires_a_token() {
+        new NextableClientBuilder().build();
+    }
+
+}
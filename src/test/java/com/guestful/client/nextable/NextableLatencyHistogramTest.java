@@ -0,0 +1,83 @@
+/**
+ * Copyright (C) 2013 Guestful (info@guestful.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.guestful.client.nextable;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+/**
+ * @author Mathieu Carbou (mathieu.carbou@gmail.com)
+ */
+@RunWith(JUnit4.class)
+public class NextableLatencyHistogramTest {
+
+    @Test
+    public void buckets_are_contiguous() {
+        for (int i = 1; i < NextableLatencyHistogram.index(1L << 40); i++) {
+            assertEquals(NextableLatencyHistogram.highestValue(i - 1) + 1, lowest(i));
+            assertEquals(i, NextableLatencyHistogram.index(lowest(i)));
+            assertEquals(i, NextableLatencyHistogram.index(NextableLatencyHistogram.highestValue(i)));
+        }
+    }
+
+    @Test
+    public void percentiles_are_within_relative_error() {
+        NextableLatencyHistogram histogram = new NextableLatencyHistogram();
+        for (int ms = 1; ms <= 1000; ms++) {
+            histogram.record(TimeUnit.MILLISECONDS.toNanos(ms));
+        }
+        NextableLatencyHistogram.Snapshot snapshot = histogram.getSnapshot();
+        assertEquals(1000, snapshot.getCount());
+        assertEquals(TimeUnit.MILLISECONDS.toNanos(1), snapshot.getMin());
+        assertEquals(TimeUnit.MILLISECONDS.toNanos(1000), snapshot.getMax());
+        assertEquals(TimeUnit.MILLISECONDS.toNanos(1000), snapshot.getPercentile(100));
+        assertEquals(500.5, snapshot.getMean() / 1_000_000, 0.001);
+        assertEquals(500, snapshot.getPercentile(50) / 1_000_000d, 500 / 16d);
+        assertEquals(990, snapshot.getPercentile(99) / 1_000_000d, 990 / 16d);
+
+        histogram.reset();
+        assertEquals(0, histogram.getSnapshot().getCount());
+        assertEquals(0, histogram.getSnapshot().getPercentile(99));
+    }
+
+    @Test
+    public void in_memory_metrics_count_errors_by_status() {
+        NextableInMemoryMetrics metrics = new NextableInMemoryMetrics();
+        metrics.onResponse(NextableOperation.GET_RESTAURANT, 200, 1000);
+        metrics.onResponse(NextableOperation.GET_RESTAURANT, 404, 2000);
+        metrics.onFailure(NextableOperation.GET_RESTAURANT, new RuntimeException(), 3000);
+        metrics.onRejected(NextableOperation.GET_RESTAURANT, new NextableRejectedException(NextableOperation.GET_RESTAURANT, "test"));
+
+        NextableInMemoryMetrics.OperationMetrics restaurant = metrics.get(NextableOperation.GET_RESTAURANT);
+        assertEquals(3, restaurant.getCalls());
+        assertEquals(1, restaurant.getRejected());
+        assertEquals(2, restaurant.getErrorCount());
+        assertEquals(1L, (long) restaurant.getErrors().get(404));
+        assertEquals(1L, (long) restaurant.getErrors().get(NextableInMemoryMetrics.NO_RESPONSE));
+        assertEquals(3, restaurant.getNetworkTime().getSnapshot().getCount());
+        assertEquals(0, metrics.get(NextableOperation.CREATE_RESERVATION).getCalls());
+    }
+
+    private static long lowest(int index) {
+        return index == 0 ? 0 : NextableLatencyHistogram.highestValue(index - 1) + 1;
+    }
+
+}
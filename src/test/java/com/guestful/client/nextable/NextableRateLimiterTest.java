@@ -0,0 +1,101 @@
+/**
+ * Copyright (C) 2013 Guestful (info@guestful.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.guestful.client.nextable;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.util.UUID;
+
+import static org.junit.Assert.*;
+
+/**
+ * @author Mathieu Carbou (mathieu.carbou@gmail.com)
+ */
+@RunWith(JUnit4.class)
+public class NextableRateLimiterTest {
+
+    private static final long INTERVAL = Duration.ofMillis(100).toNanos();
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void lets_bursts_through_then_spaces_permits() {
+        NextableRateLimiter limiter = new NextableRateLimiter(10, 2);
+        assertEquals(0, limiter.reserve("token"));
+        assertEquals(0, limiter.reserve("token"));
+        long third = limiter.reserve("token");
+        assertTrue(third > 0 && third <= INTERVAL);
+        long fourth = limiter.reserve("token");
+        assertTrue(fourth > INTERVAL && fourth <= 2 * INTERVAL);
+        // each key has its own bucket
+        assertEquals(0, limiter.reserve("other"));
+    }
+
+    @Test
+    public void rejects_without_reserving_past_the_max_wait() {
+        NextableRateLimiter limiter = new NextableRateLimiter(10, 2).setMaxWait(Duration.ofMillis(150));
+        assertEquals(0, limiter.reserve("token"));
+        assertEquals(0, limiter.reserve("token"));
+        assertTrue(limiter.reserve("token") > 0);
+        assertEquals(-1, limiter.reserve("token"));
+        assertEquals(-1, limiter.reserve("token"));
+
+        limiter.setMaxWait(Duration.ZERO);
+        assertEquals(-1, limiter.reserve("token"));
+    }
+
+    @Test
+    public void shares_the_buckets_of_a_directory() {
+        // as two JVMs would
+        NextableRateLimiter first = new NextableRateLimiter(10, 2, new NextableFileRateLimitBackend(folder.getRoot().toPath())).setMaxWait(Duration.ZERO);
+        NextableRateLimiter second = new NextableRateLimiter(10, 2, new NextableFileRateLimitBackend(folder.getRoot().toPath())).setMaxWait(Duration.ZERO);
+        assertEquals(0, first.reserve("token"));
+        assertEquals(0, second.reserve("token"));
+        assertEquals(-1, first.reserve("token"));
+        assertEquals(-1, second.reserve("token"));
+        assertEquals(0, second.reserve("other"));
+    }
+
+    @Test
+    public void does_not_wait_long_for_a_file_locked_elsewhere() throws IOException {
+        NextableFileRateLimitBackend backend = new NextableFileRateLimitBackend(folder.getRoot().toPath()).setLockTimeout(Duration.ofMillis(20));
+        NextableRateLimiter limiter = new NextableRateLimiter(10, 2, backend);
+        assertEquals(0, limiter.reserve("token"));
+
+        Path file = folder.getRoot().toPath().resolve(UUID.nameUUIDFromBytes("token".getBytes(StandardCharsets.UTF_8)) + ".bucket");
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE);
+             FileLock lock = channel.lock()) {
+            assertTrue(lock.isValid());
+            long start = System.nanoTime();
+            assertEquals(-1, limiter.reserve("token"));
+            assertTrue(System.nanoTime() - start < Duration.ofSeconds(1).toNanos());
+        }
+        assertEquals(0, limiter.reserve("token"));
+    }
+
+}
@@ -0,0 +1,64 @@
+/**
+ * Copyright (C) 2013 Guestful (info@guestful.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.guestful.client.nextable;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.time.Duration;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.LocalTime;
+import java.time.ZoneId;
+
+import static org.junit.Assert.*;
+
+/**
+ * @author Mathieu Carbou (mathieu.carbou@gmail.com)
+ */
+@RunWith(JUnit4.class)
+public class NextableRestaurantTest {
+
+    @Test
+    public void availability_lookups() {
+        NextableRestaurant restaurant = new NextableRestaurant("R1", ZoneId.of("America/Montreal"));
+        NextableDailyAvailability monday = restaurant.addAvailability(LocalDate.of(2014, 8, 25));
+        NextableTimeSlot dinner = monday.addTimeSlot(LocalTime.of(19, 0)).expand();
+        dinner.addPartySize(2);
+        NextableTimeSlot late = monday.addTimeSlot(LocalTime.of(23, 45)).setDuration(Duration.ofMinutes(30));
+        late.addPartySize(4);
+        NextableTimeSlot lunch = restaurant.addAvailability(LocalDate.of(2014, 8, 26)).addTimeSlot(LocalTime.of(12, 0));
+        lunch.addPartySize(2);
+
+        assertTrue(restaurant.hasAvailability(LocalDateTime.parse("2014-08-25T19:00"), 2));
+        assertTrue(restaurant.hasAvailability(LocalDateTime.parse("2014-08-25T19:29"), 2));
+        assertFalse(restaurant.hasAvailability(LocalDateTime.parse("2014-08-25T19:30"), 2));
+        assertFalse(restaurant.hasAvailability(LocalDateTime.parse("2014-08-25T19:00"), 4));
+        assertTrue(restaurant.hasAvailability(LocalDateTime.parse("2014-08-26T00:10"), 4));
+
+        assertSame(dinner, restaurant.findFirstAvailability(LocalDateTime.parse("2014-08-25T19:10"), 2).get());
+        assertSame(lunch, restaurant.findFirstAvailability(LocalDateTime.parse("2014-08-25T19:30"), 2).get());
+        assertFalse(restaurant.findFirstAvailability(LocalDateTime.parse("2014-08-26T12:30"), 2).isPresent());
+
+        assertEquals(2, restaurant.getTimeSlots(LocalDateTime.parse("2014-08-25T19:15"), LocalDateTime.parse("2014-08-26T00:05"), 0).size());
+        assertEquals(1, restaurant.getTimeSlots(LocalDateTime.parse("2014-08-26T00:00"), LocalDateTime.parse("2014-08-27T00:00"), 2).size());
+
+        lunch.remove();
+        assertFalse(restaurant.findFirstAvailability(LocalDateTime.parse("2014-08-25T19:30"), 2).isPresent());
+    }
+
+}
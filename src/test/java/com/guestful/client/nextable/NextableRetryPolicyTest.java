@@ -0,0 +1,107 @@
+/**
+ * Copyright (C) 2013 Guestful (info@guestful.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.guestful.client.nextable;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import javax.ws.rs.ProcessingException;
+import javax.ws.rs.core.Response;
+import java.time.Duration;
+
+import static org.junit.Assert.*;
+
+/**
+ * @author Mathieu Carbou (mathieu.carbou@gmail.com)
+ */
+@RunWith(JUnit4.class)
+public class NextableRetryPolicyTest {
+
+    private static final ProcessingException RESET = new ProcessingException("reset");
+
+    @Test
+    public void retries_retryable_failures_up_to_max_attempts() {
+        NextableRetryPolicy policy = new NextableRetryPolicy().setMaxAttempts(3);
+        assertTrue(policy.nextDelay(1, RESET) >= 0);
+        assertTrue(policy.nextDelay(2, new NextableException(Response.Status.SERVICE_UNAVAILABLE, null, null, null)) >= 0);
+        assertEquals(-1, policy.nextDelay(3, RESET));
+        assertEquals(-1, policy.nextDelay(1, new NextableException(Response.Status.BAD_REQUEST, null, null, null)));
+        assertEquals(-1, policy.nextDelay(1, new NextableRejectedException(NextableOperation.SEARCH_AVAILABILITIES, "too many concurrent calls")));
+        assertEquals(-1, policy.setRetryOnProcessingError(false).nextDelay(1, RESET));
+    }
+
+    @Test
+    public void spends_a_budget_refilled_by_requests() {
+        NextableRetryPolicy policy = new NextableRetryPolicy()
+            .setMaxAttempts(10)
+            .setBudgetCapacity(2)
+            .setBudgetRatio(0.5);
+        assertTrue(policy.nextDelay(1, RESET) >= 0);
+        assertTrue(policy.nextDelay(1, RESET) >= 0);
+        assertEquals(-1, policy.nextDelay(1, RESET));
+        policy.onRequest();
+        assertEquals(-1, policy.nextDelay(1, RESET));
+        policy.onRequest();
+        assertTrue(policy.nextDelay(1, RESET) >= 0);
+        // capped
+        for (int i = 0; i < 10; i++) {
+            policy.onRequest();
+        }
+        assertTrue(policy.nextDelay(1, RESET) >= 0);
+        assertTrue(policy.nextDelay(1, RESET) >= 0);
+        assertEquals(-1, policy.nextDelay(1, RESET));
+    }
+
+    @Test
+    public void jitters_delays_up_to_an_exponential_cap() {
+        NextableRetryPolicy policy = new NextableRetryPolicy()
+            .setMaxAttempts(10)
+            .setBudgetRatio(1)
+            .setBaseDelay(Duration.ofMillis(100))
+            .setMaxDelay(Duration.ofMillis(500));
+        long[] caps = {0, 100, 200, 400, 500, 500};
+        for (int attempt = 1; attempt < caps.length; attempt++) {
+            long cap = Duration.ofMillis(caps[attempt]).toNanos();
+            long max = 0;
+            for (int i = 0; i < 200; i++) {
+                policy.onRequest();
+                long delay = policy.nextDelay(attempt, RESET);
+                assertTrue(delay >= 0 && delay <= cap);
+                max = Math.max(max, delay);
+            }
+            // full jitter: spread over the whole range
+            assertTrue(max > cap / 2);
+        }
+    }
+
+    @Test
+    public void does_not_overflow() {
+        NextableRetryPolicy policy = new NextableRetryPolicy()
+            .setMaxAttempts(Integer.MAX_VALUE)
+            .setBudgetRatio(1)
+            .setBaseDelay(Duration.ofDays(1))
+            .setMaxDelay(Duration.ofNanos(Long.MAX_VALUE));
+        for (int attempt = 1; attempt < 100; attempt++) {
+            policy.onRequest();
+            assertTrue(policy.nextDelay(attempt, RESET) >= 0);
+        }
+        policy.setMaxDelay(Duration.ofDays(7));
+        policy.onRequest();
+        assertTrue(policy.nextDelay(99, RESET) <= Duration.ofDays(7).toNanos());
+    }
+
+}
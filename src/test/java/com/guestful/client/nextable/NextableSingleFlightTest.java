@@ -0,0 +1,110 @@
+/**
+ * Copyright (C) 2013 Guestful (info@guestful.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.guestful.client.nextable;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+import static org.junit.Assert.*;
+
+/**
+ * @author Mathieu Carbou (mathieu.carbou@gmail.com)
+ */
+@RunWith(JUnit4.class)
+public class NextableSingleFlightTest {
+
+    private final NextableSingleFlight<String, String> flights = new NextableSingleFlight<>();
+    private final List<CompletableFuture<String>> calls = new ArrayList<>();
+
+    @Test
+    public void coalesces_concurrent_calls() {
+        CompletableFuture<String> first = flights.executeAsync("a", this::call);
+        CompletableFuture<String> second = flights.executeAsync("a", this::call);
+        CompletableFuture<String> other = flights.executeAsync("b", this::call);
+        assertEquals(2, calls.size());
+        assertNotSame(first, second);
+        assertEquals(2, flights.size());
+
+        calls.get(0).complete("A");
+        assertEquals("A", first.join());
+        assertEquals("A", second.join());
+        assertFalse(other.isDone());
+        assertEquals(1, flights.size());
+
+        // a new call once the previous one completed
+        flights.executeAsync("a", this::call);
+        assertEquals(3, calls.size());
+    }
+
+    @Test
+    public void one_caller_cancelling_does_not_cancel_the_others() {
+        CompletableFuture<String> first = flights.executeAsync("a", this::call);
+        CompletableFuture<String> second = flights.executeAsync("a", this::call);
+        assertTrue(first.cancel(true));
+        assertFalse(calls.get(0).isCancelled());
+
+        calls.get(0).complete("A");
+        assertEquals("A", second.join());
+    }
+
+    @Test
+    public void call_is_cancelled_when_all_callers_cancel() {
+        CompletableFuture<String> first = flights.executeAsync("a", this::call);
+        CompletableFuture<String> second = flights.executeAsync("a", this::call);
+        first.cancel(true);
+        second.cancel(true);
+        assertTrue(calls.get(0).isCancelled());
+        assertEquals(0, flights.size());
+
+        CompletableFuture<String> third = flights.executeAsync("a", this::call);
+        assertEquals(2, calls.size());
+        calls.get(1).complete("A");
+        assertEquals("A", third.join());
+    }
+
+    @Test
+    public void sync_callers_share_the_async_call() {
+        CompletableFuture<String> first = flights.executeAsync("a", this::call);
+        calls.get(0).complete("A");
+        assertEquals("A", first.join());
+        assertEquals("B", flights.execute("a", () -> "B"));
+    }
+
+    @Test
+    public void forgotten_calls_are_not_joined() {
+        CompletableFuture<String> first = flights.executeAsync("a", this::call);
+        flights.forget("a");
+        CompletableFuture<String> second = flights.executeAsync("a", this::call);
+        assertEquals(2, calls.size());
+        calls.get(1).complete("B");
+        calls.get(0).complete("A");
+        assertEquals("A", first.join());
+        assertEquals("B", second.join());
+        assertEquals(0, flights.size());
+    }
+
+    private CompletableFuture<String> call() {
+        CompletableFuture<String> call = new CompletableFuture<>();
+        calls.add(call);
+        return call;
+    }
+
+}
@@ -0,0 +1,125 @@
+/**
+ * Copyright (C) 2013 Guestful (info@guestful.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.guestful.client.nextable;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.time.Duration;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.LocalTime;
+import java.time.ZoneId;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * @author Mathieu Carbou (mathieu.carbou@gmail.com)
+ */
+@RunWith(JUnit4.class)
+public class NextableSlotMergerTest {
+
+    private static final List<Integer> TWO = Collections.singletonList(2);
+    private static final List<Integer> TWO_FOUR = Arrays.asList(2, 4);
+
+    @Test
+    public void merges_across_midnight_and_pages() {
+        NextableRestaurant restaurant = restaurant();
+        new NextableSlotMerger(restaurant)
+            .add(LocalDateTime.parse("2014-08-25T23:15"), TWO)
+            .add(LocalDateTime.parse("2014-08-25T23:30"), TWO)
+            .add(LocalDateTime.parse("2014-08-25T23:45"), TWO)
+            .add(LocalDateTime.parse("2014-08-26T00:00"), TWO)
+            .add(LocalDateTime.parse("2014-08-26T00:15"), TWO_FOUR)
+            .add(LocalDateTime.parse("2014-08-26T00:45"), TWO_FOUR);
+
+        // a later page continuing the same restaurant
+        NextableRestaurant next = restaurant();
+        new NextableSlotMerger(next)
+            .add(LocalDateTime.parse("2014-08-26T01:00"), TWO_FOUR)
+            .add(LocalDateTime.parse("2014-08-26T01:15"), TWO);
+        new NextableSlotMerger(restaurant).addAll(next);
+
+        assertEquals(2, restaurant.getAvailabilities().size());
+        NextableTimeSlot late = slot(restaurant, 0, 0);
+        assertEquals(LocalTime.of(23, 15), late.getStartTime());
+        assertEquals(Duration.ofMinutes(60), late.getDuration());
+        assertEquals(LocalDate.of(2014, 8, 25), late.getAvailability().getDay());
+        assertEquals(3, restaurant.getAvailabilities().get(1).getTimeSlots().size());
+        assertEquals(Duration.ofMinutes(15), slot(restaurant, 1, 0).getDuration());
+        assertEquals(Duration.ofMinutes(30), slot(restaurant, 1, 1).getDuration());
+        assertEquals(TWO, slot(restaurant, 1, 2).getPartySizes());
+        assertTrue(restaurant.hasAvailability(LocalDateTime.parse("2014-08-26T00:10"), 2));
+    }
+
+    @Test
+    public void out_of_order_slots_replace_existing_ones() {
+        NextableRestaurant restaurant = restaurant();
+        NextableSlotMerger merger = new NextableSlotMerger(restaurant);
+        for (int m = 0; m < 60; m += 15) {
+            merger.add(LocalDateTime.of(2014, 8, 26, 19, m), TWO);
+        }
+        merger.add(LocalDateTime.parse("2014-08-25T19:00"), TWO);
+        merger.add(LocalDateTime.parse("2014-08-26T19:15"), Collections.emptyList());
+        merger.add(LocalDateTime.parse("2014-08-26T19:30"), TWO_FOUR);
+        merger.add(LocalDateTime.parse("2014-08-26T20:00"), TWO_FOUR);
+
+        assertEquals(LocalDate.of(2014, 8, 25), restaurant.getAvailabilities().get(0).getDay());
+        List<NextableTimeSlot> slots = restaurant.getAvailabilities().get(1).getTimeSlots();
+        assertEquals(4, slots.size());
+        assertEquals(LocalTime.of(19, 0), slots.get(0).getStartTime());
+        assertEquals(Duration.ofMinutes(15), slots.get(0).getDuration());
+        assertEquals(LocalTime.of(19, 30), slots.get(1).getStartTime());
+        assertEquals(TWO_FOUR, slots.get(1).getPartySizes());
+        assertEquals(LocalTime.of(19, 45), slots.get(2).getStartTime());
+        assertEquals(TWO, slots.get(2).getPartySizes());
+        assertEquals(LocalTime.of(20, 0), slots.get(3).getStartTime());
+        assertFalse(restaurant.hasAvailability(LocalDateTime.parse("2014-08-26T19:20"), 2));
+    }
+
+    @Test
+    public void splits_back_to_granularity() {
+        NextableRestaurant restaurant = restaurant();
+        NextableSlotMerger merger = new NextableSlotMerger(restaurant)
+            .add(LocalDateTime.parse("2014-08-25T23:30"), TWO)
+            .add(LocalDateTime.parse("2014-08-25T23:45"), TWO)
+            .add(LocalDateTime.parse("2014-08-26T00:00"), TWO);
+        assertEquals(1, restaurant.getAvailabilities().size());
+
+        merger.split();
+        assertEquals(2, restaurant.getAvailabilities().size());
+        assertEquals(2, restaurant.getAvailabilities().get(0).getTimeSlots().size());
+        assertEquals(LocalTime.MIDNIGHT, slot(restaurant, 1, 0).getStartTime());
+        assertEquals(Duration.ofMinutes(15), slot(restaurant, 1, 0).getDuration());
+
+        // merging goes on after a split
+        merger.add(LocalDateTime.parse("2014-08-26T00:15"), TWO);
+        assertEquals(Duration.ofMinutes(30), slot(restaurant, 1, 0).getDuration());
+    }
+
+    private static NextableRestaurant restaurant() {
+        return new NextableRestaurant("R1", ZoneId.of("America/Montreal")).setGranularity(Duration.ofMinutes(15));
+    }
+
+    private static NextableTimeSlot slot(NextableRestaurant restaurant, int day, int slot) {
+        return restaurant.getAvailabilities().get(day).getTimeSlots().get(slot);
+    }
+
+}
@@ -0,0 +1,412 @@
+/**
+ * Copyright (C) 2013 Guestful (info@guestful.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.guestful.client.nextable;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import javax.json.JsonArrayBuilder;
+import javax.json.JsonObject;
+import javax.json.JsonObjectBuilder;
+import javax.json.JsonReader;
+import javax.json.JsonStructure;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.time.DayOfWeek;
+import java.time.Duration;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.LocalTime;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * In-process stand-in for the Nextable API, to run the client end to end without network access nor token.
+ * <p>
+ * Implements {@code restaurants/{id}}, {@code reservations} (GET, POST, PUT, DELETE) and
+ * {@code reservations/availability} over generated data: any restaurant id exists, with a lunch and a dinner service
+ * every 15 minutes (closed on Mondays), derived from the id so that responses are stable. Reservations live in memory.
+ * Creations and editions carrying an {@code Idempotency-Key} header are only applied once per key, and a creation can be
+ * looked up by its key with the {@code idempotencyKey} query parameter. Editions update the fields they carry. Latency,
+ * error injection, throttling and lost responses can be changed while the server runs.
+ * <pre>
+ * try (NextableStubServer server = new NextableStubServer().setLatency(NextableStubServer.Latency.logNormal(Duration.ofMillis(20), 0.5)).start()) {
+ *     NextableClient client = new NextableClient(restClient, "token", server.getUri());
+ *     ...
+ * }
+ * </pre>
+ * Shipped in the test jar of the module.
+ *
+ * @author Mathieu Carbou (mathieu.carbou@gmail.com)
+ */
+public class NextableStubServer implements AutoCloseable {
+
+    private static final String PREFIX = "/api/v1/";
+
+    private final ConcurrentMap<String, JsonObject> reservations = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, Boolean> cancelled = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, String> idempotencyKeys = new ConcurrentHashMap<>();
+    private final AtomicInteger lostResponses = new AtomicInteger();
+    private final AtomicLong ids = new AtomicLong(1000);
+    private final LongAdder requests = new LongAdder();
+    private final LongAdder throttled = new LongAdder();
+
+    private volatile Latency latency = Latency.NONE;
+    private volatile double errorRate;
+    private volatile int errorStatus = 500;
+    private volatile NextableRateLimiter throttle;
+
+    private HttpServer server;
+    private ExecutorService executor;
+
+    /**
+     * Delay added before answering each request.
+     */
+    @FunctionalInterface
+    public interface Latency {
+
+        Latency NONE = random -> 0;
+
+        long nextNanos(Random random);
+
+        static Latency fixed(Duration delay) {
+            long nanos = delay.toNanos();
+            return random -> nanos;
+        }
+
+        static Latency uniform(Duration min, Duration max) {
+            long from = min.toNanos();
+            long range = max.toNanos() - from;
+            return random -> from + (long) (random.nextDouble() * range);
+        }
+
+        /**
+         * Long tailed latency, as usually observed on remote services: half of the requests are faster than the median,
+         * and a {@code sigma} of 1 puts the 99th percentile about 10 times above it.
+         */
+        static Latency logNormal(Duration median, double sigma) {
+            long nanos = median.toNanos();
+            return random -> (long) (nanos * Math.exp(sigma * random.nextGaussian()));
+        }
+    }
+
+    public NextableStubServer setLatency(Latency latency) {
+        this.latency = latency == null ? Latency.NONE : latency;
+        return this;
+    }
+
+    /**
+     * @param errorRate ratio, between 0 and 1, of the requests answered with {@code status}
+     */
+    public NextableStubServer setErrors(double errorRate, int status) {
+        if (errorRate < 0 || errorRate > 1) throw new IllegalArgumentException("Bad error rate: " + errorRate);
+        this.errorRate = errorRate;
+        this.errorStatus = status;
+        return this;
+    }
+
+    /**
+     * Answers 429 to the requests exceeding {@code permitsPerSecond} per api key, or never throttles if 0.
+     */
+    public NextableStubServer setThrottling(double permitsPerSecond, int burst) {
+        this.throttle = permitsPerSecond <= 0 ? null : new NextableRateLimiter(permitsPerSecond, burst).setMaxWait(Duration.ZERO);
+        return this;
+    }
+
+    /**
+     * Applies the next {@code count} writes (POST, PUT and DELETE) but answers them with a 504, as a gateway timing out
+     * after Nextable committed.
+     */
+    public NextableStubServer loseResponses(int count) {
+        lostResponses.set(count);
+        return this;
+    }
+
+    public long getRequestCount() {
+        return requests.sum();
+    }
+
+    public long getThrottledCount() {
+        return throttled.sum();
+    }
+
+    public Map<String, JsonObject> getReservations() {
+        return reservations;
+    }
+
+    public synchronized NextableStubServer start() {
+        if (server != null) throw new IllegalStateException("Already started");
+        try {
+            server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 1024);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        // latency is simulated by sleeping, so give each request its own thread
+        executor = Executors.newCachedThreadPool(r -> {
+            Thread thread = new Thread(r, "nextable-stub");
+            thread.setDaemon(true);
+            return thread;
+        });
+        server.setExecutor(executor);
+        server.createContext(PREFIX, this::handle);
+        server.start();
+        return this;
+    }
+
+    /**
+     * @return the base uri to give to {@link NextableClient#NextableClient(javax.ws.rs.client.Client, String, String)}
+     * or to return from {@link NextableClient#buildWebTarget()}
+     */
+    public String getUri() {
+        if (server == null) throw new IllegalStateException("Not started");
+        return "http://127.0.0.1:" + server.getAddress().getPort() + PREFIX.substring(0, PREFIX.length() - 1);
+    }
+
+    @Override
+    public synchronized void close() {
+        if (server != null) {
+            server.stop(0);
+            executor.shutdownNow();
+            server = null;
+        }
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        requests.increment();
+        try {
+            Map<String, List<String>> query = parseQuery(exchange.getRequestURI().getRawQuery());
+            JsonObject body = null;
+            if ("POST".equals(exchange.getRequestMethod()) || "PUT".equals(exchange.getRequestMethod())) {
+                try (JsonReader reader = NextableJson.getProvider().createReader(exchange.getRequestBody())) {
+                    body = reader.readObject();
+                }
+            }
+            String apiKey = body != null ? body.getString("apiKey", "") : first(query, "apiKey", "");
+            ThreadLocalRandom random = ThreadLocalRandom.current();
+            long delay = latency.nextNanos(random);
+            if (delay > 0) TimeUnit.NANOSECONDS.sleep(delay);
+            NextableRateLimiter throttle = this.throttle;
+            if (throttle != null && throttle.reserve(apiKey) < 0) {
+                throttled.increment();
+                send(exchange, 429, message("Too many requests"));
+            } else if (errorRate > 0 && random.nextDouble() < errorRate) {
+                send(exchange, errorStatus, message("Injected error"));
+            } else {
+                boolean lost = !"GET".equals(exchange.getRequestMethod()) && lostResponses.getAndUpdate(n -> Math.max(0, n - 1)) > 0;
+                route(exchange, exchange.getRequestURI().getPath().substring(PREFIX.length()), query, body, lost);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (RuntimeException e) {
+            send(exchange, 400, message(String.valueOf(e.getMessage())));
+        } finally {
+            exchange.close();
+        }
+    }
+
+    private void route(HttpExchange exchange, String path, Map<String, List<String>> query, JsonObject body, boolean lost) throws IOException {
+        String method = exchange.getRequestMethod();
+        if (path.startsWith("restaurants/") && "GET".equals(method)) {
+            send(exchange, 200, restaurant(path.substring("restaurants/".length())));
+        } else if (path.equals("reservations/availability") && "GET".equals(method)) {
+            send(exchange, 200, availability(query));
+        } else if (path.equals("reservations")) {
+            switch (method) {
+                case "GET": {
+                    String idempotencyKey = first(query, "idempotencyKey", null);
+                    if (idempotencyKey != null) {
+                        String id = idempotencyKeys.get(idempotencyKey);
+                        if (id == null) {
+                            send(exchange, 404, message("Reservation not found"));
+                        } else {
+                            JsonObjectBuilder result = NextableJson.createObjectBuilder().add("key", id);
+                            reservations.get(id).forEach(result::add);
+                            send(exchange, 200, NextableJson.createObjectBuilder().add("result", result).build());
+                        }
+                        break;
+                    }
+                    JsonObject reservation = reservations.get(first(query, "reservationId", ""));
+                    if (reservation == null) send(exchange, 404, message("Reservation not found"));
+                    else send(exchange, 200, reservation);
+                    break;
+                }
+                case "POST": {
+                    String idempotencyKey = exchange.getRequestHeaders().getFirst("Idempotency-Key");
+                    String id = idempotencyKey == null ? create(body) : idempotencyKeys.computeIfAbsent(idempotencyKey, k -> create(body));
+                    send(exchange, lost, 200, NextableJson.createObjectBuilder().add("result", NextableJson.createObjectBuilder().add("key", id)).build());
+                    break;
+                }
+                case "PUT": {
+                    String id = body.getString("reservationId", "");
+                    String idempotencyKey = exchange.getRequestHeaders().getFirst("Idempotency-Key");
+                    if (!reservations.containsKey(id)) {
+                        send(exchange, 404, message("Reservation not found"));
+                    } else {
+                        // a replayed edition is answered with the current reservation, without being applied again
+                        if (idempotencyKey == null || idempotencyKeys.putIfAbsent(idempotencyKey, id) == null) {
+                            reservations.computeIfPresent(id, (k, reservation) -> {
+                                JsonObjectBuilder edited = NextableJson.createObjectBuilder();
+                                reservation.forEach(edited::add);
+                                body.forEach(edited::add);
+                                return edited.build();
+                            });
+                        }
+                        JsonObjectBuilder result = NextableJson.createObjectBuilder().add("key", id);
+                        reservations.get(id).forEach(result::add);
+                        send(exchange, lost, 200, NextableJson.createObjectBuilder().add("result", result).build());
+                    }
+                    break;
+                }
+                case "DELETE": {
+                    String id = first(query, "reservationId", "");
+                    if (!reservations.containsKey(id)) send(exchange, 404, message("Reservation not found"));
+                    else if (cancelled.putIfAbsent(id, Boolean.TRUE) != null) send(exchange, 400, message("Reservation already cancelled"));
+                    else send(exchange, lost, 200, NextableJson.createObjectBuilder().build());
+                    break;
+                }
+                default:
+                    send(exchange, 405, message("Method not allowed"));
+            }
+        } else {
+            send(exchange, 404, message("Not found: " + path));
+        }
+    }
+
+    private String create(JsonObject reservation) {
+        String id = String.valueOf(ids.incrementAndGet());
+        reservations.put(id, reservation);
+        return id;
+    }
+
+    private static JsonObject restaurant(String id) {
+        Random random = new Random(id.hashCode());
+        return NextableJson.createObjectBuilder()
+            .add("restaurantName", "Restaurant " + id)
+            .add("timeZone", "America/Montreal")
+            .add("timeSlotSpan", 15)
+            .add("description", "Generated restaurant " + id)
+            .add("businessPhone", "514555" + (1000 + random.nextInt(9000)))
+            .add("address", (1 + random.nextInt(5000)) + " rue Saint-Denis")
+            .add("city", "Montreal")
+            .add("state", "QC")
+            .add("zip", "H2X 3K8")
+            .add("country", "CA")
+            .add("price", "$$$$$$$$".substring(0, 4 * (1 + random.nextInt(2))))
+            .add("cuisine1", "French")
+            .add("cuisine2", random.nextBoolean() ? "Bistro" : "")
+            .build();
+    }
+
+    private static JsonStructure availability(Map<String, List<String>> query) {
+        List<String> restaurantIds = query.getOrDefault("restaurantIds", new ArrayList<>());
+        int page = Integer.parseInt(first(query, "page", "0"));
+        int pageSize = Integer.parseInt(first(query, "pageSize", "365"));
+        int partySize = Integer.parseInt(first(query, "partySize", "0"));
+        LocalDateTime from = LocalDateTime.parse(first(query, "beginDateTime", LocalDate.now().atStartOfDay().toString()));
+        LocalDateTime to = LocalDateTime.parse(first(query, "endDateTime", from.plusDays(7).toString()));
+        JsonArrayBuilder restaurants = NextableJson.createArrayBuilder();
+        for (int i = page * pageSize; i < Math.min(restaurantIds.size(), (page + 1) * pageSize); i++) {
+            String id = restaurantIds.get(i);
+            JsonArrayBuilder days = NextableJson.createArrayBuilder();
+            for (LocalDate day = from.toLocalDate(); !day.isAfter(to.toLocalDate()); day = day.plusDays(1)) {
+                JsonArrayBuilder slots = NextableJson.createArrayBuilder();
+                if (day.getDayOfWeek() != DayOfWeek.MONDAY) {
+                    Random random = new Random(id.hashCode() * 31L + day.toEpochDay());
+                    service(slots, day, LocalTime.of(11, 30), LocalTime.of(14, 0), from, to, partySize, random);
+                    service(slots, day, LocalTime.of(17, 0), LocalTime.of(22, 30), from, to, partySize, random);
+                }
+                days.add(NextableJson.createObjectBuilder().add("date", day.atStartOfDay().toString() + ":00").add("slots", slots));
+            }
+            restaurants.add(NextableJson.createObjectBuilder()
+                .add("id", id)
+                .add("timeZone", "America/Montreal")
+                .add("slotSize", 15)
+                .add("availability", days));
+        }
+        return restaurants.build();
+    }
+
+    private static void service(JsonArrayBuilder slots, LocalDate day, LocalTime start, LocalTime end, LocalDateTime from, LocalDateTime to, int partySize, Random random) {
+        int maxPartySize = 12;
+        for (LocalTime time = start; time.isBefore(end); time = time.plusMinutes(15)) {
+            // tables get booked as the service goes on, large ones first
+            if (maxPartySize > 1 && random.nextInt(4) == 0) maxPartySize -= 1 + random.nextInt(2);
+            LocalDateTime dateTime = day.atTime(time);
+            if (dateTime.isBefore(from) || dateTime.isAfter(to)) continue;
+            JsonArrayBuilder sizes = NextableJson.createArrayBuilder();
+            for (int n = Math.max(1, partySize); n <= maxPartySize; n++) {
+                sizes.add(NextableJson.createObjectBuilder().add("size", n));
+            }
+            slots.add(NextableJson.createObjectBuilder().add("time24", time.toString()).add("partySizes", sizes));
+        }
+    }
+
+    private static JsonObject message(String message) {
+        return NextableJson.createObjectBuilder().add("message", message).build();
+    }
+
+    private static void send(HttpExchange exchange, boolean lost, int status, JsonStructure json) throws IOException {
+        if (lost) send(exchange, 504, message("Gateway timeout"));
+        else send(exchange, status, json);
+    }
+
+    private static void send(HttpExchange exchange, int status, JsonStructure json) throws IOException {
+        byte[] bytes = json.toString().getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
+        exchange.sendResponseHeaders(status, bytes.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(bytes);
+        }
+    }
+
+    private static String first(Map<String, List<String>> query, String name, String defaultValue) {
+        List<String> values = query.get(name);
+        return values == null || values.isEmpty() ? defaultValue : values.get(0);
+    }
+
+    private static Map<String, List<String>> parseQuery(String rawQuery) {
+        Map<String, List<String>> query = new HashMap<>();
+        if (rawQuery == null) return query;
+        try {
+            for (String param : rawQuery.split("&")) {
+                int eq = param.indexOf('=');
+                String name = URLDecoder.decode(eq < 0 ? param : param.substring(0, eq), "UTF-8");
+                String value = eq < 0 ? "" : URLDecoder.decode(param.substring(eq + 1), "UTF-8");
+                query.computeIfAbsent(name, k -> new ArrayList<>()).add(value);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return query;
+    }
+
+}
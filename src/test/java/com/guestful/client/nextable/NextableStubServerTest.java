@@ -0,0 +1,529 @@
+/**
+ * Copyright (C) 2013 Guestful (info@guestful.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.guestful.client.nextable;
+
+import org.glassfish.jersey.jsonp.JsonProcessingFeature;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import javax.json.JsonObject;
+import javax.ws.rs.client.Client;
+import javax.ws.rs.client.ClientBuilder;
+import javax.ws.rs.client.ClientResponseFilter;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Stream;
+
+import static org.junit.Assert.*;
+
+/**
+ * @author Mathieu Carbou (mathieu.carbou@gmail.com)
+ */
+@RunWith(JUnit4.class)
+public class NextableStubServerTest {
+
+    private NextableStubServer server;
+    private Client restClient;
+    private NextableClient nextable;
+
+    @Before
+    public void start() {
+        server = new NextableStubServer().start();
+        restClient = ClientBuilder.newBuilder().build().register(JsonProcessingFeature.class);
+        nextable = new NextableClient(restClient, "token", server.getUri());
+    }
+
+    @After
+    public void stop() {
+        restClient.close();
+        server.close();
+    }
+
+    @Test
+    public void serves_restaurants_availabilities_and_reservations() {
+        assertEquals("Restaurant 17856R898", nextable.getRestaurant("17856R898").getName());
+
+        LocalDateTime from = LocalDateTime.parse("2014-08-26T00:00:00");
+        List<NextableRestaurant> restaurants = nextable.searchAvailabilities(new NextableAvailabilitySearchCriteria()
+            .addRestaurantId("17856R898")
+            .addRestaurantId("CRD9H5807")
+            .setFrom(from)
+            .setTo(from.plusDays(6))
+            .setPartySize(2));
+        assertEquals(2, restaurants.size());
+        assertEquals(6, restaurants.get(0).getAvailabilities().size());
+        assertTrue(restaurants.get(0).hasAvailability(LocalDateTime.parse("2014-08-26T11:30:00"), 2));
+
+        NextableReservation reservation = nextable.createReservation(new NextableReservation()
+            .setRestaurantId("17856R898")
+            .setFirstName("Mathieu")
+            .setLastName("Carbou")
+            .setStart(LocalDateTime.parse("2014-08-26T19:00:00"))
+            .setPartySize(2));
+        assertNotNull(reservation.getId());
+        JsonObject sent = server.getReservations().get(reservation.getId());
+        assertEquals("token", sent.getString("apiKey"));
+        assertEquals(reservation.toJson().getString("dateAndTime"), sent.getString("dateAndTime"));
+        assertEquals("Mathieu", nextable.getReservation(reservation.getId(), "17856R898").getFirstName());
+        assertEquals(4, nextable.editReservation(reservation.setPartySize(4)).getPartySize());
+        nextable.cancelReservation(reservation);
+        nextable.cancelReservation(reservation);
+    }
+
+    @Test
+    public void cancelling_releases_the_request() throws InterruptedException {
+        // counts the responses received and the ones closed
+        AtomicInteger received = new AtomicInteger();
+        AtomicInteger closed = new AtomicInteger();
+        restClient.register((ClientResponseFilter) (request, response) -> {
+            received.incrementAndGet();
+            response.setEntityStream(new FilterInputStream(response.getEntityStream()) {
+                boolean done;
+
+                @Override
+                public void close() throws IOException {
+                    if (!done) closed.incrementAndGet();
+                    done = true;
+                    super.close();
+                }
+            });
+        });
+        nextable = new NextableClient(restClient, "token", server.getUri());
+        NextableBulkhead bulkhead = new NextableBulkhead(1);
+        nextable.setBulkhead(NextableOperation.GET_RESTAURANT, bulkhead);
+        CountDownLatch arrived = new CountDownLatch(1);
+        server.setLatency(random -> {
+            arrived.countDown();
+            return Duration.ofMillis(200).toNanos();
+        });
+
+        CompletableFuture<NextableRestaurant> call = nextable.getRestaurantAsync("17856R898");
+        assertTrue(arrived.await(5, TimeUnit.SECONDS));
+        assertTrue(call.cancel(true));
+        assertEquals(0, bulkhead.getInFlight());
+
+        // the response arriving after the cancellation is closed
+        server.setLatency(NextableStubServer.Latency.NONE);
+        assertEquals("Restaurant 17856R898", nextable.getRestaurant("17856R898").getName());
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while ((received.get() < 2 || closed.get() < received.get()) && System.nanoTime() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(2, received.get());
+        assertEquals(2, closed.get());
+    }
+
+    @Test
+    public void closing_a_stream_releases_the_prefetched_page() throws InterruptedException {
+        nextable.setSearchCoalescing(true);
+        NextableBulkhead bulkhead = new NextableBulkhead(1);
+        nextable.setBulkhead(NextableOperation.SEARCH_AVAILABILITIES, bulkhead);
+        // the first page is served at once, the prefetched one is held
+        AtomicInteger searches = new AtomicInteger();
+        CountDownLatch prefetched = new CountDownLatch(1);
+        server.setLatency(random -> {
+            if (searches.incrementAndGet() == 1) return 0;
+            prefetched.countDown();
+            return Duration.ofMillis(200).toNanos();
+        });
+
+        LocalDateTime from = LocalDateTime.parse("2014-08-26T00:00:00");
+        NextableAvailabilitySearchCriteria criteria = new NextableAvailabilitySearchCriteria()
+            .addRestaurantId("17856R898")
+            .addRestaurantId("CRD9H5807")
+            .addRestaurantId("5T9QX2C07")
+            .setFrom(from)
+            .setTo(from.plusDays(1))
+            .setPartySize(2)
+            .setPageSize(1);
+        try (Stream<NextableRestaurant> stream = nextable.streamAvailabilities(criteria)) {
+            Iterator<NextableRestaurant> iterator = stream.iterator();
+            assertNotNull(iterator.next());
+            assertTrue(prefetched.await(5, TimeUnit.SECONDS));
+            assertEquals(1, bulkhead.getInFlight());
+        }
+        assertEquals(0, bulkhead.getInFlight());
+
+        // the coalesced search was given up: the same page is requested again
+        server.setLatency(NextableStubServer.Latency.NONE);
+        List<NextableRestaurant> second = nextable.searchAvailabilities(criteria.copy(criteria.getRestaurantIds()).setPage(1));
+        assertEquals(1, second.size());
+        assertEquals(3, server.getRequestCount());
+    }
+
+    @Test
+    public void searches_in_shards() {
+        LocalDateTime from = LocalDateTime.parse("2014-08-26T00:00:00");
+        NextableAvailabilitySearchCriteria criteria = new NextableAvailabilitySearchCriteria()
+            .setFrom(from)
+            .setTo(from.plusDays(2))
+            .setPartySize(2);
+        for (String id : Arrays.asList("R5", "R1", "R6", "R0", "R3", "R2", "R4")) {
+            criteria.addRestaurantId(id);
+        }
+        List<NextableRestaurant> expected = nextable.searchAvailabilities(criteria);
+        assertEquals(1, server.getRequestCount());
+
+        AtomicInteger running = new AtomicInteger();
+        AtomicInteger maxRunning = new AtomicInteger();
+        server.setLatency(random -> {
+            maxRunning.accumulateAndGet(running.incrementAndGet(), Math::max);
+            try {
+                Thread.sleep(20);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            running.decrementAndGet();
+            return 0;
+        });
+        List<NextableRestaurant> restaurants = nextable.searchAvailabilities(criteria, 2, 2);
+        assertEquals(5, server.getRequestCount());
+        assertEquals(2, maxRunning.get());
+        // merged in criteria order
+        assertEquals(expected.size(), restaurants.size());
+        for (int i = 0; i < expected.size(); i++) {
+            assertEquals(expected.get(i).toJson(), restaurants.get(i).toJson());
+        }
+
+        // a single shard is a plain search
+        nextable.searchAvailabilities(criteria, 7, 2);
+        assertEquals(6, server.getRequestCount());
+
+        // a failed shard fails the search
+        server.setLatency(NextableStubServer.Latency.NONE).setErrors(1, 503);
+        try {
+            nextable.searchAvailabilities(criteria, 2, 2);
+            fail();
+        } catch (NextableException e) {
+            assertEquals(503, e.getStatusType().getStatusCode());
+        }
+    }
+
+    @Test
+    public void injects_errors_and_throttles() {
+        server.setErrors(1, 503);
+        try {
+            nextable.getRestaurant("17856R898");
+            fail();
+        } catch (NextableException e) {
+            assertEquals(503, e.getStatusType().getStatusCode());
+        }
+
+        server.setErrors(0, 503).setThrottling(1, 2);
+        List<CompletableFuture<NextableRestaurant>> calls = new ArrayList<>();
+        for (int i = 0; i < 5; i++) {
+            calls.add(nextable.getRestaurantAsync("17856R898"));
+        }
+        int failed = 0;
+        for (CompletableFuture<NextableRestaurant> call : calls) {
+            try {
+                call.join();
+            } catch (RuntimeException e) {
+                assertEquals(429, ((NextableException) NextableFutures.unwrap(e)).getStatusType().getStatusCode());
+                failed++;
+            }
+        }
+        assertEquals(3, failed);
+        assertEquals(3, server.getThrottledCount());
+    }
+
+    @Test
+    public void runs_batches_without_aborting_on_failures() {
+        List<NextableReservation> reservations = new ArrayList<>();
+        for (int i = 0; i < 20; i++) {
+            reservations.add(new NextableReservation()
+                .setRestaurantId("17856R898")
+                .setFirstName("Guest " + i)
+                .setStart(LocalDateTime.parse("2014-08-26T19:00:00"))
+                .setPartySize(2));
+        }
+        List<Integer> progress = new ArrayList<>();
+        List<NextableBatchResult<NextableReservation, NextableReservation>> created = nextable.createReservations(reservations, 4, (result, completed, failed, total) -> {
+            synchronized (progress) {
+                progress.add(completed);
+            }
+        });
+        assertEquals(20, created.size());
+        assertEquals(20, progress.size());
+        assertEquals(20, server.getReservations().size());
+        for (int i = 0; i < 20; i++) {
+            assertTrue(created.get(i).isSuccess());
+            assertEquals(i, created.get(i).getIndex());
+            assertSame(reservations.get(i), created.get(i).getResult());
+        }
+
+        // unknown reservations fail on their own
+        reservations.add(5, new NextableReservation().setId("unknown").setRestaurantId("17856R898"));
+        List<NextableBatchResult<NextableReservation, Void>> cancelled = nextable.cancelReservations(reservations, 4, null);
+        assertEquals(21, cancelled.size());
+        assertEquals(20, cancelled.stream().filter(NextableBatchResult::isSuccess).count());
+        assertEquals(404, ((NextableException) cancelled.get(5).getFailure()).getStatusType().getStatusCode());
+    }
+
+    @Test
+    public void retries_lost_creations_without_double_booking() {
+        nextable.setWriteJournal(new NextableInMemoryWriteJournal());
+        nextable.setRetryPolicy(new NextableRetryPolicy().setBaseDelay(Duration.ofMillis(1)));
+        NextableReservation template = new NextableReservation()
+            .setRestaurantId("17856R898")
+            .setFirstName("Mathieu")
+            .setStart(LocalDateTime.parse("2014-08-26T19:00:00"))
+            .setPartySize(2);
+
+        // writes are not retried unless Nextable is known to deduplicate them
+        server.loseResponses(1);
+        try {
+            nextable.createReservation(template);
+            fail();
+        } catch (NextableException e) {
+            assertEquals(504, e.getStatusType().getStatusCode());
+        }
+        assertEquals(1, server.getRequestCount());
+        assertEquals(1, nextable.getWriteJournal().getPendingWrites().size());
+        nextable.setWriteJournal(new NextableInMemoryWriteJournal());
+
+        nextable.setServerDeduplicatesWrites(true);
+        server.loseResponses(1);
+        NextableReservation reservation = nextable.createReservation(template.setId(null).setStart(LocalDateTime.parse("2014-08-26T20:00:00")));
+        assertEquals(3, server.getRequestCount());
+        assertEquals(2, server.getReservations().size());
+        assertTrue(server.getReservations().containsKey(reservation.getId()));
+        assertTrue(nextable.getWriteJournal().getPendingWrites().isEmpty());
+    }
+
+    @Test
+    public void applies_every_write_of_a_reservation() {
+        nextable.setWriteJournal(new NextableInMemoryWriteJournal());
+        NextableReservation reservation = nextable.createReservation(new NextableReservation()
+            .setRestaurantId("17856R898")
+            .setFirstName("Mathieu")
+            .setStart(LocalDateTime.parse("2014-08-26T19:00:00"))
+            .setPartySize(2));
+        nextable.editReservation(reservation.setPartySize(4));
+        assertEquals(4, server.getReservations().get(reservation.getId()).getInt("partySize"));
+        nextable.editReservation(reservation.setPartySize(6));
+        assertEquals(6, server.getReservations().get(reservation.getId()).getInt("partySize"));
+        assertEquals(6, nextable.getReservation(reservation.getId(), "17856R898").getPartySize());
+
+        // a template reused for another booking
+        String first = reservation.getId();
+        NextableReservation other = nextable.createReservation(reservation.setId(null).setStart(LocalDateTime.parse("2014-08-27T19:00:00")));
+        assertNotEquals(first, other.getId());
+        assertEquals(2, server.getReservations().size());
+        assertTrue(nextable.getWriteJournal().getPendingWrites().isEmpty());
+    }
+
+    @Test
+    public void reconciles_pending_writes() throws IOException {
+        Path file = Files.createTempFile("nextable", ".journal");
+        try {
+            nextable.setWriteJournal(new NextableFileWriteJournal(file));
+            NextableReservation reservation = nextable.createReservation(new NextableReservation()
+                .setRestaurantId("17856R898")
+                .setFirstName("Mathieu")
+                .setStart(LocalDateTime.parse("2014-08-26T19:00:00"))
+                .setPartySize(2));
+
+            // no retry policy: the lost writes stay pending
+            server.loseResponses(2);
+            try {
+                nextable.createReservation(new NextableReservation()
+                    .setRestaurantId("17856R898")
+                    .setFirstName("Guest")
+                    .setStart(LocalDateTime.parse("2014-08-26T20:00:00"))
+                    .setPartySize(4));
+                fail();
+            } catch (NextableException e) {
+                assertEquals(504, e.getStatusType().getStatusCode());
+            }
+            try {
+                // only changes the party size
+                nextable.editReservation(new NextableReservation().setId(reservation.getId()).setRestaurantId("17856R898").setPartySize(3));
+                fail();
+            } catch (NextableException e) {
+                assertEquals(504, e.getStatusType().getStatusCode());
+            }
+            assertEquals(2, server.getReservations().size());
+
+            // never reached Nextable
+            server.setErrors(1, 503);
+            try {
+                nextable.createReservation(new NextableReservation()
+                    .setRestaurantId("17856R898")
+                    .setFirstName("Other")
+                    .setStart(LocalDateTime.parse("2014-08-26T21:00:00"))
+                    .setPartySize(2));
+                fail();
+            } catch (NextableException e) {
+                assertEquals(503, e.getStatusType().getStatusCode());
+            }
+            server.setErrors(0, 503);
+
+            // refused writes are not kept
+            try {
+                nextable.editReservation(new NextableReservation().setId("unknown").setRestaurantId("17856R898"));
+                fail();
+            } catch (NextableException e) {
+                assertEquals(404, e.getStatusType().getStatusCode());
+            }
+
+            // as after a restart
+            nextable.setWriteJournal(new NextableFileWriteJournal(file));
+            assertEquals(3, nextable.getWriteJournal().getPendingWrites().size());
+            long requests = server.getRequestCount();
+            List<NextableBatchResult<NextablePendingWrite, NextableReservation>> results = nextable.reconcile();
+            assertEquals(3, results.size());
+            assertTrue(results.stream().allMatch(NextableBatchResult::isSuccess));
+            // the lost creation was applied: only looked up
+            assertEquals(NextableOperation.CREATE_RESERVATION, results.get(0).getItem().getOperation());
+            assertEquals("Guest", results.get(0).getResult().getFirstName());
+            assertNotNull(results.get(0).getResult().getId());
+            // the edit was applied: only checked
+            assertEquals(3, results.get(1).getResult().getPartySize());
+            assertEquals("Mathieu", results.get(1).getResult().getFirstName());
+            // the failed creation was not: looked up then sent again
+            assertEquals("Other", results.get(2).getResult().getFirstName());
+            assertEquals(requests + 4, server.getRequestCount());
+            assertEquals(3, server.getReservations().size());
+            assertTrue(nextable.getWriteJournal().getPendingWrites().isEmpty());
+            assertTrue(new NextableFileWriteJournal(file).getPendingWrites().isEmpty());
+        } finally {
+            Files.deleteIfExists(file);
+        }
+    }
+
+    @Test
+    public void prefetches_hot_restaurants() {
+        // first loads are spread over 10 ticks: with ticks of a nanosecond, they are all due at once
+        NextableAvailabilityPrefetcher prefetcher = new NextableAvailabilityPrefetcher(nextable)
+            .setTimeZone(ZoneId.of("America/Montreal"))
+            .setTick(Duration.ofNanos(1))
+            .addRestaurantId("17856R898")
+            .addRestaurantId("CRD9H5807");
+        assertNull(prefetcher.getSnapshot("17856R898"));
+        prefetcher.tick().join();
+        assertEquals(1, server.getRequestCount());
+        NextableAvailabilitySnapshot snapshot = prefetcher.getSnapshot("17856R898");
+        assertNotNull(snapshot);
+        assertSame(snapshot, prefetcher.getSnapshot("CRD9H5807"));
+        assertNotNull(prefetcher.getAge("CRD9H5807"));
+
+        // not due yet
+        prefetcher.tick().join();
+        assertEquals(1, server.getRequestCount());
+
+        // refreshed about every 20 reads
+        assertEquals(prefetcher.getMaxInterval().toNanos(), prefetcher.interval(0));
+        assertEquals(prefetcher.getMinInterval().toNanos(), prefetcher.interval(100));
+        assertEquals(Duration.ofSeconds(40).toNanos(), prefetcher.interval(0.5));
+
+        for (Runnable bad : Arrays.<Runnable>asList(
+            () -> prefetcher.setTick(Duration.ZERO),
+            () -> prefetcher.setMinInterval(Duration.ofSeconds(-1)),
+            () -> prefetcher.setMinInterval(Duration.ofMinutes(6)),
+            () -> prefetcher.setMaxInterval(Duration.ofSeconds(10)))) {
+            try {
+                bad.run();
+                fail();
+            } catch (IllegalArgumentException ignored) {
+            }
+        }
+    }
+
+    @Test
+    public void hedges_slow_searches() {
+        NextableInMemoryMetrics metrics = new NextableInMemoryMetrics();
+        nextable.setMetrics(metrics);
+        nextable.setHedgingPolicy(NextableOperation.SEARCH_AVAILABILITIES, new NextableHedgingPolicy().setMaxDelay(Duration.ofMillis(50)));
+        // would open if the cancelled first request, slow, was accounted
+        NextableCircuitBreaker breaker = new NextableCircuitBreaker("search")
+            .setMinimumCalls(2)
+            .setSlowCallDuration(Duration.ofMillis(10))
+            .setSlowCallRateThreshold(0.5);
+        nextable.setCircuitBreaker(NextableOperation.SEARCH_AVAILABILITIES, breaker);
+        AtomicInteger requests = new AtomicInteger();
+        CountDownLatch hedged = new CountDownLatch(1);
+        CountDownLatch done = new CountDownLatch(1);
+        // the first request is held until its hedge arrived and was answered
+        server.setLatency(random -> {
+            if (requests.getAndIncrement() > 0) {
+                hedged.countDown();
+            } else {
+                await(hedged);
+                await(done);
+            }
+            return 0;
+        });
+
+        try {
+            List<NextableRestaurant> restaurants = nextable.searchAvailabilities(new NextableAvailabilitySearchCriteria()
+                .addRestaurantId("17856R898")
+                .setFrom(LocalDateTime.parse("2014-08-26T00:00:00"))
+                .setTo(LocalDateTime.parse("2014-08-27T00:00:00")));
+            assertEquals(1, restaurants.size());
+            assertEquals(1, metrics.get(NextableOperation.SEARCH_AVAILABILITIES).getHedged());
+            assertEquals(2, server.getRequestCount());
+        } finally {
+            done.countDown();
+        }
+        // the first request was cancelled: neither a call nor a failure
+        assertEquals(1, metrics.get(NextableOperation.SEARCH_AVAILABILITIES).getCalls());
+        assertEquals(0, metrics.get(NextableOperation.SEARCH_AVAILABILITIES).getErrorCount());
+        assertEquals(NextableCircuitBreaker.State.CLOSED, breaker.getState());
+
+        // fast requests are not hedged
+        nextable.searchAvailabilities(new NextableAvailabilitySearchCriteria().addRestaurantId("17856R898"));
+        assertEquals(1, metrics.get(NextableOperation.SEARCH_AVAILABILITIES).getHedged());
+    }
+
+    @Test
+    public void measures_latency_end_to_end() {
+        NextableInMemoryMetrics metrics = new NextableInMemoryMetrics();
+        nextable.setMetrics(metrics);
+        server.setLatency(NextableStubServer.Latency.fixed(Duration.ofMillis(20)));
+        for (int i = 0; i < 5; i++) {
+            nextable.getRestaurant("17856R898");
+        }
+        NextableLatencyHistogram.Snapshot network = metrics.get(NextableOperation.GET_RESTAURANT).getNetworkTime().getSnapshot();
+        assertEquals(5, network.getCount());
+        assertTrue(network.getMin() >= Duration.ofMillis(20).toNanos());
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            latch.await(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+}
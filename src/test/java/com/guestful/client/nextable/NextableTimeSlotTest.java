@@ -0,0 +1,85 @@
+/**
+ * Copyright (C) 2013 Guestful (info@guestful.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.guestful.client.nextable;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.time.LocalDate;
+import java.time.LocalTime;
+import java.time.ZoneId;
+import java.util.Arrays;
+
+import static org.junit.Assert.*;
+
+/**
+ * @author Mathieu Carbou (mathieu.carbou@gmail.com)
+ */
+@RunWith(JUnit4.class)
+public class NextableTimeSlotTest {
+
+    @Test
+    public void party_sizes() {
+        NextableDailyAvailability day = new NextableRestaurant("R1", ZoneId.of("America/Montreal")).addAvailability(LocalDate.of(2014, 8, 25));
+        NextableTimeSlot slot = day.addTimeSlot(LocalTime.of(19, 0));
+        slot.addPartySize(8);
+        slot.addPartySize(2);
+        slot.addPartySize(4);
+        slot.addPartySize(2);
+        assertEquals(Arrays.asList(2, 4, 8), slot.getPartySizes());
+        assertEquals(2, slot.getMinPartySize());
+        assertEquals(8, slot.getMaxPartySize());
+        assertTrue(slot.hasPartySize(4));
+        assertFalse(slot.hasPartySize(3));
+        assertTrue(slot.getPartySizes().contains(8));
+
+        NextableTimeSlot other = day.addTimeSlot(LocalTime.of(19, 15));
+        other.addPartySize(4);
+        assertFalse(slot.hasSameProperties(other));
+        other.addPartySize(2);
+        other.addPartySize(8);
+        assertTrue(slot.hasSameProperties(other));
+        assertEquals("{\"start\":\"19:00\",\"duration\":15,\"end\":\"19:15\",\"partySizes\":[2,4,8]}", slot.toJson().toString());
+    }
+
+    @Test
+    public void party_sizes_out_of_the_mask() {
+        NextableDailyAvailability day = new NextableRestaurant("R1", ZoneId.of("America/Montreal")).addAvailability(LocalDate.of(2014, 8, 25));
+        NextableTimeSlot slot = day.addTimeSlot(LocalTime.of(19, 0));
+        slot.addPartySize(80);
+        slot.addPartySize(4);
+        slot.addPartySize(0);
+        slot.addPartySize(64);
+        assertEquals(Arrays.asList(0, 4, 64, 80), slot.getPartySizes());
+        assertEquals(0, slot.getMinPartySize());
+        assertEquals(80, slot.getMaxPartySize());
+        assertTrue(slot.hasPartySize(80));
+        assertFalse(slot.hasPartySize(63));
+
+        NextableTimeSlot other = slot.copy();
+        assertTrue(slot.hasSameProperties(other));
+        other.addPartySize(100);
+        assertFalse(slot.hasSameProperties(other));
+        assertEquals("[0,4,64,80,100]", other.toJson().getJsonArray("partySizes").toString());
+    }
+
+    @Test(expected = UnsupportedOperationException.class)
+    public void party_sizes_view_is_read_only() {
+        new NextableRestaurant("R1", ZoneId.of("America/Montreal")).addAvailability(LocalDate.of(2014, 8, 25)).addTimeSlot(LocalTime.of(19, 0)).getPartySizes().add(2);
+    }
+
+}
@@ -0,0 +1,173 @@
+/**
+ * Copyright (C) 2013 Guestful (info@guestful.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.guestful.client.nextable;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.time.Duration;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+import static org.junit.Assert.*;
+
+/**
+ * @author Mathieu Carbou (mathieu.carbou@gmail.com)
+ */
+@RunWith(JUnit4.class)
+public class NextableTtlRestaurantCacheTest {
+
+    private final NextableTtlRestaurantCache cache = new NextableTtlRestaurantCache();
+    private final List<CompletableFuture<NextableRestaurant>> loads = new ArrayList<>();
+
+    @Test
+    public void serves_hits_and_coalesces_misses() {
+        CompletableFuture<NextableRestaurant> first = cache.get("R1", this::load);
+        CompletableFuture<NextableRestaurant> second = cache.get("R1", this::load);
+        assertEquals(1, loads.size());
+        assertFalse(first.isDone());
+
+        NextableRestaurant restaurant = restaurant("R1");
+        loads.get(0).complete(restaurant);
+        assertSame(restaurant, first.join());
+        assertSame(restaurant, second.join());
+        assertSame(restaurant, cache.get("R1", this::load).join());
+        assertEquals(1, loads.size());
+
+        NextableCacheStats stats = cache.getStats();
+        assertEquals(1, stats.getHits());
+        assertEquals(2, stats.getMisses());
+        assertEquals(1, cache.size());
+    }
+
+    @Test
+    public void serves_stale_entries_while_reloading() {
+        cache.setTimeToLive(Duration.ZERO).setStaleWhileRevalidate(Duration.ofDays(1));
+        NextableRestaurant old = restaurant("R1");
+        cache.get("R1", this::load);
+        loads.get(0).complete(old);
+
+        assertSame(old, cache.get("R1", this::load).join());
+        assertSame(old, cache.get("R1", this::load).join());
+        // a single background reload
+        assertEquals(2, loads.size());
+
+        NextableRestaurant reloaded = restaurant("R1");
+        loads.get(1).complete(reloaded);
+        assertSame(reloaded, cache.get("R1", this::load).join());
+        assertEquals(3, cache.getStats().getStaleHits());
+    }
+
+    @Test
+    public void reloads_expired_entries() {
+        cache.setTimeToLive(Duration.ZERO).setStaleWhileRevalidate(Duration.ZERO);
+        cache.get("R1", this::load);
+        loads.get(0).complete(restaurant("R1"));
+
+        CompletableFuture<NextableRestaurant> expired = cache.get("R1", this::load);
+        assertFalse(expired.isDone());
+        assertEquals(2, loads.size());
+        assertEquals(2, cache.getStats().getMisses());
+    }
+
+    @Test
+    public void evicts_least_recently_used_entries() {
+        cache.setMaximumSize(2);
+        for (String id : new String[]{"R1", "R2"}) {
+            cache.get(id, this::load);
+        }
+        loads.forEach(load -> load.complete(restaurant("R")));
+        cache.get("R1", this::load);
+        cache.get("R3", this::load);
+        loads.get(2).complete(restaurant("R3"));
+
+        assertEquals(2, cache.size());
+        assertEquals(1, cache.getStats().getEvictions());
+        assertTrue(cache.get("R1", this::load).isDone());
+        assertFalse(cache.get("R2", this::load).isDone());
+    }
+
+    @Test
+    public void invalidates_entries_and_skips_failed_loads() {
+        cache.get("R1", this::load);
+        loads.get(0).complete(restaurant("R1"));
+        cache.invalidate("R1");
+        assertEquals(0, cache.size());
+
+        CompletableFuture<NextableRestaurant> reload = cache.get("R1", this::load);
+        loads.get(1).completeExceptionally(new IllegalStateException());
+        assertTrue(reload.isCompletedExceptionally());
+        assertEquals(0, cache.size());
+        assertEquals(1, cache.getStats().getLoadFailures());
+
+        cache.get("R1", this::load);
+        loads.get(2).complete(restaurant("R1"));
+        cache.invalidateAll();
+        assertEquals(0, cache.size());
+    }
+
+    @Test
+    public void does_not_store_loads_started_before_an_invalidation() {
+        CompletableFuture<NextableRestaurant> before = cache.get("R1", this::load);
+        cache.invalidate("R1");
+        // a new load, not joining the outdated one
+        CompletableFuture<NextableRestaurant> after = cache.get("R1", this::load);
+        assertEquals(2, loads.size());
+
+        NextableRestaurant outdated = restaurant("R1");
+        loads.get(0).complete(outdated);
+        assertSame(outdated, before.join());
+        assertEquals(0, cache.size());
+
+        NextableRestaurant current = restaurant("R1");
+        loads.get(1).complete(current);
+        assertSame(current, after.join());
+        assertSame(current, cache.get("R1", this::load).join());
+
+        cache.get("R2", this::load);
+        cache.invalidateAll();
+        loads.get(2).complete(restaurant("R2"));
+        assertEquals(0, cache.size());
+    }
+
+    @Test
+    public void rejects_negative_durations() {
+        try {
+            cache.setTimeToLive(Duration.ofSeconds(-1));
+            fail();
+        } catch (IllegalArgumentException ignored) {
+        }
+        try {
+            cache.setStaleWhileRevalidate(Duration.ofSeconds(-1));
+            fail();
+        } catch (IllegalArgumentException ignored) {
+        }
+    }
+
+    private CompletableFuture<NextableRestaurant> load(String restaurantId) {
+        CompletableFuture<NextableRestaurant> load = new CompletableFuture<>();
+        loads.add(load);
+        return load;
+    }
+
+    private static NextableRestaurant restaurant(String id) {
+        return new NextableRestaurant(id, ZoneId.of("America/Montreal"));
+    }
+
+}